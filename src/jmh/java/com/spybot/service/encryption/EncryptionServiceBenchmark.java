@@ -0,0 +1,104 @@
+package com.spybot.service.encryption;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.reflect.Field;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Counter nonces (EncryptionService.encryptBytes) against the SecureRandom nonce per message they replaced.
+// Run with: ./gradlew jmh -Pjmh.includes=EncryptionServiceBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionServiceBenchmark {
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @Param({"64", "1024"})
+    public int payloadBytes;
+
+    private EncryptionService service;
+    private SecretKeySpec key;
+    private SecureRandom secureRandom;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] keyBytes = new byte[32];
+        service = new EncryptionService(new SimpleMeterRegistry());
+        setField("secretKeyBase64", Base64.getEncoder().encodeToString(keyBytes));
+        service.init();
+        key = new SecretKeySpec(keyBytes, "AES");
+        secureRandom = new SecureRandom();
+        payload = new byte[payloadBytes];
+        ThreadLocalRandom.current().nextBytes(payload);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] counterNonceSingleThread() {
+        return service.encryptBytes(payload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] counterNonceFourThreads() {
+        return service.encryptBytes(payload);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] randomNonceSingleThread() throws Exception {
+        return sealWithRandomNonce();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] randomNonceFourThreads() throws Exception {
+        return sealWithRandomNonce();
+    }
+
+    private byte[] sealWithRandomNonce() throws Exception {
+        byte[] out = new byte[EncryptionService.encryptedSize(payload.length)];
+        byte[] iv = new byte[12];
+        secureRandom.nextBytes(iv);
+        System.arraycopy(iv, 0, out, 0, iv.length);
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        cipher.doFinal(payload, 0, payload.length, out, iv.length);
+        return out;
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = EncryptionService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+}
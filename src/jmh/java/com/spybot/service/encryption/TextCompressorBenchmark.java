@@ -0,0 +1,63 @@
+package com.spybot.service.encryption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+// Cost of the dictionary Deflate framing on typical chat text. The compression ratio for each size is
+// printed once in setup, so the stored-bytes saving can be read next to the time it costs.
+// Run with: ./gradlew jmh -Pjmh.includes=TextCompressorBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextCompressorBenchmark {
+
+    private static final String CHAT_TEXT = "Привет! Как дела? Что делаешь сегодня вечером? "
+            + "Давай завтра утром созвонимся, я позвоню тебе после работы. Спасибо 🙂 https://t.me/example ";
+
+    @Param({"80", "400", "4000"})
+    public int textChars;
+
+    private String text;
+    private byte[] framed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = CHAT_TEXT.repeat(textChars / CHAT_TEXT.length() + 1).substring(0, textChars);
+        framed = TextCompressor.encode(text, true, 64);
+        int raw = text.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("%nchars=%d raw_bytes=%d framed_bytes=%d ratio=%.2f%n",
+                textChars, raw, framed.length, (double) framed.length / raw);
+    }
+
+    @Benchmark
+    public byte[] encodeCompressed() {
+        return TextCompressor.encode(text, true, 64);
+    }
+
+    @Benchmark
+    public byte[] encodeRaw() {
+        return TextCompressor.encode(text, false, 64);
+    }
+
+    @Benchmark
+    public String decode() throws DataFormatException {
+        return TextCompressor.decode(framed);
+    }
+}
@@ -0,0 +1,69 @@
+package com.spybot.service.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Cost of building and applying the reverse delta stored for each edit: a typical one-word fix and a
+// full rewrite, where the diff gives up at MAX_EDIT_DISTANCE. Delta sizes are printed once in setup
+// next to the full-copy size they replace.
+// Run with: ./gradlew jmh -Pjmh.includes=TextDeltaBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextDeltaBenchmark {
+
+    private static final String CHAT_TEXT = "Привет! Как дела? Что делаешь сегодня вечером? "
+            + "Давай завтра утром созвонимся, я позвоню тебе после работы. Спасибо 🙂 https://t.me/example ";
+
+    @Param({"80", "400", "4000"})
+    public int textChars;
+
+    private String original;
+    private String wordFix;
+    private String rewrite;
+    private byte[] wordFixDelta;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        original = CHAT_TEXT.repeat(textChars / CHAT_TEXT.length() + 1).substring(0, textChars);
+        int middle = original.indexOf(' ', original.length() / 2);
+        wordFix = original.substring(0, middle) + " исправлено" + original.substring(middle);
+        rewrite = new StringBuilder(original).reverse().toString();
+        wordFixDelta = TextDelta.encode(wordFix, original);
+
+        int fullCopy = original.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("%nchars=%d full_copy_bytes=%d word_fix_delta_bytes=%d rewrite_delta_bytes=%d%n",
+                textChars, fullCopy, wordFixDelta.length, TextDelta.encode(rewrite, original).length);
+    }
+
+    @Benchmark
+    public byte[] encodeWordFix() {
+        return TextDelta.encode(wordFix, original);
+    }
+
+    @Benchmark
+    public byte[] encodeRewrite() {
+        return TextDelta.encode(rewrite, original);
+    }
+
+    @Benchmark
+    public String applyWordFix() {
+        return TextDelta.apply(wordFix, wordFixDelta);
+    }
+}
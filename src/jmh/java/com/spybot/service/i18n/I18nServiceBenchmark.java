@@ -0,0 +1,48 @@
+package com.spybot.service.i18n;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-notification cost of catalog lookups: a plain label, a template with arguments, an unknown key
+// (served from the fallback cache) and String.format on the same pattern as the baseline the
+// compiled templates replaced.
+// Run with: ./gradlew jmh -Pjmh.includes=I18nServiceBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class I18nServiceBenchmark {
+
+    private final I18nService i18n = new I18nService();
+
+    @Benchmark
+    public String label() {
+        return i18n.get("notify.deleted", "ru");
+    }
+
+    @Benchmark
+    public String templateWithArguments() {
+        return i18n.get("notify.page", "ru", 3, 12);
+    }
+
+    @Benchmark
+    public String unknownKey() {
+        return i18n.get("notify.missing", "ru");
+    }
+
+    @Benchmark
+    public String stringFormatBaseline() {
+        return String.format("<i>Страница %d из %d</i>", 3, 12);
+    }
+}
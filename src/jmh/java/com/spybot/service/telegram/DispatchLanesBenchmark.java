@@ -0,0 +1,70 @@
+package com.spybot.service.telegram;
+
+import com.spybot.config.ExecutionMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// PLATFORM against VIRTUAL execution mode under a synthetic update load: 64 submitters, each update
+// blocks for blockMicros as a stand-in for its JDBC round trip. Throughput mode gives updates per
+// second, SampleTime the latency distribution per update (p0.99 in the JMH report).
+// Run with: ./gradlew jmh -Pjmh.includes=DispatchLanesBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(64)
+public class DispatchLanesBenchmark {
+
+    private static final int CONNECTIONS = 1000;
+    private static final int DB_CONCURRENCY = 10;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode executionMode;
+
+    @Param({"8", "64"})
+    public int lanes;
+
+    @Param({"500"})
+    public long blockMicros;
+
+    private DispatchLanes dispatchLanes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatchLanes = new DispatchLanes(new SimpleMeterRegistry(), lanes, 10_000, executionMode, DB_CONCURRENCY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        dispatchLanes.shutdown();
+    }
+
+    @Benchmark
+    public void dispatchUpdate() {
+        String connectionId = "connection-" + ThreadLocalRandom.current().nextInt(CONNECTIONS);
+        dispatchLanes.submit(connectionId, () -> {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+            return CompletableFuture.completedFuture(null);
+        }).join();
+    }
+}
@@ -0,0 +1,77 @@
+package com.spybot.service.telegram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// UpdateDedupWindow against the ConcurrentHashMap key set it replaced (cleared every 10000 ids).
+// Run with: ./gradlew jmh -Pjmh.includes=UpdateDedupWindowBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateDedupWindowBenchmark {
+
+    private static final int MAX_PROCESSED_IDS = 10000;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private UpdateDedupWindow window;
+    private Set<Integer> processedIds;
+
+    @Setup
+    public void setUp() {
+        window = new UpdateDedupWindow(16384);
+        processedIds = ConcurrentHashMap.newKeySet();
+        nextId.set(0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean windowSingleThread() {
+        return window.markIfNew(nextId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean windowFourThreads() {
+        return window.markIfNew(nextId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean keySetSingleThread() {
+        return markInKeySet(nextId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean keySetFourThreads() {
+        return markInKeySet(nextId.incrementAndGet());
+    }
+
+    private boolean markInKeySet(int updateId) {
+        if (!processedIds.add(updateId)) {
+            return false;
+        }
+        if (processedIds.size() > MAX_PROCESSED_IDS) {
+            processedIds.clear();
+            processedIds.add(updateId);
+        }
+        return true;
+    }
+}
@@ -1,39 +1,68 @@
 package com.spybot.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
+// Executor for the blocking parts of the notification send path (decrypting an archived media copy
+// before it is uploaded); the Bot API calls themselves are asynchronous. In PLATFORM mode it is a small
+// fixed pool, in VIRTUAL mode every task gets a virtual thread bounded by the Telegram send budget and
+// submitters wait for a free slot instead of having tasks rejected. Update handling is bounded by
+// DispatchLanes (app.execution.db-concurrency) and media downloads by MediaArchiver.
 @Configuration
-@EnableAsync
 @Slf4j
 public class AsyncConfig {
 
-    @Bean(name = "telegramExecutor")
-    public Executor telegramExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(4);
-        executor.setMaxPoolSize(10);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("telegram-");
-        executor.setRejectedExecutionHandler((r, e) ->
-                log.warn("action=task_rejected, queue_size={}", e.getQueue().size()));
-        executor.initialize();
-        return executor;
-    }
+    @Value("${app.execution.mode:PLATFORM}")
+    private ExecutionMode executionMode;
 
     @Bean(name = "notificationExecutor")
-    public Executor notificationExecutor() {
+    public Executor notificationExecutor(MeterRegistry meterRegistry,
+                                         @Value("${app.execution.telegram-concurrency:30}") int telegramConcurrency) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return virtualExecutor("notification-", telegramConcurrency);
+        }
+
+        Counter rejected = rejectedCounter(meterRegistry, "notificationExecutor");
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(2);
         executor.setMaxPoolSize(5);
         executor.setQueueCapacity(50);
         executor.setThreadNamePrefix("notification-");
+        // Still rejects with an exception, as before; the counter makes it visible
+        executor.setRejectedExecutionHandler((r, e) -> {
+            rejected.increment();
+            new ThreadPoolExecutor.AbortPolicy().rejectedExecution(r, e);
+        });
         executor.initialize();
+        monitor(meterRegistry, executor, "notificationExecutor");
+        return executor;
+    }
+
+    private static Executor virtualExecutor(String threadNamePrefix, int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        log.info("action=virtual_executor_created, prefix={}, concurrency_limit={}", threadNamePrefix, concurrencyLimit);
         return executor;
     }
+
+    // Pool size, active threads, queue depth and completed tasks as executor.* meters
+    private static void monitor(MeterRegistry meterRegistry, ThreadPoolTaskExecutor executor, String name) {
+        new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), name, Tags.empty()).bindTo(meterRegistry);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String name) {
+        return meterRegistry.counter("spybot.executor.rejected", "name", name);
+    }
 }
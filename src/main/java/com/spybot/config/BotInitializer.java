@@ -4,6 +4,7 @@ import com.spybot.service.handler.CommandHandler;
 import com.spybot.service.telegram.NotificationService;
 import com.spybot.service.telegram.TelegramBotService;
 import com.spybot.service.telegram.UpdateDispatcherService;
+import com.spybot.service.telegram.UpdateMode;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -14,6 +15,7 @@ import org.springframework.context.annotation.Configuration;
 @RequiredArgsConstructor
 public class BotInitializer {
 
+    private final TelegramBotConfig botConfig;
     private final TelegramBotService botService;
     private final UpdateDispatcherService updateDispatcher;
     private final NotificationService notificationService;
@@ -25,8 +27,14 @@ public class BotInitializer {
         notificationService.setBotService(botService);
         commandHandler.setBotService(botService);
 
-        // Start listening for updates
-        botService.startListening(updateDispatcher::dispatch);
+        // Start receiving updates
+        if (botConfig.getUpdateMode() == UpdateMode.WEBHOOK) {
+            botService.registerWebhook();
+        } else {
+            botService.removeWebhook();
+            botService.startListening(updateDispatcher::dispatch, updateDispatcher::laneKey,
+                    updateDispatcher::release);
+        }
 
         log.info("action=bot_initialized, status=success");
     }
@@ -0,0 +1,8 @@
+package com.spybot.config;
+
+public enum ExecutionMode {
+    // Fixed pools of platform threads; concurrency is bounded by pool sizes
+    PLATFORM,
+    // A virtual thread per task; concurrency is bounded by explicit limits instead
+    VIRTUAL
+}
@@ -1,5 +1,7 @@
 package com.spybot.config;
 
+import com.spybot.service.telegram.UpdateConfirmMode;
+import com.spybot.service.telegram.UpdateMode;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -21,9 +23,43 @@ public class TelegramBotConfig {
     @NotBlank(message = "Telegram bot username is required")
     private String username;
 
+    private UpdateMode updateMode = UpdateMode.POLLING;
+
+    // Bot API base URL the token is appended to; override for a local Bot API server or a stand-in
+    private String apiUrl = "https://api.telegram.org/bot";
+
+    // Base URL for downloading files returned by getFile; the token and file path are appended
+    private String fileApiUrl = "https://api.telegram.org/file/bot";
+
+    private UpdateConfirmMode confirmMode = UpdateConfirmMode.AT_LEAST_ONCE;
+
+    // Deliveries of a failing update before it is skipped; 0 retries until it succeeds
+    private int updateMaxAttempts = 10;
+
     private String webhookPath = "/api/webhook";
 
+    // Public base URL Telegram posts updates to, e.g. https://bot.example.com
+    private String webhookUrl;
+
+    private String webhookSecret;
+
+    private int webhookMaxConnections = 40;
+
     private int maxRetries = 3;
 
     private long retryDelayMs = 1000;
+
+    // Telegram allows about 30 messages per second overall and 1 per second per chat
+    private double globalRatePerSecond = 30;
+
+    private double perChatRatePerSecond = 1;
+
+    private int perChatBurst = 3;
+
+    private int sendWorkers = 2;
+
+    // Upper bound on concurrent Bot API requests
+    private int maxInFlight = 256;
+
+    private int sendQueueCapacity = 10000;
 }
@@ -0,0 +1,26 @@
+package com.spybot.domain.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "bot_state")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BotState {
+
+    @Id
+    @Column(length = 100)
+    private String stateKey;
+
+    @Column(nullable = false)
+    private Long stateValue;
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+}
@@ -39,6 +39,9 @@ public class BusinessConnection {
     @Column
     private String lastName;
 
+    @Column
+    private String languageCode;
+
     @Column(nullable = false)
     private Boolean canReply;
 
@@ -3,14 +3,16 @@ package com.spybot.domain.entity;
 import com.spybot.domain.enums.EventType;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.NotFound;
+import org.hibernate.annotations.NotFoundAction;
+import org.hibernate.annotations.PartitionKey;
 
 import java.time.Instant;
 
 @Entity
 @Table(name = "message_events", indexes = {
         @Index(name = "idx_message_event_stored_message", columnList = "storedMessageId"),
-        @Index(name = "idx_message_event_type", columnList = "eventType"),
-        @Index(name = "idx_message_event_notified", columnList = "userNotified")
+        @Index(name = "idx_message_event_type", columnList = "eventType")
 })
 @Getter
 @Setter
@@ -23,7 +25,10 @@ public class MessageEvent {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // There is no foreign key since V8, so retention can remove the message before its events;
+    // such events load with a null storedMessage instead of failing the whole query
     @ManyToOne(fetch = FetchType.LAZY)
+    @NotFound(action = NotFoundAction.IGNORE)
     @JoinColumn(name = "storedMessageId", nullable = false)
     private StoredMessage storedMessage;
 
@@ -31,18 +36,52 @@ public class MessageEvent {
     @Column(nullable = false)
     private EventType eventType;
 
-    @Column(columnDefinition = "TEXT")
-    private String encryptedOldText;
+    @Column(name = "encrypted_old_text_bin")
+    private byte[] encryptedOldText;
 
-    @Column(columnDefinition = "TEXT")
-    private String encryptedNewText;
+    @Column(name = "encrypted_new_text_bin")
+    private byte[] encryptedNewText;
 
-    @Column
-    private String encryptedOldCaption;
+    @Column(name = "encrypted_old_caption_bin")
+    private byte[] encryptedOldCaption;
 
-    @Column
-    private String encryptedNewCaption;
+    @Column(name = "encrypted_new_caption_bin")
+    private byte[] encryptedNewCaption;
+
+    // V11: edits store encrypted TextDelta patches from the next version back to this one;
+    // null means unchanged. Full copies above are only set on events written before that.
+    @Column(name = "encrypted_text_delta")
+    private byte[] encryptedTextDelta;
+
+    @Column(name = "encrypted_caption_delta")
+    private byte[] encryptedCaptionDelta;
+
+    @Column(nullable = false)
+    private Boolean deltaEncoded;
+
+    // Base64 ciphertext from before V6; cleared by CiphertextBackfillJob
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_old_text", columnDefinition = "TEXT")
+    private String legacyEncryptedOldText;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_new_text", columnDefinition = "TEXT")
+    private String legacyEncryptedNewText;
 
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_old_caption", columnDefinition = "TEXT")
+    private String legacyEncryptedOldCaption;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_new_caption", columnDefinition = "TEXT")
+    private String legacyEncryptedNewCaption;
+
+    // Partition key (V8)
+    @PartitionKey
     @Column(nullable = false)
     private Instant eventTime;
 
@@ -52,9 +91,59 @@ public class MessageEvent {
     @Column
     private Instant notifiedAt;
 
+    @Column
+    private Instant claimedUntil;
+
+    @Column(nullable = false)
+    private Integer notifyAttempts;
+
+    // Set once delivery gave up after app.outbox.max-attempts (V13)
+    @Column
+    private Instant notifyFailedAt;
+
+    public byte[] getEncryptedOldText() {
+        return encryptedOldText != null ? encryptedOldText : StoredMessage.decodeLegacy(legacyEncryptedOldText);
+    }
+
+    public void setEncryptedOldText(byte[] encryptedOldText) {
+        this.encryptedOldText = encryptedOldText;
+        this.legacyEncryptedOldText = null;
+    }
+
+    public byte[] getEncryptedNewText() {
+        return encryptedNewText != null ? encryptedNewText : StoredMessage.decodeLegacy(legacyEncryptedNewText);
+    }
+
+    public void setEncryptedNewText(byte[] encryptedNewText) {
+        this.encryptedNewText = encryptedNewText;
+        this.legacyEncryptedNewText = null;
+    }
+
+    public byte[] getEncryptedOldCaption() {
+        return encryptedOldCaption != null ? encryptedOldCaption : StoredMessage.decodeLegacy(legacyEncryptedOldCaption);
+    }
+
+    public void setEncryptedOldCaption(byte[] encryptedOldCaption) {
+        this.encryptedOldCaption = encryptedOldCaption;
+        this.legacyEncryptedOldCaption = null;
+    }
+
+    public byte[] getEncryptedNewCaption() {
+        return encryptedNewCaption != null ? encryptedNewCaption : StoredMessage.decodeLegacy(legacyEncryptedNewCaption);
+    }
+
+    public void setEncryptedNewCaption(byte[] encryptedNewCaption) {
+        this.encryptedNewCaption = encryptedNewCaption;
+        this.legacyEncryptedNewCaption = null;
+    }
+
     @PrePersist
     protected void onCreate() {
         eventTime = Instant.now();
         userNotified = false;
+        notifyAttempts = 0;
+        if (deltaEncoded == null) {
+            deltaEncoded = false;
+        }
     }
 }
@@ -3,13 +3,15 @@ package com.spybot.domain.entity;
 import com.spybot.domain.enums.MediaType;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.PartitionKey;
 
 import java.time.Instant;
+import java.util.Base64;
 
 @Entity
 @Table(name = "stored_messages", indexes = {
-        @Index(name = "idx_stored_message_chat_message", columnList = "chatId, messageId"),
-        @Index(name = "idx_stored_message_connection", columnList = "businessConnectionId"),
+        @Index(name = "uq_stored_message_key", columnList = "businessConnectionId, chatId, messageId, messageDate",
+                unique = true),
         @Index(name = "idx_stored_message_from_user", columnList = "fromUserId")
 })
 @Getter
@@ -20,6 +22,7 @@ import java.time.Instant;
 public class StoredMessage {
 
     @Id
+    // Rows are inserted by StoredMessageInsertRepository; ids come from the column default
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
@@ -32,34 +35,40 @@ public class StoredMessage {
     @Column(nullable = false)
     private Integer messageId;
 
+    // Name and username live in senders (V10)
     @Column(nullable = false)
     private Long fromUserId;
 
-    @Column
-    private String fromUsername;
-
-    @Column
-    private String fromFirstName;
+    @Column(name = "encrypted_text_bin")
+    private byte[] encryptedText;
 
-    @Column
-    private String fromLastName;
-
-    @Column(columnDefinition = "TEXT")
-    private String encryptedText;
+    // Base64 ciphertext from before V6; cleared by CiphertextBackfillJob
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_text", columnDefinition = "TEXT")
+    private String legacyEncryptedText;
 
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private MediaType mediaType;
 
+    // Relative to app.media-archive.dir; set by MediaArchiver once the file is downloaded (V12)
     @Column
     private String encryptedMediaPath;
 
     @Column
     private String mediaFileId;
 
-    @Column
-    private String encryptedCaption;
+    @Column(name = "encrypted_caption_bin")
+    private byte[] encryptedCaption;
 
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "encrypted_caption", columnDefinition = "TEXT")
+    private String legacyEncryptedCaption;
+
+    // Partition key (V8): added to UPDATE/DELETE by id so they touch a single partition
+    @PartitionKey
     @Column(nullable = false)
     private Instant messageDate;
 
@@ -72,11 +81,40 @@ public class StoredMessage {
     @Column
     private Boolean isDeleted;
 
+    @Column(nullable = false)
+    private Integer mediaArchiveAttempts;
+
+    @Column
+    private Instant mediaArchiveClaimedUntil;
+
+    public byte[] getEncryptedText() {
+        return encryptedText != null ? encryptedText : decodeLegacy(legacyEncryptedText);
+    }
+
+    public void setEncryptedText(byte[] encryptedText) {
+        this.encryptedText = encryptedText;
+        this.legacyEncryptedText = null;
+    }
+
+    public byte[] getEncryptedCaption() {
+        return encryptedCaption != null ? encryptedCaption : decodeLegacy(legacyEncryptedCaption);
+    }
+
+    public void setEncryptedCaption(byte[] encryptedCaption) {
+        this.encryptedCaption = encryptedCaption;
+        this.legacyEncryptedCaption = null;
+    }
+
+    static byte[] decodeLegacy(String base64) {
+        return base64 == null || base64.isEmpty() ? null : Base64.getDecoder().decode(base64);
+    }
+
     @PrePersist
     protected void onCreate() {
         storedAt = Instant.now();
         editCount = 0;
         isDeleted = false;
+        mediaArchiveAttempts = 0;
         if (mediaType == null) {
             mediaType = MediaType.NONE;
         }
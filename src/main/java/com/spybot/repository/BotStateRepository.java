@@ -0,0 +1,20 @@
+package com.spybot.repository;
+
+import com.spybot.domain.entity.BotState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface BotStateRepository extends JpaRepository<BotState, String> {
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO bot_state (state_key, state_value, updated_at) VALUES (:key, :value, NOW()) " +
+            "ON CONFLICT (state_key) DO UPDATE SET state_value = EXCLUDED.state_value, updated_at = NOW()",
+            nativeQuery = true)
+    int upsert(@Param("key") String key, @Param("value") long value);
+}
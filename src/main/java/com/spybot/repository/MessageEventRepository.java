@@ -25,11 +25,84 @@ public interface MessageEventRepository extends JpaRepository<MessageEvent, Long
 
     long countByEventType(EventType eventType);
 
+    // Edits recorded after the given one, newest first; the event_time bound prunes older partitions
+    @Query("SELECT me FROM MessageEvent me WHERE me.storedMessage.id = :storedMessageId " +
+            "AND me.eventType = com.spybot.domain.enums.EventType.MESSAGE_EDITED " +
+            "AND me.id > :afterId AND me.eventTime >= :since ORDER BY me.id DESC")
+    List<MessageEvent> findEditsAfter(@Param("storedMessageId") Long storedMessageId,
+                                      @Param("afterId") Long afterId,
+                                      @Param("since") Instant since);
+
+    @Query("SELECT me FROM MessageEvent me WHERE me.storedMessage.id = :storedMessageId " +
+            "AND me.eventType = com.spybot.domain.enums.EventType.MESSAGE_EDITED ORDER BY me.id DESC")
+    List<MessageEvent> findEditsNewestFirst(@Param("storedMessageId") Long storedMessageId);
+
     @Modifying
     @Query("UPDATE MessageEvent me SET me.userNotified = true, me.notifiedAt = :now WHERE me.id = :eventId")
     int markAsNotified(@Param("eventId") Long eventId, @Param("now") Instant now);
 
+    // Returns event_time along with the id so the claim and the later updates prune to those partitions
+    @Query(value = "SELECT id, event_time AS \"eventTime\" FROM message_events WHERE user_notified = false " +
+            "AND notify_failed_at IS NULL AND (claimed_until IS NULL OR claimed_until < :now) " +
+            "AND notify_attempts < :maxAttempts ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<EventKey> lockClaimableKeys(@Param("now") Instant now,
+                                     @Param("maxAttempts") int maxAttempts,
+                                     @Param("limit") int limit);
+
+    // In the bulk updates below ids are unique, so the event_time list only narrows them to the
+    // partitions of those times
+    @Modifying
+    @Query("UPDATE MessageEvent me SET me.claimedUntil = :until, me.notifyAttempts = me.notifyAttempts + 1 " +
+            "WHERE me.id IN :ids AND me.eventTime IN :eventTimes")
+    int claim(@Param("ids") List<Long> ids,
+              @Param("eventTimes") List<Instant> eventTimes,
+              @Param("until") Instant until);
+
+    // LEFT JOIN: events whose message was already purged come back with a null storedMessage.
+    // The join itself has no message_date and probes stored_messages in every partition.
+    @Query("SELECT me FROM MessageEvent me LEFT JOIN FETCH me.storedMessage " +
+            "WHERE me.id IN :ids AND me.eventTime IN :eventTimes ORDER BY me.id")
+    List<MessageEvent> findWithMessageByIdIn(@Param("ids") List<Long> ids,
+                                             @Param("eventTimes") List<Instant> eventTimes);
+
+    @Modifying
+    @Query("UPDATE MessageEvent me SET me.userNotified = true, me.notifiedAt = :now, me.claimedUntil = null " +
+            "WHERE me.id IN :ids AND me.eventTime IN :eventTimes")
+    int markAllAsNotified(@Param("ids") List<Long> ids,
+                          @Param("eventTimes") List<Instant> eventTimes,
+                          @Param("now") Instant now);
+
     @Modifying
-    @Query("DELETE FROM MessageEvent me WHERE me.eventTime < :cutoffDate")
-    int deleteEventsOlderThan(@Param("cutoffDate") Instant cutoffDate);
+    @Query("UPDATE MessageEvent me SET me.claimedUntil = :until " +
+            "WHERE me.id IN :ids AND me.eventTime IN :eventTimes AND me.userNotified = false")
+    int renewClaim(@Param("ids") List<Long> ids,
+                   @Param("eventTimes") List<Instant> eventTimes,
+                   @Param("until") Instant until);
+
+    @Modifying
+    @Query("UPDATE MessageEvent me SET me.notifyFailedAt = :now, me.claimedUntil = null " +
+            "WHERE me.id IN :ids AND me.eventTime IN :eventTimes")
+    int markAllAsFailed(@Param("ids") List<Long> ids,
+                        @Param("eventTimes") List<Instant> eventTimes,
+                        @Param("now") Instant now);
+
+    // Undelivered events, counted only up to the limit so a large backlog costs a bounded scan
+    @Query(value = "SELECT count(*) FROM (SELECT 1 FROM message_events WHERE user_notified = false " +
+            "AND notify_failed_at IS NULL LIMIT :limit) backlog", nativeQuery = true)
+    long countUndelivered(@Param("limit") int limit);
+
+    // Events whose last allowed attempt has run out its lease
+    @Modifying
+    @Query(value = "UPDATE message_events SET notify_failed_at = :now, claimed_until = NULL " +
+            "WHERE user_notified = false AND notify_failed_at IS NULL " +
+            "AND notify_attempts >= :maxAttempts AND claimed_until < :now", nativeQuery = true)
+    int markExhaustedAsFailed(@Param("now") Instant now, @Param("maxAttempts") int maxAttempts);
+
+    // Primary key of a message_events row: the id plus its partition key
+    interface EventKey {
+
+        Long getId();
+
+        Instant getEventTime();
+    }
 }
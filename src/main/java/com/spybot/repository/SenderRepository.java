@@ -0,0 +1,28 @@
+package com.spybot.repository;
+
+import com.spybot.domain.entity.Sender;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface SenderRepository extends JpaRepository<Sender, Long> {
+
+    // Returns 0 when the stored profile is already identical: no new row version is written
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO senders (user_id, username, first_name, last_name, updated_at) " +
+            "VALUES (:userId, :username, :firstName, :lastName, NOW()) " +
+            "ON CONFLICT (user_id) DO UPDATE SET username = EXCLUDED.username, " +
+            "first_name = EXCLUDED.first_name, last_name = EXCLUDED.last_name, updated_at = NOW() " +
+            "WHERE (senders.username, senders.first_name, senders.last_name) " +
+            "IS DISTINCT FROM (EXCLUDED.username, EXCLUDED.first_name, EXCLUDED.last_name)",
+            nativeQuery = true)
+    int upsertIfChanged(@Param("userId") Long userId,
+                        @Param("username") String username,
+                        @Param("firstName") String firstName,
+                        @Param("lastName") String lastName);
+}
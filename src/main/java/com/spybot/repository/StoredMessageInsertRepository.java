@@ -0,0 +1,11 @@
+package com.spybot.repository;
+
+import com.spybot.domain.entity.StoredMessage;
+
+import java.util.List;
+
+public interface StoredMessageInsertRepository {
+
+    // Multi-row INSERT ... ON CONFLICT DO NOTHING on the message key; sets ids of inserted rows and returns their count
+    int insertIgnoringDuplicates(List<StoredMessage> messages);
+}
@@ -0,0 +1,88 @@
+package com.spybot.repository;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.domain.enums.MediaType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Redelivered updates hit uq_stored_message_key and are skipped by the database instead of
+// creating duplicate rows. stored_at, edit_count and is_deleted come from column defaults.
+// Inserted rows get their generated id set; skipped duplicates keep a null id.
+@RequiredArgsConstructor
+class StoredMessageInsertRepositoryImpl implements StoredMessageInsertRepository {
+
+    private static final String INSERT_PREFIX = "INSERT INTO stored_messages (business_connection_id, chat_id, "
+            + "message_id, from_user_id, encrypted_text_bin, media_type, media_file_id, encrypted_caption_bin, "
+            + "message_date) VALUES ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String ON_CONFLICT =
+            " ON CONFLICT (business_connection_id, chat_id, message_id, message_date) DO NOTHING"
+                    + " RETURNING id, business_connection_id, chat_id, message_id, message_date";
+    private static final int COLUMNS = 9;
+    // The driver sends the bind parameter count as a signed 16-bit value
+    private static final int MAX_ROWS_PER_STATEMENT = Short.MAX_VALUE / COLUMNS;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int insertIgnoringDuplicates(List<StoredMessage> messages) {
+        int inserted = 0;
+        for (int from = 0; from < messages.size(); from += MAX_ROWS_PER_STATEMENT) {
+            inserted += insertChunk(messages.subList(from, Math.min(messages.size(), from + MAX_ROWS_PER_STATEMENT)));
+        }
+        return inserted;
+    }
+
+    private int insertChunk(List<StoredMessage> messages) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length()
+                + messages.size() * (ROW_PLACEHOLDERS.length() + 2) + ON_CONFLICT.length());
+        sql.append(INSERT_PREFIX);
+        List<Object> args = new ArrayList<>(messages.size() * COLUMNS);
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDERS);
+
+            StoredMessage message = messages.get(i);
+            MediaType mediaType = message.getMediaType() != null ? message.getMediaType() : MediaType.NONE;
+            args.add(message.getBusinessConnectionId());
+            args.add(message.getChatId());
+            args.add(message.getMessageId());
+            args.add(message.getFromUserId());
+            args.add(message.getEncryptedText());
+            args.add(mediaType.name());
+            args.add(message.getMediaFileId());
+            args.add(message.getEncryptedCaption());
+            args.add(message.getMessageDate().atOffset(ZoneOffset.UTC));
+        }
+        sql.append(ON_CONFLICT);
+
+        // RETURNING only lists inserted rows; match them back by key to hand out the generated ids
+        Map<Key, StoredMessage> byKey = new HashMap<>(messages.size() * 2);
+        for (StoredMessage message : messages) {
+            byKey.put(new Key(message.getBusinessConnectionId(), message.getChatId(), message.getMessageId(),
+                    message.getMessageDate()), message);
+        }
+        List<Integer> inserted = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            StoredMessage message = byKey.get(new Key(rs.getString(2), rs.getLong(3), rs.getInt(4),
+                    rs.getObject(5, OffsetDateTime.class).toInstant()));
+            if (message != null) {
+                message.setId(rs.getLong(1));
+            }
+            return rowNum;
+        }, args.toArray());
+        return inserted.size();
+    }
+
+    private record Key(String connectionId, Long chatId, Integer messageId, Instant messageDate) {
+    }
+}
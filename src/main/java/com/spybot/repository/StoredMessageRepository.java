@@ -12,20 +12,69 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface StoredMessageRepository extends JpaRepository<StoredMessage, Long> {
+public interface StoredMessageRepository extends JpaRepository<StoredMessage, Long>, StoredMessageInsertRepository {
 
-    Optional<StoredMessage> findByChatIdAndMessageId(Long chatId, Integer messageId);
+    // Full uq_stored_message_key: one index probe in a single partition
+    Optional<StoredMessage> findByBusinessConnectionIdAndChatIdAndMessageIdAndMessageDate(
+            String businessConnectionId, Long chatId, Integer messageId, Instant messageDate);
 
-    List<StoredMessage> findByChatIdAndMessageIdIn(Long chatId, List<Integer> messageIds);
+    // Deletions carry no date, so this probes the key prefix in each partition; only the misses of
+    // RecentMessageCache and KnownMessageFilter get here
+    List<StoredMessage> findByBusinessConnectionIdAndChatIdAndMessageIdIn(
+            String businessConnectionId, Long chatId, List<Integer> messageIds);
 
     @Query("SELECT sm FROM StoredMessage sm WHERE sm.businessConnectionId = :connectionId AND sm.isDeleted = false")
     List<StoredMessage> findActiveMessagesByConnectionId(@Param("connectionId") String connectionId);
 
+    // Targeted writes: no entity load and merge, message_date prunes to one partition
     @Modifying
-    @Query("UPDATE StoredMessage sm SET sm.isDeleted = true WHERE sm.chatId = :chatId AND sm.messageId IN :messageIds")
-    int markMessagesAsDeleted(@Param("chatId") Long chatId, @Param("messageIds") List<Integer> messageIds);
+    @Query("UPDATE StoredMessage sm SET sm.encryptedText = :text, sm.legacyEncryptedText = null, " +
+            "sm.encryptedCaption = :caption, sm.legacyEncryptedCaption = null, sm.editCount = sm.editCount + 1 " +
+            "WHERE sm.id = :id AND sm.messageDate = :messageDate")
+    int updateContent(@Param("id") Long id,
+                      @Param("messageDate") Instant messageDate,
+                      @Param("text") byte[] encryptedText,
+                      @Param("caption") byte[] encryptedCaption);
+
+    // Media rows without an archive copy; the message_date bound keeps old partitions out of the scan
+    @Query(value = "SELECT id FROM stored_messages WHERE media_file_id IS NOT NULL AND encrypted_media_path IS NULL " +
+            "AND message_date >= :since AND media_archive_attempts < :maxAttempts " +
+            "AND (media_archive_claimed_until IS NULL OR media_archive_claimed_until < :now) " +
+            "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockArchivableIds(@Param("since") Instant since,
+                                 @Param("now") Instant now,
+                                 @Param("maxAttempts") int maxAttempts,
+                                 @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE StoredMessage sm SET sm.mediaArchiveClaimedUntil = :until, " +
+            "sm.mediaArchiveAttempts = sm.mediaArchiveAttempts + 1 WHERE sm.id IN :ids")
+    int claimForArchive(@Param("ids") List<Long> ids, @Param("until") Instant until);
+
+    @Modifying
+    @Query("UPDATE StoredMessage sm SET sm.encryptedMediaPath = :path, sm.mediaArchiveClaimedUntil = null " +
+            "WHERE sm.id = :id AND sm.messageDate = :messageDate")
+    int markMediaArchived(@Param("id") Long id,
+                          @Param("messageDate") Instant messageDate,
+                          @Param("path") String path);
+
+    // Media that can never be downloaded (too large for the Bot API) is not claimed again
+    @Modifying
+    @Query("UPDATE StoredMessage sm SET sm.mediaArchiveAttempts = :maxAttempts, sm.mediaArchiveClaimedUntil = null " +
+            "WHERE sm.id = :id AND sm.messageDate = :messageDate")
+    int skipMediaArchive(@Param("id") Long id,
+                         @Param("messageDate") Instant messageDate,
+                         @Param("maxAttempts") int maxAttempts);
+
+    // ids are unique, so the message_date list only narrows the update to the partitions of those dates
+    @Modifying
+    @Query("UPDATE StoredMessage sm SET sm.isDeleted = true WHERE sm.id IN :ids AND sm.messageDate IN :messageDates")
+    int markDeletedByIds(@Param("ids") List<Long> ids, @Param("messageDates") List<Instant> messageDates);
 
     @Modifying
-    @Query("DELETE FROM StoredMessage sm WHERE sm.storedAt < :cutoffDate")
-    int deleteMessagesOlderThan(@Param("cutoffDate") Instant cutoffDate);
+    @Query("UPDATE StoredMessage sm SET sm.isDeleted = true WHERE sm.businessConnectionId = :connectionId " +
+            "AND sm.chatId = :chatId AND sm.messageId IN :messageIds")
+    int markMessagesAsDeleted(@Param("connectionId") String connectionId,
+                              @Param("chatId") Long chatId,
+                              @Param("messageIds") List<Integer> messageIds);
 }
@@ -0,0 +1,154 @@
+package com.spybot.service.cluster;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Cross-node events over Postgres LISTEN/NOTIFY. Notifications published inside a transaction
+// are delivered on commit; events published by this node are not delivered back to it.
+@Component
+@Slf4j
+public class PgNotificationListener {
+
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    public PgNotificationListener(DataSource dataSource,
+                                  JdbcTemplate jdbcTemplate,
+                                  @Value("${app.cluster.notifications-enabled:true}") boolean enabled) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+    }
+
+    // onResync is called after a reconnect, when notifications may have been missed
+    public void subscribe(String channel, Consumer<String> onNotification, Runnable onResync) {
+        subscriptions.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>())
+                .add(new Subscription(onNotification, onResync));
+    }
+
+    public void publish(String channel, String payload) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, channel, nodeId + ":" + payload);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("action=pg_listener_disabled");
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(this::runListenLoop, "pg-notify-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.join(POLL_TIMEOUT_MS * 2L);
+        }
+    }
+
+    private void runListenLoop() {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                Set<String> listening = new HashSet<>();
+                log.info("action=pg_listener_connected, node_id={}", nodeId);
+
+                if (reconnect) {
+                    resync();
+                }
+                reconnect = true;
+
+                while (running) {
+                    listenNewChannels(connection, listening);
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            deliver(notification.getName(), notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                log.error("action=pg_listener_failed, error={}", e.getMessage());
+                sleepBeforeReconnect();
+            }
+        }
+    }
+
+    private void listenNewChannels(Connection connection, Set<String> listening) throws SQLException {
+        for (String channel : subscriptions.keySet()) {
+            if (listening.add(channel)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+            }
+        }
+    }
+
+    private void resync() {
+        subscriptions.values().forEach(list -> list.forEach(s -> s.onResync().run()));
+    }
+
+    private void deliver(String channel, String parameter) {
+        int separator = parameter.indexOf(':');
+        if (separator < 0 || parameter.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        String payload = parameter.substring(separator + 1);
+        for (Subscription subscription : subscriptions.getOrDefault(channel, List.of())) {
+            try {
+                subscription.onNotification().accept(payload);
+            } catch (Exception e) {
+                log.error("action=pg_notification_handler_failed, channel={}, error={}", channel, e.getMessage());
+            }
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private record Subscription(Consumer<String> onNotification, Runnable onResync) {
+    }
+}
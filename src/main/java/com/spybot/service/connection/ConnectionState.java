@@ -0,0 +1,22 @@
+package com.spybot.service.connection;
+
+import com.spybot.domain.entity.BusinessConnection;
+
+public record ConnectionState(
+        String connectionId,
+        boolean enabled,
+        Long ownerId,
+        Long userChatId,
+        String languageCode
+) {
+
+    public static ConnectionState of(BusinessConnection connection) {
+        return new ConnectionState(
+                connection.getConnectionId(),
+                Boolean.TRUE.equals(connection.getIsEnabled()),
+                connection.getUserId(),
+                connection.getUserChatId(),
+                connection.getLanguageCode()
+        );
+    }
+}
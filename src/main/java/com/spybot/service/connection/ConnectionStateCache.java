@@ -0,0 +1,89 @@
+package com.spybot.service.connection;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.spybot.domain.entity.BusinessConnection;
+import com.spybot.repository.BusinessConnectionRepository;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// Read-mostly view of business connections. Writes go through put() from BusinessConnectionHandler,
+// other nodes are invalidated over LISTEN/NOTIFY.
+@Component
+@Slf4j
+public class ConnectionStateCache {
+
+    static final String INVALIDATION_CHANNEL = "business_connection_changed";
+
+    private final BusinessConnectionRepository connectionRepository;
+    private final PgNotificationListener notificationListener;
+    private final Cache<String, Optional<ConnectionState>> cache;
+
+    public ConnectionStateCache(BusinessConnectionRepository connectionRepository,
+                                PgNotificationListener notificationListener,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.connection-cache.max-size:10000}") long maxSize,
+                                @Value("${app.connection-cache.expire-after-write-minutes:60}") long expireMinutes) {
+        this.connectionRepository = connectionRepository;
+        this.notificationListener = notificationListener;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(Duration.ofMinutes(expireMinutes))
+                        .recordStats()
+                        .<String, Optional<ConnectionState>>build(),
+                "business_connections");
+    }
+
+    @PostConstruct
+    public void init() {
+        notificationListener.subscribe(INVALIDATION_CHANNEL, this::invalidate, cache::invalidateAll);
+    }
+
+    public Optional<ConnectionState> get(String connectionId) {
+        return cache.get(connectionId, id -> connectionRepository.findByConnectionId(id).map(ConnectionState::of));
+    }
+
+    public boolean isEnabled(String connectionId) {
+        return get(connectionId).map(ConnectionState::enabled).orElse(false);
+    }
+
+    // Must be called inside the transaction that saved the connection
+    public void put(BusinessConnection connection) {
+        ConnectionState state = ConnectionState.of(connection);
+        notificationListener.publish(INVALIDATION_CHANNEL, state.connectionId());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.put(state.connectionId(), Optional.of(state));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        cache.invalidate(state.connectionId());
+                    }
+                }
+            });
+        } else {
+            cache.put(state.connectionId(), Optional.of(state));
+        }
+    }
+
+    public void invalidate(String connectionId) {
+        cache.invalidate(connectionId);
+        log.debug("action=connection_cache_invalidated, connection_id={}", connectionId);
+    }
+}
@@ -0,0 +1,133 @@
+package com.spybot.service.encryption;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Moves Base64 ciphertext from the legacy TEXT columns into the bytea columns added in V6.
+// Works in small keyset batches, each its own autocommit statement, and skips rows locked by
+// live traffic, so the tables are never locked for longer than one batch. Runs on every node;
+// SKIP LOCKED keeps nodes from stepping on each other.
+@Component
+@Slf4j
+public class CiphertextBackfillJob {
+
+    private static final String BACKFILL_MESSAGES_SQL = """
+            WITH batch AS (
+                SELECT id FROM stored_messages
+                WHERE id > ? AND (encrypted_text IS NOT NULL OR encrypted_caption IS NOT NULL)
+                ORDER BY id
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            UPDATE stored_messages m SET
+                encrypted_text_bin = COALESCE(m.encrypted_text_bin, decode(m.encrypted_text, 'base64')),
+                encrypted_caption_bin = COALESCE(m.encrypted_caption_bin, decode(m.encrypted_caption, 'base64')),
+                encrypted_text = NULL,
+                encrypted_caption = NULL
+            FROM batch
+            WHERE m.id = batch.id
+            RETURNING m.id
+            """;
+
+    private static final String BACKFILL_EVENTS_SQL = """
+            WITH batch AS (
+                SELECT id FROM message_events
+                WHERE id > ? AND (encrypted_old_text IS NOT NULL OR encrypted_new_text IS NOT NULL
+                    OR encrypted_old_caption IS NOT NULL OR encrypted_new_caption IS NOT NULL)
+                ORDER BY id
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            UPDATE message_events e SET
+                encrypted_old_text_bin = COALESCE(e.encrypted_old_text_bin, decode(e.encrypted_old_text, 'base64')),
+                encrypted_new_text_bin = COALESCE(e.encrypted_new_text_bin, decode(e.encrypted_new_text, 'base64')),
+                encrypted_old_caption_bin = COALESCE(e.encrypted_old_caption_bin, decode(e.encrypted_old_caption, 'base64')),
+                encrypted_new_caption_bin = COALESCE(e.encrypted_new_caption_bin, decode(e.encrypted_new_caption, 'base64')),
+                encrypted_old_text = NULL,
+                encrypted_new_text = NULL,
+                encrypted_old_caption = NULL,
+                encrypted_new_caption = NULL
+            FROM batch
+            WHERE e.id = batch.id
+            RETURNING e.id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pauseMs;
+    private final int maxBatchesPerRun;
+
+    private final Pass messages = new Pass("stored_messages", BACKFILL_MESSAGES_SQL);
+    private final Pass events = new Pass("message_events", BACKFILL_EVENTS_SQL);
+
+    public CiphertextBackfillJob(JdbcTemplate jdbcTemplate,
+                                 @Value("${app.ciphertext-backfill.enabled:true}") boolean enabled,
+                                 @Value("${app.ciphertext-backfill.batch-size:500}") int batchSize,
+                                 @Value("${app.ciphertext-backfill.pause-ms:50}") long pauseMs,
+                                 @Value("${app.ciphertext-backfill.max-batches-per-run:200}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    @Scheduled(initialDelayString = "${app.ciphertext-backfill.interval-ms:60000}",
+            fixedDelayString = "${app.ciphertext-backfill.interval-ms:60000}")
+    public void backfill() {
+        if (!enabled || (messages.done && events.done)) {
+            return;
+        }
+        try {
+            // Events first: they are read by the outbox and are the smaller table
+            run(events);
+            run(messages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("action=ciphertext_backfill, status=failed, error={}", e.getMessage());
+        }
+    }
+
+    private void run(Pass pass) throws InterruptedException {
+        for (int i = 0; i < maxBatchesPerRun && !pass.done; i++) {
+            List<Long> ids = jdbcTemplate.queryForList(pass.sql, Long.class, pass.cursor, batchSize);
+            if (ids.isEmpty()) {
+                // A pass that started from the beginning and found nothing means the table is converted;
+                // otherwise rows skipped as locked are picked up by the next pass
+                if (pass.cursor == 0) {
+                    pass.done = true;
+                    log.info("action=ciphertext_backfill_completed, table={}, converted={}", pass.table, pass.converted);
+                } else {
+                    pass.cursor = 0;
+                }
+                return;
+            }
+            pass.cursor = ids.stream().mapToLong(Long::longValue).max().orElse(pass.cursor);
+            pass.converted += ids.size();
+            log.debug("action=ciphertext_backfill_batch, table={}, rows={}, cursor={}", pass.table, ids.size(), pass.cursor);
+            if (pauseMs > 0) {
+                Thread.sleep(pauseMs);
+            }
+        }
+    }
+
+    private static final class Pass {
+        final String table;
+        final String sql;
+        long cursor;
+        long converted;
+        volatile boolean done;
+
+        Pass(String table, String sql) {
+            this.table = table;
+            this.sql = sql;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.spybot.service.encryption;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Reads the MediaChunkFormat back one authenticated chunk at a time. A full-size chunk is never the
+// last one, so a file cut at a chunk boundary fails on the missing final chunk instead of reading short.
+final class DecryptingInputStream extends FilterInputStream {
+
+    private final EncryptionService encryptionService;
+    private final byte[] sealed = new byte[EncryptionService.encryptedSize(MediaChunkFormat.CHUNK_SIZE)];
+    private final byte[] plain = new byte[MediaChunkFormat.CHUNK_SIZE];
+    private int position;
+    private int limit;
+    private long chunkIndex;
+    private boolean finished;
+
+    DecryptingInputStream(EncryptionService encryptionService, InputStream in) throws IOException {
+        super(in);
+        this.encryptionService = encryptionService;
+        byte[] header = in.readNBytes(MediaChunkFormat.HEADER.length);
+        if (!Arrays.equals(header, MediaChunkFormat.HEADER)) {
+            throw new IOException("Not an encrypted media file");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (finished) {
+                return -1;
+            }
+            readChunk();
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(plain, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] scratch = new byte[(int) Math.min(n, 8192)];
+        while (skipped < n) {
+            int read = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void readChunk() throws IOException {
+        int length = in.readNBytes(sealed, 0, sealed.length);
+        if (length < EncryptionService.encryptedSize(0)) {
+            throw new EOFException("Encrypted media file is truncated");
+        }
+        boolean last = length < sealed.length;
+        limit = encryptionService.openChunk(sealed, length, chunkIndex++, last, plain);
+        position = 0;
+        finished = last;
+    }
+}
@@ -0,0 +1,72 @@
+package com.spybot.service.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes the MediaChunkFormat: plaintext is buffered one chunk at a time and every full chunk is
+// sealed and written out, so memory stays at two chunk buffers whatever the file size.
+final class EncryptingOutputStream extends FilterOutputStream {
+
+    private final EncryptionService encryptionService;
+    private final byte[] plain = new byte[MediaChunkFormat.CHUNK_SIZE];
+    private final byte[] sealed = new byte[EncryptionService.encryptedSize(MediaChunkFormat.CHUNK_SIZE)];
+    private int buffered;
+    private long chunkIndex;
+    private boolean closed;
+
+    EncryptingOutputStream(EncryptionService encryptionService, OutputStream out) throws IOException {
+        super(out);
+        this.encryptionService = encryptionService;
+        out.write(MediaChunkFormat.HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            // A full buffer is only sealed once more data arrives: the last chunk must be the short one
+            if (buffered == plain.length) {
+                writeChunk(false);
+            }
+            int n = Math.min(len, plain.length - buffered);
+            System.arraycopy(b, off, plain, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // Seals the remaining (possibly empty) final chunk; without it the reader reports truncation
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (buffered == plain.length) {
+                writeChunk(false);
+            }
+            writeChunk(true);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        int length = encryptionService.sealChunk(plain, buffered, chunkIndex++, last, sealed);
+        out.write(sealed, 0, length);
+        buffered = 0;
+    }
+}
@@ -1,31 +1,70 @@
 package com.spybot.service.encryption;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Layout of every ciphertext: 12-byte nonce || AES-GCM ciphertext || 16-byte tag.
+// Nonce = 4-byte random instance prefix || 8-byte counter (deterministic construction, NIST SP 800-38D 8.2.1):
+// unique for the lifetime of the instance without drawing from SecureRandom per message.
+// The counter runs from a random start and may pass Long.MAX_VALUE; after 2^63 nonces the instance
+// refuses to encrypt rather than ever coming back to a counter value it already used.
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class EncryptionService {
 
     private static final String ALGORITHM = "AES/GCM/NoPadding";
     private static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 128;
+    private static final int GCM_TAG_BYTES = GCM_TAG_LENGTH / 8;
+    private static final int NONCE_PREFIX_LENGTH = 4;
+
+    // Cipher is not thread-safe but is cheap to re-init; one per thread avoids the provider lookup per call
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(EncryptionService::newCipher);
+
+    private final MeterRegistry meterRegistry;
 
     @Value("${encryption.secret-key}")
     private String secretKeyBase64;
 
+    // Text only: plaintext is framed by TextCompressor before sealing, so old raw-UTF-8 rows still decrypt
+    @Value("${encryption.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${encryption.compression.min-bytes:64}")
+    private int compressionMinBytes;
+
     private SecretKey secretKey;
-    private SecureRandom secureRandom;
+    private int noncePrefix;
+    private long nonceStart;
+    private final AtomicLong noncesIssued = new AtomicLong();
+
+    private Timer encryptTimer;
+    private Timer decryptTimer;
+    private Timer encryptBytesTimer;
+    private Timer decryptBytesTimer;
+    private Counter compressedCounter;
 
     @PostConstruct
     public void init() {
@@ -34,59 +73,52 @@ public class EncryptionService {
             throw new IllegalStateException("Encryption key must be 32 bytes (256 bits)");
         }
         this.secretKey = new SecretKeySpec(decodedKey, "AES");
-        this.secureRandom = new SecureRandom();
+        SecureRandom secureRandom = new SecureRandom();
+        this.noncePrefix = secureRandom.nextInt();
+        // Random starting point so that restarts (and other nodes) do not replay the same counter range
+        this.nonceStart = secureRandom.nextLong();
+
+        this.encryptTimer = meterRegistry.timer("spybot.encryption", "op", "encrypt");
+        this.decryptTimer = meterRegistry.timer("spybot.encryption", "op", "decrypt");
+        this.encryptBytesTimer = meterRegistry.timer("spybot.encryption", "op", "encrypt_bytes");
+        this.decryptBytesTimer = meterRegistry.timer("spybot.encryption", "op", "decrypt_bytes");
+        this.compressedCounter = meterRegistry.counter("spybot.encryption.compressed");
         log.info("action=encryption_service_initialized, status=success");
     }
 
-    public String encrypt(String plaintext) {
+    public byte[] encrypt(String plaintext) {
         if (plaintext == null || plaintext.isEmpty()) {
             return null;
         }
 
+        long started = System.nanoTime();
         try {
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            secureRandom.nextBytes(iv);
-
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-
-            byte[] ciphertext = cipher.doFinal(plaintext.getBytes());
-
-            ByteBuffer byteBuffer = ByteBuffer.allocate(iv.length + ciphertext.length);
-            byteBuffer.put(iv);
-            byteBuffer.put(ciphertext);
-
-            return Base64.getEncoder().encodeToString(byteBuffer.array());
+            byte[] framed = TextCompressor.encode(plaintext, compressionEnabled, compressionMinBytes);
+            if (framed.length > 0 && framed[0] == TextCompressor.FORMAT_DEFLATE_V1) {
+                compressedCounter.increment();
+            }
+            return seal(framed);
         } catch (Exception e) {
             log.error("action=encrypt, status=failed, error={}", e.getClass().getSimpleName());
             throw new RuntimeException("Encryption failed", e);
+        } finally {
+            encryptTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
 
-    public String decrypt(String encryptedText) {
-        if (encryptedText == null || encryptedText.isEmpty()) {
+    public String decrypt(byte[] encryptedText) {
+        if (encryptedText == null || encryptedText.length == 0) {
             return null;
         }
 
+        long started = System.nanoTime();
         try {
-            byte[] decoded = Base64.getDecoder().decode(encryptedText);
-
-            ByteBuffer byteBuffer = ByteBuffer.wrap(decoded);
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            byteBuffer.get(iv);
-            byte[] ciphertext = new byte[byteBuffer.remaining()];
-            byteBuffer.get(ciphertext);
-
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
-
-            byte[] plaintext = cipher.doFinal(ciphertext);
-            return new String(plaintext);
+            return TextCompressor.decode(open(encryptedText));
         } catch (Exception e) {
             log.error("action=decrypt, status=failed, error={}", e.getClass().getSimpleName());
             throw new RuntimeException("Decryption failed", e);
+        } finally {
+            decryptTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -95,24 +127,14 @@ public class EncryptionService {
             return null;
         }
 
+        long started = System.nanoTime();
         try {
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            secureRandom.nextBytes(iv);
-
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-
-            byte[] ciphertext = cipher.doFinal(data);
-
-            ByteBuffer byteBuffer = ByteBuffer.allocate(iv.length + ciphertext.length);
-            byteBuffer.put(iv);
-            byteBuffer.put(ciphertext);
-
-            return byteBuffer.array();
+            return seal(data);
         } catch (Exception e) {
             log.error("action=encrypt_bytes, status=failed, error={}", e.getClass().getSimpleName());
             throw new RuntimeException("Byte encryption failed", e);
+        } finally {
+            encryptBytesTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -121,21 +143,131 @@ public class EncryptionService {
             return null;
         }
 
+        long started = System.nanoTime();
+        try {
+            return open(encryptedData);
+        } catch (Exception e) {
+            log.error("action=decrypt_bytes, status=failed, error={}", e.getClass().getSimpleName());
+            throw new RuntimeException("Byte decryption failed", e);
+        } finally {
+            decryptBytesTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Direct-buffer variant: no intermediate arrays; output needs encryptedSize(remaining) bytes. Returns bytes written.
+    public int encrypt(ByteBuffer plaintext, ByteBuffer output) {
+        try {
+            byte[] iv = nextNonce();
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            output.put(iv);
+            return GCM_IV_LENGTH + cipher.doFinal(plaintext, output);
+        } catch (Exception e) {
+            log.error("action=encrypt_buffer, status=failed, error={}", e.getClass().getSimpleName());
+            throw new RuntimeException("Buffer encryption failed", e);
+        }
+    }
+
+    // Input is nonce || ciphertext || tag; output needs decryptedSize(remaining) bytes. Returns bytes written.
+    public int decrypt(ByteBuffer encrypted, ByteBuffer output) {
         try {
-            ByteBuffer byteBuffer = ByteBuffer.wrap(encryptedData);
             byte[] iv = new byte[GCM_IV_LENGTH];
-            byteBuffer.get(iv);
-            byte[] ciphertext = new byte[byteBuffer.remaining()];
-            byteBuffer.get(ciphertext);
+            encrypted.get(iv);
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher.doFinal(encrypted, output);
+        } catch (Exception e) {
+            log.error("action=decrypt_buffer, status=failed, error={}", e.getClass().getSimpleName());
+            throw new RuntimeException("Buffer decryption failed", e);
+        }
+    }
+
+    // Streaming variant for media files (see MediaChunkFormat); closing the stream writes the final chunk
+    public OutputStream encryptingStream(OutputStream out) throws IOException {
+        return new EncryptingOutputStream(this, out);
+    }
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
+    public InputStream decryptingStream(InputStream in) throws IOException {
+        return new DecryptingInputStream(this, in);
+    }
 
-            return cipher.doFinal(ciphertext);
+    // Seals plain[0, length) into out as nonce || ciphertext || tag. Returns bytes written.
+    int sealChunk(byte[] plain, int length, long chunkIndex, boolean last, byte[] out) throws IOException {
+        try {
+            writeNonce(out);
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, out, 0, GCM_IV_LENGTH));
+            cipher.updateAAD(MediaChunkFormat.aad(chunkIndex, last));
+            return GCM_IV_LENGTH + cipher.doFinal(plain, 0, length, out, GCM_IV_LENGTH);
         } catch (Exception e) {
-            log.error("action=decrypt_bytes, status=failed, error={}", e.getClass().getSimpleName());
-            throw new RuntimeException("Byte decryption failed", e);
+            throw new IOException("Media chunk encryption failed", e);
+        }
+    }
+
+    // Opens sealed[0, length) into out. Returns plaintext bytes written.
+    int openChunk(byte[] sealed, int length, long chunkIndex, boolean last, byte[] out) throws IOException {
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, sealed, 0, GCM_IV_LENGTH));
+            cipher.updateAAD(MediaChunkFormat.aad(chunkIndex, last));
+            return cipher.doFinal(sealed, GCM_IV_LENGTH, length - GCM_IV_LENGTH, out, 0);
+        } catch (Exception e) {
+            throw new IOException("Media chunk decryption failed", e);
+        }
+    }
+
+    public static int encryptedSize(int plaintextLength) {
+        return GCM_IV_LENGTH + plaintextLength + GCM_TAG_BYTES;
+    }
+
+    public static int decryptedSize(int encryptedLength) {
+        return Math.max(0, encryptedLength - GCM_IV_LENGTH - GCM_TAG_BYTES);
+    }
+
+    // Nonce and ciphertext are written straight into the final array
+    private byte[] seal(byte[] data) throws Exception {
+        byte[] out = new byte[encryptedSize(data.length)];
+        writeNonce(out);
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, out, 0, GCM_IV_LENGTH));
+        cipher.doFinal(data, 0, data.length, out, GCM_IV_LENGTH);
+        return out;
+    }
+
+    private byte[] open(byte[] encrypted) throws Exception {
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 0, GCM_IV_LENGTH));
+        return cipher.doFinal(encrypted, GCM_IV_LENGTH, encrypted.length - GCM_IV_LENGTH);
+    }
+
+    private byte[] nextNonce() {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        writeNonce(iv);
+        return iv;
+    }
+
+    private void writeNonce(byte[] dst) {
+        long issued = noncesIssued.getAndIncrement();
+        if (issued < 0) {
+            throw new IllegalStateException("Nonce counter exhausted, restart to draw a new nonce prefix");
+        }
+        long counter = nonceStart + issued;
+        int prefix = noncePrefix;
+        for (int i = NONCE_PREFIX_LENGTH - 1; i >= 0; i--) {
+            dst[i] = (byte) prefix;
+            prefix >>>= 8;
+        }
+        for (int i = GCM_IV_LENGTH - 1; i >= NONCE_PREFIX_LENGTH; i--) {
+            dst[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
         }
     }
 }
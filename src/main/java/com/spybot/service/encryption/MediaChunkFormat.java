@@ -0,0 +1,25 @@
+package com.spybot.service.encryption;
+
+// On-disk layout of archived media: HEADER, then chunks of CHUNK_SIZE plaintext bytes sealed as
+// nonce || ciphertext || tag. The last chunk is shorter than CHUNK_SIZE (possibly empty). Each chunk
+// authenticates its index and a last-chunk flag as AAD, so chunks cannot be reordered, dropped or
+// cut off without failing decryption. A different chunk size needs a new header version.
+final class MediaChunkFormat {
+
+    static final byte[] HEADER = {'S', 'B', 'M', 1};
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int AAD_LENGTH = 9;
+
+    private MediaChunkFormat() {
+    }
+
+    static byte[] aad(long chunkIndex, boolean last) {
+        byte[] aad = new byte[AAD_LENGTH];
+        for (int i = 7; i >= 0; i--) {
+            aad[i] = (byte) chunkIndex;
+            chunkIndex >>>= 8;
+        }
+        aad[8] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+}
@@ -0,0 +1,93 @@
+package com.spybot.service.encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Plaintext framing for message text. Raw text is stored as plain UTF-8; compressed text is
+// FORMAT_DEFLATE_V1 followed by raw Deflate output primed with DICTIONARY_V1. Bytes 0xF8..0xFF
+// never start a valid UTF-8 sequence, so the marker cannot be confused with text written before
+// compression existed. A different dictionary must get a new marker from that range.
+final class TextCompressor {
+
+    static final byte FORMAT_DEFLATE_V1 = (byte) 0xF8;
+
+    // Telegram limits text to 4096 characters; anything far beyond that is not ours
+    private static final int MAX_INFLATED_BYTES = 64 * 1024;
+
+    // Frequent chat fragments; Deflate prefers recent matches, so the most common ones come last
+    private static final byte[] DICTIONARY_V1 = (
+            "https://t.me/ https://www. .com .ru youtube.com/watch?v= @gmail.com "
+                    + "thank you please sorry tomorrow today tonight morning evening yesterday "
+                    + "what are you doing how are you where are you I don't know I think that "
+                    + "okay ok yes no maybe really good great love you miss you call me later "
+                    + "Спасибо, пожалуйста, извини, прости, завтра сегодня вечером утром вчера "
+                    + "доброе утро спокойной ночи с днём рождения поздравляю "
+                    + "что делаешь как дела где ты когда будешь позвони мне напиши мне "
+                    + "я не знаю я думаю что может быть конечно хорошо отлично давай "
+                    + "люблю тебя скучаю по тебе до встречи пока привет ага угу да нет ладно "
+                    + "это что как так уже ещё сейчас потом только очень тоже просто если "
+                    + "меня тебя тебе мне нам вам они она он мы вы ты я и в не на с что то "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private TextCompressor() {
+    }
+
+    // Framed plaintext: compressed when at least minBytes long and actually smaller, raw UTF-8 otherwise
+    static byte[] encode(String text, boolean compress, int minBytes) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (!compress || utf8.length < minBytes) {
+            return utf8;
+        }
+
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY_V1);
+        deflater.setInput(utf8);
+        deflater.finish();
+
+        // Only worth it if marker + output is smaller than the raw text
+        byte[] out = new byte[utf8.length];
+        out[0] = FORMAT_DEFLATE_V1;
+        int written = deflater.deflate(out, 1, out.length - 1);
+        if (!deflater.finished()) {
+            return utf8;
+        }
+        return Arrays.copyOf(out, written + 1);
+    }
+
+    static String decode(byte[] plaintext) throws DataFormatException {
+        if (plaintext.length == 0 || plaintext[0] != FORMAT_DEFLATE_V1) {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY_V1);
+        inflater.setInput(plaintext, 1, plaintext.length - 1);
+
+        byte[] out = new byte[Math.min(MAX_INFLATED_BYTES, Math.max(64, plaintext.length * 4))];
+        int length = 0;
+        while (!inflater.finished()) {
+            if (length == out.length) {
+                if (out.length == MAX_INFLATED_BYTES) {
+                    throw new DataFormatException("Inflated text exceeds " + MAX_INFLATED_BYTES + " bytes");
+                }
+                out = Arrays.copyOf(out, Math.min(MAX_INFLATED_BYTES, out.length * 2));
+            }
+            int n = inflater.inflate(out, length, out.length - length);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed text");
+            }
+            length += n;
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -3,6 +3,7 @@ package com.spybot.service.handler;
 import com.pengrad.telegrambot.model.User;
 import com.pengrad.telegrambot.model.business.BusinessConnection;
 import com.spybot.repository.BusinessConnectionRepository;
+import com.spybot.service.connection.ConnectionStateCache;
 import com.spybot.service.telegram.NotificationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -18,6 +19,7 @@ public class BusinessConnectionHandler {
 
     private final BusinessConnectionRepository connectionRepository;
     private final NotificationService notificationService;
+    private final ConnectionStateCache connectionStateCache;
 
     @Transactional
     public void handle(BusinessConnection connection) {
@@ -34,10 +36,13 @@ public class BusinessConnectionHandler {
         if (existing != null) {
             existing.setIsEnabled(isEnabled);
             existing.setCanReply(connection.canReply());
+            if (user.languageCode() != null) {
+                existing.setLanguageCode(user.languageCode());
+            }
             if (!isEnabled) {
                 existing.setDisconnectedAt(Instant.now());
             }
-            connectionRepository.save(existing);
+            connectionStateCache.put(connectionRepository.save(existing));
 
             log.info("action=business_connection_updated, connection_id={}, user_id={}, enabled={}",
                     connectionId, user.id(), isEnabled);
@@ -50,12 +55,13 @@ public class BusinessConnectionHandler {
                             .username(user.username())
                             .firstName(user.firstName())
                             .lastName(user.lastName())
+                            .languageCode(user.languageCode())
                             .canReply(connection.canReply())
                             .isEnabled(isEnabled)
                             .connectedAt(Instant.ofEpochSecond(connection.date()))
                             .build();
 
-            connectionRepository.save(newConnection);
+            connectionStateCache.put(connectionRepository.save(newConnection));
 
             log.info("action=business_connection_created, connection_id={}, user_id={}",
                     connectionId, user.id());
@@ -5,56 +5,59 @@ import com.pengrad.telegrambot.model.PhotoSize;
 import com.pengrad.telegrambot.model.User;
 import com.spybot.domain.entity.StoredMessage;
 import com.spybot.domain.enums.MediaType;
-import com.spybot.repository.BusinessConnectionRepository;
-import com.spybot.service.MessageStorageService;
+import com.spybot.service.connection.ConnectionStateCache;
 import com.spybot.service.encryption.EncryptionService;
+import com.spybot.service.media.MediaArchiver;
+import com.spybot.service.ingest.MessageWriteBuffer;
+import com.spybot.service.sender.SenderProfile;
+import com.spybot.service.sender.SenderProfileCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class BusinessMessageHandler {
 
-    private final MessageStorageService messageStorageService;
-    private final BusinessConnectionRepository connectionRepository;
+    private final MessageWriteBuffer messageWriteBuffer;
+    private final ConnectionStateCache connectionStateCache;
     private final EncryptionService encryptionService;
+    private final SenderProfileCache senderProfileCache;
+    private final MediaArchiver mediaArchiver;
 
-    @Transactional
-    public void handle(Message message) {
+    public CompletableFuture<Void> handle(Message message) {
         String connectionId = message.businessConnectionId();
 
         if (connectionId == null || connectionId.isBlank()) {
             log.debug("action=skip_message, reason=no_connection_id");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        if (!connectionRepository.existsByConnectionIdAndIsEnabledTrue(connectionId)) {
+        if (!connectionStateCache.isEnabled(connectionId)) {
             log.debug("action=skip_message, reason=connection_disabled, connection_id={}", connectionId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         User fromUser = message.from();
+        senderProfileCache.observe(SenderProfile.of(fromUser));
+
         MediaType mediaType = determineMediaType(message);
         String fileId = extractFileId(message, mediaType);
 
-        String encryptedText = encryptionService.encrypt(message.text());
-        String encryptedCaption = encryptionService.encrypt(message.caption());
+        byte[] encryptedText = encryptionService.encrypt(message.text());
+        byte[] encryptedCaption = encryptionService.encrypt(message.caption());
 
         StoredMessage storedMessage = StoredMessage.builder()
                 .businessConnectionId(connectionId)
                 .chatId(message.chat().id())
                 .messageId(message.messageId())
                 .fromUserId(fromUser.id())
-                .fromUsername(fromUser.username())
-                .fromFirstName(fromUser.firstName())
-                .fromLastName(fromUser.lastName())
                 .encryptedText(encryptedText)
                 .mediaType(mediaType)
                 .mediaFileId(fileId)
@@ -62,10 +65,14 @@ public class BusinessMessageHandler {
                 .messageDate(Instant.ofEpochSecond(message.date()))
                 .build();
 
-        messageStorageService.storeMessage(storedMessage);
-
-        log.debug("action=message_stored, connection_id={}, chat_id={}, message_id={}, media_type={}",
+        log.debug("action=message_queued, connection_id={}, chat_id={}, message_id={}, media_type={}",
                 connectionId, message.chat().id(), message.messageId(), mediaType);
+
+        CompletableFuture<Void> durable = messageWriteBuffer.submit(storedMessage);
+        if (fileId != null) {
+            durable.thenRun(mediaArchiver::wakeUp);
+        }
+        return durable;
     }
 
     private MediaType determineMediaType(Message message) {
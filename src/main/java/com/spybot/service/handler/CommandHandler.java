@@ -1,6 +1,7 @@
 package com.spybot.service.handler;
 
 import com.pengrad.telegrambot.model.Message;
+import com.spybot.service.i18n.HtmlEscaper;
 import com.spybot.service.i18n.I18nService;
 import com.spybot.service.telegram.TelegramBotService;
 import lombok.RequiredArgsConstructor;
@@ -26,7 +27,7 @@ public class CommandHandler {
         String userName = message.from().firstName();
         String langCode = resolveLanguage(message);
 
-        String displayName = escapeHtml(userName != null ? userName :
+        String displayName = HtmlEscaper.escape(userName != null ? userName :
                 (messages.isRussian(langCode) ? "пользователь" : "user"));
         String welcomeMessage = messages.get("start.greeting", langCode, displayName);
 
@@ -48,12 +49,4 @@ public class CommandHandler {
         String telegramLang = message.from().languageCode();
         return telegramLang != null ? telegramLang : "en";
     }
-
-    private String escapeHtml(String text) {
-        if (text == null) return "";
-        return text
-                .replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;");
-    }
 }
@@ -4,17 +4,25 @@ import com.pengrad.telegrambot.model.business.BusinessMessageDeleted;
 import com.spybot.domain.entity.MessageEvent;
 import com.spybot.domain.entity.StoredMessage;
 import com.spybot.domain.enums.EventType;
-import com.spybot.repository.BusinessConnectionRepository;
 import com.spybot.repository.MessageEventRepository;
 import com.spybot.repository.StoredMessageRepository;
-import com.spybot.service.telegram.NotificationService;
+import com.spybot.service.connection.ConnectionStateCache;
+import com.spybot.service.ingest.KnownMessageFilter;
+import com.spybot.service.ingest.MessageKey;
+import com.spybot.service.ingest.RecentMessage;
+import com.spybot.service.ingest.RecentMessageCache;
+import com.spybot.service.outbox.NotificationOutbox;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Service
 @Slf4j
@@ -23,8 +31,10 @@ public class DeletedMessageHandler {
 
     private final StoredMessageRepository messageRepository;
     private final MessageEventRepository eventRepository;
-    private final BusinessConnectionRepository connectionRepository;
-    private final NotificationService notificationService;
+    private final ConnectionStateCache connectionStateCache;
+    private final RecentMessageCache recentMessageCache;
+    private final KnownMessageFilter knownMessageFilter;
+    private final NotificationOutbox notificationOutbox;
 
     @Transactional
     public void handle(BusinessMessageDeleted deleted) {
@@ -37,48 +47,75 @@ public class DeletedMessageHandler {
             return;
         }
 
-        var connectionOpt = connectionRepository.findByConnectionId(connectionId);
-        if (connectionOpt.isEmpty() || !connectionOpt.get().getIsEnabled()) {
+        var connectionOpt = connectionStateCache.get(connectionId);
+        if (connectionOpt.isEmpty() || !connectionOpt.get().enabled()) {
             log.debug("action=skip_delete, reason=connection_disabled, connection_id={}", connectionId);
             return;
         }
 
-        Long ownerId = connectionOpt.get().getUserId();
-
-        List<Integer> messageIds = Arrays.asList(messageIdsArray);
-        List<StoredMessage> storedMessages = messageRepository
-                .findByChatIdAndMessageIdIn(chatId, messageIds);
+        Long ownerId = connectionOpt.get().ownerId();
+
+        List<RecentMessage> storedMessages = new ArrayList<>(messageIdsArray.length);
+        List<Integer> misses = new ArrayList<>();
+        Set<Integer> filterHits = new HashSet<>();
+        for (Integer messageId : messageIdsArray) {
+            MessageKey key = new MessageKey(connectionId, chatId, messageId);
+            recentMessageCache.get(key).ifPresentOrElse(storedMessages::add, () -> {
+                // Messages that were never stored are the common case here: no query for them
+                KnownMessageFilter.Lookup lookup = knownMessageFilter.check(key, null);
+                if (lookup != KnownMessageFilter.Lookup.ABSENT) {
+                    misses.add(messageId);
+                }
+                if (lookup == KnownMessageFilter.Lookup.MAYBE) {
+                    filterHits.add(messageId);
+                }
+            });
+        }
+        if (!misses.isEmpty()) {
+            List<StoredMessage> found = messageRepository
+                    .findByBusinessConnectionIdAndChatIdAndMessageIdIn(connectionId, chatId, misses);
+            found.forEach(message -> {
+                storedMessages.add(RecentMessage.of(message));
+                filterHits.remove(message.getMessageId());
+            });
+            knownMessageFilter.recordFalsePositives(filterHits.size());
+        }
 
         if (storedMessages.isEmpty()) {
             log.debug("action=delete_no_stored_messages, chat_id={}, message_ids={}",
-                    chatId, messageIds);
+                    chatId, Arrays.asList(messageIdsArray));
             return;
         }
 
-        for (StoredMessage storedMessage : storedMessages) {
+        List<Long> deletedIds = new ArrayList<>(storedMessages.size());
+        List<Instant> deletedDates = new ArrayList<>(storedMessages.size());
+        for (RecentMessage storedMessage : storedMessages) {
             // Пропускаем свои собственные сообщения
-            if (storedMessage.getFromUserId().equals(ownerId)) {
+            if (storedMessage.fromUserId().equals(ownerId)) {
                 log.debug("action=skip_delete_own_message, chat_id={}, message_id={}",
-                        chatId, storedMessage.getMessageId());
+                        chatId, storedMessage.key().messageId());
                 continue;
             }
 
             MessageEvent event = MessageEvent.builder()
-                    .storedMessage(storedMessage)
+                    .storedMessage(messageRepository.getReferenceById(storedMessage.id()))
                     .eventType(EventType.MESSAGE_DELETED)
-                    .encryptedOldText(storedMessage.getEncryptedText())
-                    .encryptedOldCaption(storedMessage.getEncryptedCaption())
+                    .encryptedOldText(storedMessage.encryptedText())
+                    .encryptedOldCaption(storedMessage.encryptedCaption())
                     .build();
 
             eventRepository.save(event);
-
-            storedMessage.setIsDeleted(true);
-            messageRepository.save(storedMessage);
+            deletedIds.add(storedMessage.id());
+            deletedDates.add(storedMessage.messageDate());
+            recentMessageCache.remove(storedMessage.key());
 
             log.info("action=message_delete_recorded, chat_id={}, message_id={}",
-                    chatId, storedMessage.getMessageId());
+                    chatId, storedMessage.key().messageId());
+        }
 
-            notificationService.notifyMessageDeleted(connectionId, storedMessage);
+        if (!deletedIds.isEmpty()) {
+            messageRepository.markDeletedByIds(deletedIds, deletedDates);
+            notificationOutbox.wakeUpAfterCommit();
         }
     }
 }
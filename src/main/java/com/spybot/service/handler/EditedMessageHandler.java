@@ -2,18 +2,25 @@ package com.spybot.service.handler;
 
 import com.pengrad.telegrambot.model.Message;
 import com.spybot.domain.entity.MessageEvent;
-import com.spybot.domain.entity.StoredMessage;
 import com.spybot.domain.enums.EventType;
-import com.spybot.repository.BusinessConnectionRepository;
 import com.spybot.repository.MessageEventRepository;
 import com.spybot.repository.StoredMessageRepository;
+import com.spybot.service.connection.ConnectionStateCache;
 import com.spybot.service.encryption.EncryptionService;
-import com.spybot.service.telegram.NotificationService;
+import com.spybot.service.history.EditHistoryService;
+import com.spybot.service.ingest.KnownMessageFilter;
+import com.spybot.service.ingest.MessageKey;
+import com.spybot.service.ingest.RecentMessage;
+import com.spybot.service.ingest.RecentMessageCache;
+import com.spybot.service.outbox.NotificationOutbox;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Optional;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -21,9 +28,12 @@ public class EditedMessageHandler {
 
     private final StoredMessageRepository messageRepository;
     private final MessageEventRepository eventRepository;
-    private final BusinessConnectionRepository connectionRepository;
+    private final ConnectionStateCache connectionStateCache;
     private final EncryptionService encryptionService;
-    private final NotificationService notificationService;
+    private final RecentMessageCache recentMessageCache;
+    private final KnownMessageFilter knownMessageFilter;
+    private final NotificationOutbox notificationOutbox;
+    private final EditHistoryService editHistoryService;
 
     @Transactional
     public void handle(Message editedMessage) {
@@ -37,16 +47,18 @@ public class EditedMessageHandler {
         Long chatId = editedMessage.chat().id();
         Integer messageId = editedMessage.messageId();
 
-        var connectionOpt = connectionRepository.findByConnectionId(connectionId);
-        if (connectionOpt.isEmpty() || !connectionOpt.get().getIsEnabled()) {
+        var connectionOpt = connectionStateCache.get(connectionId);
+        if (connectionOpt.isEmpty() || !connectionOpt.get().enabled()) {
             log.debug("action=skip_edit, reason=connection_disabled, connection_id={}", connectionId);
             return;
         }
 
-        Long ownerId = connectionOpt.get().getUserId();
+        Long ownerId = connectionOpt.get().ownerId();
 
-        StoredMessage storedMessage = messageRepository
-                .findByChatIdAndMessageId(chatId, messageId)
+        MessageKey key = new MessageKey(connectionId, chatId, messageId);
+        // An edited message carries the original send date, which completes the message key
+        RecentMessage storedMessage = recentMessageCache.get(key)
+                .or(() -> loadStored(key, Instant.ofEpochSecond(editedMessage.date())))
                 .orElse(null);
 
         if (storedMessage == null) {
@@ -55,43 +67,51 @@ public class EditedMessageHandler {
         }
 
         // Пропускаем свои собственные сообщения
-        if (storedMessage.getFromUserId().equals(ownerId)) {
+        if (storedMessage.fromUserId().equals(ownerId)) {
             log.debug("action=skip_edit_own_message, chat_id={}, message_id={}", chatId, messageId);
             return;
         }
 
-        String oldText = encryptionService.decrypt(storedMessage.getEncryptedText());
-        String newText = editedMessage.text();
-
-        String oldCaption = encryptionService.decrypt(storedMessage.getEncryptedCaption());
-        String newCaption = editedMessage.caption();
+        byte[] encryptedNewText = encryptionService.encrypt(editedMessage.text());
+        byte[] encryptedNewCaption = encryptionService.encrypt(editedMessage.caption());
 
+        // The new version goes to stored_messages; the event only keeps how to get back from it
         MessageEvent event = MessageEvent.builder()
-                .storedMessage(storedMessage)
+                .storedMessage(messageRepository.getReferenceById(storedMessage.id()))
                 .eventType(EventType.MESSAGE_EDITED)
-                .encryptedOldText(storedMessage.getEncryptedText())
-                .encryptedNewText(encryptionService.encrypt(newText))
-                .encryptedOldCaption(storedMessage.getEncryptedCaption())
-                .encryptedNewCaption(encryptionService.encrypt(newCaption))
+                .encryptedTextDelta(editHistoryService.encryptedReverseDelta(
+                        editedMessage.text(), encryptionService.decrypt(storedMessage.encryptedText())))
+                .encryptedCaptionDelta(editHistoryService.encryptedReverseDelta(
+                        editedMessage.caption(), encryptionService.decrypt(storedMessage.encryptedCaption())))
+                .deltaEncoded(true)
                 .build();
 
         eventRepository.save(event);
 
-        storedMessage.setEncryptedText(encryptionService.encrypt(newText));
-        storedMessage.setEncryptedCaption(encryptionService.encrypt(newCaption));
-        storedMessage.setEditCount(storedMessage.getEditCount() + 1);
-        messageRepository.save(storedMessage);
+        messageRepository.updateContent(storedMessage.id(), storedMessage.messageDate(),
+                encryptedNewText, encryptedNewCaption);
+        RecentMessage edited = storedMessage.withContent(encryptedNewText, encryptedNewCaption);
+        recentMessageCache.update(edited);
 
         log.info("action=message_edit_recorded, chat_id={}, message_id={}, edit_count={}",
-                chatId, messageId, storedMessage.getEditCount());
-
-        notificationService.notifyMessageEdited(
-                connectionId,
-                storedMessage,
-                oldText,
-                newText,
-                oldCaption,
-                newCaption
-        );
+                chatId, messageId, edited.editCount());
+
+        notificationOutbox.wakeUpAfterCommit();
+    }
+
+    private Optional<RecentMessage> loadStored(MessageKey key, Instant messageDate) {
+        KnownMessageFilter.Lookup lookup = knownMessageFilter.check(key, messageDate);
+        if (lookup == KnownMessageFilter.Lookup.ABSENT) {
+            return Optional.empty();
+        }
+        Optional<RecentMessage> stored = messageRepository
+                .findByBusinessConnectionIdAndChatIdAndMessageIdAndMessageDate(
+                        key.connectionId(), key.chatId(), key.messageId(), messageDate)
+                .map(RecentMessage::of)
+                .map(recentMessageCache::warm);
+        if (stored.isEmpty() && lookup == KnownMessageFilter.Lookup.MAYBE) {
+            knownMessageFilter.recordFalsePositives(1);
+        }
+        return stored;
     }
 }
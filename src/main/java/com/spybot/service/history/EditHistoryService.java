@@ -0,0 +1,96 @@
+package com.spybot.service.history;
+
+import com.spybot.domain.entity.MessageEvent;
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.repository.MessageEventRepository;
+import com.spybot.service.encryption.EncryptionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Edit history chained back from the current version: stored_messages holds the latest text and
+// each edit event holds a reverse delta to the version before it. Any older version is rebuilt by
+// applying the deltas of the newer edits in reverse order. Retention may drop the oldest events;
+// the chain from the current version stays intact.
+@Service
+@RequiredArgsConstructor
+public class EditHistoryService {
+
+    private final MessageEventRepository eventRepository;
+    private final EncryptionService encryptionService;
+
+    // Encrypted patch from newContent back to oldContent, or null when they are equal
+    public byte[] encryptedReverseDelta(String newContent, String oldContent) {
+        if (Objects.equals(normalize(newContent), normalize(oldContent))) {
+            return null;
+        }
+        return encryptionService.encryptBytes(TextDelta.encode(newContent, oldContent));
+    }
+
+    // Text on both sides of the given edit; event must come with its stored message loaded
+    public EditedContent resolve(MessageEvent event) {
+        if (!Boolean.TRUE.equals(event.getDeltaEncoded())) {
+            return new EditedContent(
+                    encryptionService.decrypt(event.getEncryptedOldText()),
+                    encryptionService.decrypt(event.getEncryptedNewText()),
+                    encryptionService.decrypt(event.getEncryptedOldCaption()),
+                    encryptionService.decrypt(event.getEncryptedNewCaption()));
+        }
+
+        StoredMessage message = event.getStoredMessage();
+        String text = encryptionService.decrypt(message.getEncryptedText());
+        String caption = encryptionService.decrypt(message.getEncryptedCaption());
+        // Usually empty: only edits made after this one and before its notification went out
+        for (MessageEvent later : eventRepository.findEditsAfter(message.getId(), event.getId(), event.getEventTime())) {
+            text = previousText(later, text);
+            caption = previousCaption(later, caption);
+        }
+        return new EditedContent(previousText(event, text), text, previousCaption(event, caption), caption);
+    }
+
+    // Every version still covered by stored events, oldest first
+    public List<MessageVersion> history(StoredMessage message) {
+        List<MessageEvent> edits = eventRepository.findEditsNewestFirst(message.getId());
+        String text = encryptionService.decrypt(message.getEncryptedText());
+        String caption = encryptionService.decrypt(message.getEncryptedCaption());
+
+        List<MessageVersion> versions = new ArrayList<>(edits.size() + 1);
+        int version = edits.size();
+        versions.add(new MessageVersion(version, text, caption));
+        for (MessageEvent edit : edits) {
+            text = previousText(edit, text);
+            caption = previousCaption(edit, caption);
+            versions.add(new MessageVersion(--version, text, caption));
+        }
+        Collections.reverse(versions);
+        return versions;
+    }
+
+    private String previousText(MessageEvent edit, String current) {
+        return Boolean.TRUE.equals(edit.getDeltaEncoded())
+                ? applyDelta(current, edit.getEncryptedTextDelta())
+                : encryptionService.decrypt(edit.getEncryptedOldText());
+    }
+
+    private String previousCaption(MessageEvent edit, String current) {
+        return Boolean.TRUE.equals(edit.getDeltaEncoded())
+                ? applyDelta(current, edit.getEncryptedCaptionDelta())
+                : encryptionService.decrypt(edit.getEncryptedOldCaption());
+    }
+
+    private String applyDelta(String current, byte[] encryptedDelta) {
+        if (encryptedDelta == null) {
+            return current;
+        }
+        return normalize(TextDelta.apply(current, encryptionService.decryptBytes(encryptedDelta)));
+    }
+
+    // Empty text is stored as null, like EncryptionService does
+    private static String normalize(String content) {
+        return content == null || content.isEmpty() ? null : content;
+    }
+}
@@ -0,0 +1,10 @@
+package com.spybot.service.history;
+
+// Decrypted text and caption before and after one edit
+public record EditedContent(
+        String oldText,
+        String newText,
+        String oldCaption,
+        String newCaption
+) {
+}
@@ -0,0 +1,9 @@
+package com.spybot.service.history;
+
+// Version 0 is the text as originally sent; the highest version is the current one
+public record MessageVersion(
+        int version,
+        String text,
+        String caption
+) {
+}
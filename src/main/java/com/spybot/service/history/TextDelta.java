@@ -0,0 +1,107 @@
+package com.spybot.service.history;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Compact patch that turns a base text into a target text: a version byte followed by
+// COPY(start, length) ops referencing base characters and INSERT(utf-8 bytes) ops carrying new text,
+// with varint lengths. Edits mostly touch a few words, so a delta is a few bytes plus the changed words.
+public final class TextDelta {
+
+    private static final byte FORMAT_V1 = 1;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private TextDelta() {
+    }
+
+    public static byte[] encode(String base, String target) {
+        List<String> baseTokens = TextDiff.tokenize(base);
+        List<String> targetTokens = TextDiff.tokenize(target);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_V1);
+        int baseToken = 0;
+        int baseChar = 0;
+        int targetToken = 0;
+        for (TextDiff.Op op : TextDiff.diff(baseTokens, targetTokens)) {
+            switch (op.kind()) {
+                case EQUAL -> {
+                    int length = charLength(baseTokens, baseToken, op.count());
+                    out.write(OP_COPY);
+                    writeVarInt(out, baseChar);
+                    writeVarInt(out, length);
+                    baseToken += op.count();
+                    baseChar += length;
+                    targetToken += op.count();
+                }
+                case DELETE -> {
+                    baseChar += charLength(baseTokens, baseToken, op.count());
+                    baseToken += op.count();
+                }
+                case INSERT -> {
+                    byte[] inserted = String.join("", targetTokens.subList(targetToken, targetToken + op.count()))
+                            .getBytes(StandardCharsets.UTF_8);
+                    out.write(OP_INSERT);
+                    writeVarInt(out, inserted.length);
+                    out.writeBytes(inserted);
+                    targetToken += op.count();
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static String apply(String base, byte[] delta) {
+        if (delta.length == 0 || delta[0] != FORMAT_V1) {
+            throw new IllegalArgumentException("Unsupported text delta format");
+        }
+        String source = base != null ? base : "";
+        StringBuilder result = new StringBuilder(source.length() + 16);
+        int[] pos = {1};
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == OP_COPY) {
+                int start = readVarInt(delta, pos);
+                int length = readVarInt(delta, pos);
+                result.append(source, start, start + length);
+            } else if (op == OP_INSERT) {
+                int length = readVarInt(delta, pos);
+                result.append(new String(delta, pos[0], length, StandardCharsets.UTF_8));
+                pos[0] += length;
+            } else {
+                throw new IllegalArgumentException("Unknown text delta op: " + op);
+            }
+        }
+        return result.toString();
+    }
+
+    private static int charLength(List<String> tokens, int from, int count) {
+        int length = 0;
+        for (int i = from; i < from + count; i++) {
+            length += tokens.get(i).length();
+        }
+        return length;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,145 @@
+package com.spybot.service.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Word-level diff: text is split into words, whitespace runs and single punctuation characters,
+// and the token sequences are compared with Myers' O((N+M)D) algorithm after trimming the common
+// prefix and suffix (most edits touch a few words). Rewrites beyond MAX_EDIT_DISTANCE tokens are
+// reported as one replacement instead of being minimized.
+public final class TextDiff {
+
+    static final int MAX_EDIT_DISTANCE = 256;
+
+    public enum Kind {
+        EQUAL,
+        DELETE,
+        INSERT
+    }
+
+    // count tokens kept from both sides, removed from the old side or added from the new side
+    public record Op(Kind kind, int count) {
+    }
+
+    private TextDiff() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int i = 0;
+        while (i < text.length()) {
+            int start = i;
+            int cp = text.codePointAt(i);
+            if (Character.isLetterOrDigit(cp)) {
+                while (i < text.length() && Character.isLetterOrDigit(cp = text.codePointAt(i))) {
+                    i += Character.charCount(cp);
+                }
+            } else if (Character.isWhitespace(cp)) {
+                while (i < text.length() && Character.isWhitespace(cp = text.codePointAt(i))) {
+                    i += Character.charCount(cp);
+                }
+            } else {
+                i += Character.charCount(cp);
+            }
+            tokens.add(text.substring(start, i));
+        }
+        return tokens;
+    }
+
+    public static List<Op> diff(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int prefix = 0;
+        while (prefix < n && prefix < m && a.get(prefix).equals(b.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix && a.get(n - 1 - suffix).equals(b.get(m - 1 - suffix))) {
+            suffix++;
+        }
+
+        List<Op> ops = new ArrayList<>();
+        append(ops, Kind.EQUAL, prefix);
+        diffMiddle(a.subList(prefix, n - suffix), b.subList(prefix, m - suffix), ops);
+        append(ops, Kind.EQUAL, suffix);
+        return ops;
+    }
+
+    private static void diffMiddle(List<String> a, List<String> b, List<Op> ops) {
+        int n = a.size();
+        int m = b.size();
+        if (n == 0 || m == 0) {
+            append(ops, Kind.DELETE, n);
+            append(ops, Kind.INSERT, m);
+            return;
+        }
+
+        int limit = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= limit; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, offset, n, m, ops);
+                    return;
+                }
+            }
+        }
+
+        append(ops, Kind.DELETE, n);
+        append(ops, Kind.INSERT, m);
+    }
+
+    // Walks the saved frontiers from (n, m) back to the origin, emitting ops in reverse
+    private static void backtrack(List<int[]> trace, int offset, int n, int m, List<Op> ops) {
+        List<Kind> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[offset + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                reversed.add(Kind.EQUAL);
+                x--;
+                y--;
+            }
+            if (d > 0) {
+                reversed.add(x == prevX ? Kind.INSERT : Kind.DELETE);
+            }
+            x = prevX;
+            y = prevY;
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            append(ops, reversed.get(i), 1);
+        }
+    }
+
+    private static void append(List<Op> ops, Kind kind, int count) {
+        if (count == 0) {
+            return;
+        }
+        int last = ops.size() - 1;
+        if (last >= 0 && ops.get(last).kind() == kind) {
+            ops.set(last, new Op(kind, ops.get(last).count() + count));
+        } else {
+            ops.add(new Op(kind, count));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.spybot.service.i18n;
+
+// Escaping for Telegram's HTML parse mode, which only requires &, < and > to be replaced.
+// One pass over the input, copying unescaped runs straight into the caller's buffer.
+public final class HtmlEscaper {
+
+    private HtmlEscaper() {
+    }
+
+    public static String escape(String text) {
+        if (text == null) return "";
+        int first = firstEscapable(text, 0, text.length());
+        if (first < 0) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length() + 16);
+        out.append(text, 0, first);
+        escapeFrom(text, first, text.length(), out);
+        return out.toString();
+    }
+
+    public static StringBuilder escape(CharSequence text, StringBuilder out) {
+        if (text == null) return out;
+        return escape(text, 0, text.length(), out);
+    }
+
+    public static StringBuilder escape(CharSequence text, int start, int end, StringBuilder out) {
+        if (text == null) return out;
+        escapeFrom(text, start, end, out);
+        return out;
+    }
+
+    private static void escapeFrom(CharSequence text, int start, int end, StringBuilder out) {
+        int run = start;
+        for (int i = start; i < end; i++) {
+            String replacement = switch (text.charAt(i)) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                default -> null;
+            };
+            if (replacement != null) {
+                out.append(text, run, i).append(replacement);
+                run = i + 1;
+            }
+        }
+        out.append(text, run, end);
+    }
+
+    private static int firstEscapable(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '&' || c == '<' || c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,29 +1,69 @@
 package com.spybot.service.i18n;
 
+import com.spybot.domain.enums.MediaType;
 import org.springframework.stereotype.Component;
 
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Catalog entries are compiled into MessageTemplates once per language at startup, and media type
+// labels are resolved up front, so rendering a notification does no parsing or format lookups.
 @Component
 public class I18nService {
 
-    private static final Set<String> RUSSIAN_CODES = Set.of("ru", "uk", "be", "kk", "uz");
+    private final Map<Language, Map<String, MessageTemplate>> templates = new EnumMap<>(Language.class);
+    private final Map<Language, Map<MediaType, String>> mediaTypeNames = new EnumMap<>(Language.class);
+    // Fallbacks for keys missing from the catalogs; keys are literals in code, so this stays small
+    private final Map<String, MessageTemplate> unknownKeys = new ConcurrentHashMap<>();
+
+    public I18nService() {
+        compile(Language.RU, RU);
+        compile(Language.EN, EN);
+    }
 
     public boolean isRussian(String languageCode) {
-        if (languageCode == null) return false;
-        return RUSSIAN_CODES.contains(languageCode.toLowerCase());
+        return Language.of(languageCode) == Language.RU;
     }
 
     public String get(String key, String languageCode) {
-        Map<String, String> messages = isRussian(languageCode) ? RU : EN;
-        return messages.getOrDefault(key, key);
+        return get(key, Language.of(languageCode));
     }
 
     public String get(String key, String languageCode, Object... args) {
-        String template = get(key, languageCode);
-        return String.format(template, args);
+        return template(key, Language.of(languageCode)).format(args);
+    }
+
+    public String get(String key, Language language) {
+        return template(key, language).format();
+    }
+
+    // Unknown keys render as the key itself, as before
+    public MessageTemplate template(String key, Language language) {
+        MessageTemplate template = templates.get(language).get(key);
+        return template != null
+                ? template
+                : unknownKeys.computeIfAbsent(key, k -> MessageTemplate.compile(k.replace("%", "%%")));
+    }
+
+    public String mediaTypeName(MediaType type, Language language) {
+        return mediaTypeNames.get(language).get(type);
+    }
+
+    private void compile(Language language, Map<String, String> catalog) {
+        Map<String, MessageTemplate> compiled = new HashMap<>(catalog.size() * 2);
+        catalog.forEach((key, pattern) -> compiled.put(key, MessageTemplate.compile(pattern)));
+        templates.put(language, compiled);
+
+        Map<MediaType, String> names = new EnumMap<>(MediaType.class);
+        for (MediaType type : MediaType.values()) {
+            names.put(type, type == MediaType.NONE
+                    ? ""
+                    : catalog.getOrDefault("media." + type.name().toLowerCase(Locale.ROOT), type.name()));
+        }
+        mediaTypeNames.put(language, names);
     }
 
     // ==================== RUSSIAN ====================
@@ -99,6 +139,8 @@ public class I18nService {
         RU.put("notify.caption_was", "💬 <b>Подпись была:</b>");
         RU.put("notify.caption_became", "💬 <b>Подпись стала:</b>");
         RU.put("notify.deleted_media", "🗑 Удалённое медиа от %s");
+        RU.put("notify.deleted_digest", "🗑 <b>Удалено сообщений: %d</b>");
+        RU.put("notify.page", "<i>Страница %d из %d</i>");
         RU.put("notify.empty", "(пусто)");
 
         RU.put("media.photo", "Фото");
@@ -184,6 +226,8 @@ public class I18nService {
         EN.put("notify.caption_was", "💬 <b>Caption was:</b>");
         EN.put("notify.caption_became", "💬 <b>Caption became:</b>");
         EN.put("notify.deleted_media", "🗑 Deleted media from %s");
+        EN.put("notify.deleted_digest", "🗑 <b>%d messages deleted</b>");
+        EN.put("notify.page", "<i>Page %d of %d</i>");
         EN.put("notify.empty", "(empty)");
 
         EN.put("media.photo", "Photo");
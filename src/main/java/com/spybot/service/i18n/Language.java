@@ -0,0 +1,17 @@
+package com.spybot.service.i18n;
+
+import java.util.Locale;
+import java.util.Set;
+
+public enum Language {
+    RU,
+    EN;
+
+    private static final Set<String> RUSSIAN_CODES = Set.of("ru", "uk", "be", "kk", "uz");
+
+    // Telegram language codes of the CIS get the Russian catalog, everything else English
+    public static Language of(String languageCode) {
+        if (languageCode == null) return EN;
+        return RUSSIAN_CODES.contains(languageCode.toLowerCase(Locale.ROOT)) ? RU : EN;
+    }
+}
@@ -0,0 +1,67 @@
+package com.spybot.service.i18n;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A catalog entry parsed once into literal text and argument slots. Supports the %s, %d and %%
+// specifiers the catalog uses; arguments are taken in order and are not escaped.
+public final class MessageTemplate {
+
+    private final String[] literals;
+    private final int maxLength;
+
+    private MessageTemplate(String[] literals) {
+        this.literals = literals;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.maxLength = length;
+    }
+
+    // literals[i] is followed by argument i; the last literal closes the template
+    public static MessageTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            char spec = i + 1 < pattern.length() ? pattern.charAt(++i) : 0;
+            switch (spec) {
+                case '%' -> literal.append('%');
+                case 's', 'd' -> {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                }
+                default -> throw new IllegalArgumentException(
+                        "Unsupported format specifier %" + spec + " in: " + pattern);
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(String[]::new));
+    }
+
+    public int argumentCount() {
+        return literals.length - 1;
+    }
+
+    public StringBuilder render(StringBuilder out, Object... args) {
+        if (args.length != argumentCount()) {
+            throw new IllegalArgumentException("Expected " + argumentCount() + " arguments, got " + args.length);
+        }
+        for (int i = 0; i < args.length; i++) {
+            out.append(literals[i]).append(args[i]);
+        }
+        return out.append(literals[args.length]);
+    }
+
+    public String format(Object... args) {
+        if (args.length == 0 && literals.length == 1) {
+            return literals[0];
+        }
+        return render(new StringBuilder(maxLength + 16 * args.length), args).toString();
+    }
+}
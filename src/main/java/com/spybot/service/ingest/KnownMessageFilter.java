@@ -0,0 +1,286 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Bloom filter of every stored message key, so edits and deletions of messages that were never
+// stored (sent before the connection existed, untracked chats) skip the database entirely.
+// Built from stored_messages in the background on startup and rebuilt nightly, which also forgets
+// rows removed by retention. Until the first build completes every key "might" be present.
+// Keys stored on other nodes arrive as hashes over LISTEN/NOTIFY, a little later than their rows
+// commit: a miss for a message younger than notifyLag is not trusted and goes to the database.
+// The filter is split into SHARDS smaller filters by connection, so the bursts of one connection
+// (a chat clearing its history) stay within one shard's words, and a connection with far more
+// messages than its share only raises the false-positive rate of its own shard.
+@Component
+@Slf4j
+public class KnownMessageFilter {
+
+    static final String CHANNEL = "stored_message_keys";
+    // pg_notify payloads are limited to 8000 bytes; leave room for the node prefix
+    private static final int MAX_PAYLOAD_CHARS = 7000;
+    private static final int REBUILD_FETCH_SIZE = 10_000;
+    // A power of two up to 16, so the shard fits one hex digit of the NOTIFY payload
+    static final int SHARDS = 16;
+
+    private final PgNotificationListener notificationListener;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final Duration notifyLag;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final Counter skippedCounter;
+    private final Counter uncheckedCounter;
+    private final Counter falsePositiveCounter;
+
+    private volatile BloomFilter[] shards;
+    private volatile BloomFilter[] building;
+    private volatile boolean ready;
+    private volatile long lastRemoteKeysNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    public KnownMessageFilter(PgNotificationListener notificationListener,
+                              DataSource dataSource,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.message-filter.enabled:true}") boolean enabled,
+                              @Value("${app.message-filter.expected-insertions:5000000}") long expectedInsertions,
+                              @Value("${app.message-filter.fpp:0.01}") double fpp,
+                              @Value("${app.message-filter.notify-lag-ms:5000}") long notifyLagMs) {
+        this.notificationListener = notificationListener;
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(REBUILD_FETCH_SIZE);
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.notifyLag = Duration.ofMillis(notifyLagMs);
+        this.shards = createShards();
+
+        this.skippedCounter = meterRegistry.counter("spybot.message_filter.lookups.skipped");
+        this.uncheckedCounter = meterRegistry.counter("spybot.message_filter.lookups.unchecked");
+        this.falsePositiveCounter = meterRegistry.counter("spybot.message_filter.false_positives");
+        // The worst shard: that is the rate its connections see
+        Gauge.builder("spybot.message_filter.expected.fpp", this,
+                        f -> Arrays.stream(f.shards).mapToDouble(BloomFilter::expectedFpp).max().orElse(0))
+                .register(meterRegistry);
+        Gauge.builder("spybot.message_filter.size.bytes", this,
+                        f -> Arrays.stream(f.shards).mapToLong(BloomFilter::sizeBytes).sum())
+                .register(meterRegistry);
+        Gauge.builder("spybot.message_filter.entries", this,
+                        f -> Arrays.stream(f.shards).mapToLong(BloomFilter::insertions).sum())
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        // After a listener reconnect keys from other nodes may be missing: stop trusting the filter
+        notificationListener.subscribe(CHANNEL, this::onRemoteKeys, () -> {
+            ready = false;
+            rebuildAsync();
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        rebuildAsync();
+    }
+
+    @Scheduled(cron = "${app.message-filter.rebuild-cron:0 45 3 * * ?}")
+    public void scheduledRebuild() {
+        rebuildAsync();
+    }
+
+    // ABSENT: the message was certainly never stored, skip the lookup. MAYBE: the filter has the key.
+    // UNCHECKED: the filter cannot tell (not built yet, or the key may still be on its way from
+    // another node); the database decides and a miss is not a false positive.
+    // messageDate is null when the update does not carry it (deletions); such a miss is only
+    // trusted while no other node has published keys within notifyLag.
+    public Lookup check(MessageKey key, Instant messageDate) {
+        if (!enabled || !ready) {
+            return Lookup.UNCHECKED;
+        }
+        if (shards[shard(key)].mightContain(hash(key))) {
+            return Lookup.MAYBE;
+        }
+        if (mayBeInFlight(messageDate)) {
+            uncheckedCounter.increment();
+            return Lookup.UNCHECKED;
+        }
+        skippedCounter.increment();
+        return Lookup.ABSENT;
+    }
+
+    private boolean mayBeInFlight(Instant messageDate) {
+        if (messageDate != null) {
+            return messageDate.isAfter(Instant.now().minus(notifyLag));
+        }
+        return System.nanoTime() - lastRemoteKeysNanos < notifyLag.toNanos();
+    }
+
+    // Called when the filter said MAYBE but the database had no row
+    public void recordFalsePositives(int count) {
+        if (count > 0) {
+            falsePositiveCounter.increment(count);
+        }
+    }
+
+    // Called after the rows are committed
+    public void addStored(List<StoredMessage> messages) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        StringBuilder payload = new StringBuilder();
+        for (StoredMessage message : messages) {
+            MessageKey key = new MessageKey(message.getBusinessConnectionId(), message.getChatId(),
+                    message.getMessageId());
+            int shard = shard(key);
+            long hash = hash(key);
+            add(shard, hash);
+            if (payload.length() + 18 > MAX_PAYLOAD_CHARS) {
+                publish(payload);
+                payload.setLength(0);
+            }
+            if (!payload.isEmpty()) {
+                payload.append(',');
+            }
+            payload.append(Character.forDigit(shard, 16)).append(Long.toHexString(hash));
+        }
+        publish(payload);
+    }
+
+    private void add(int shard, long hash) {
+        shards[shard].put(hash);
+        BloomFilter[] next = building;
+        if (next != null) {
+            next[shard].put(hash);
+        }
+    }
+
+    private void publish(StringBuilder payload) {
+        if (payload.isEmpty()) {
+            return;
+        }
+        try {
+            notificationListener.publish(CHANNEL, payload.toString());
+        } catch (Exception e) {
+            // Other nodes treat these keys as unknown until their next rebuild
+            log.warn("action=message_filter_publish_failed, error={}", e.getMessage());
+        }
+    }
+
+    private void onRemoteKeys(String payload) {
+        lastRemoteKeysNanos = System.nanoTime();
+        // Each key is its shard as one hex digit followed by its hash
+        for (String entry : payload.split(",")) {
+            add(Character.digit(entry.charAt(0), 16), Long.parseUnsignedLong(entry.substring(1), 16));
+        }
+    }
+
+    private void rebuildAsync() {
+        if (!enabled || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "message-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Keys stored while the rebuild runs go into both filters, so the swap loses nothing
+    private void rebuild() {
+        long started = System.nanoTime();
+        try {
+            BloomFilter[] next = createShards();
+            building = next;
+            transactionTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query(
+                    "SELECT business_connection_id, chat_id, message_id FROM stored_messages",
+                    rs -> {
+                        MessageKey key = new MessageKey(rs.getString(1), rs.getLong(2), rs.getInt(3));
+                        next[shard(key)].put(hash(key));
+                    }));
+            shards = next;
+            ready = true;
+            long entries = 0;
+            for (int i = 0; i < next.length; i++) {
+                entries += next[i].insertions();
+                if (next[i].insertions() > expectedInsertions / SHARDS) {
+                    log.warn("action=message_filter_oversubscribed, shard={}, entries={}, expected_insertions={}, "
+                            + "expected_fpp={}", i, next[i].insertions(), expectedInsertions / SHARDS,
+                            next[i].expectedFpp());
+                }
+            }
+            log.info("action=message_filter_rebuilt, entries={}, shards={}, size_bytes={}, duration_ms={}",
+                    entries, SHARDS, Arrays.stream(next).mapToLong(BloomFilter::sizeBytes).sum(),
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            log.error("action=message_filter_rebuild, status=failed, error={}", e.getMessage());
+        } finally {
+            building = null;
+            rebuilding.set(false);
+        }
+    }
+
+    private BloomFilter[] createShards() {
+        BloomFilter[] filters = new BloomFilter[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            filters[i] = BloomFilter.create(expectedInsertions / SHARDS, fpp);
+        }
+        return filters;
+    }
+
+    static int shard(MessageKey key) {
+        long h = connectionHash(key.connectionId());
+        return (int) ((h ^ (h >>> 32)) & (SHARDS - 1));
+    }
+
+    // FNV-1a
+    private static long connectionHash(String connectionId) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : connectionId.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // FNV-1a over the connection id, mixed with chat and message id (MurmurHash3 finalizer)
+    static long hash(MessageKey key) {
+        long h = connectionHash(key.connectionId());
+        h ^= key.chatId() * 0x9E3779B97F4A7C15L;
+        h = Long.rotateLeft(h, 31) ^ (key.messageId() * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public enum Lookup {
+        ABSENT,
+        MAYBE,
+        UNCHECKED
+    }
+}
@@ -0,0 +1,14 @@
+package com.spybot.service.ingest;
+
+public record MessageKey(String connectionId, Long chatId, Integer messageId) {
+
+    // Payload for cross-node invalidation; connection ids may contain ':', so they go last
+    String encode() {
+        return chatId + ":" + messageId + ":" + connectionId;
+    }
+
+    static MessageKey decode(String payload) {
+        String[] parts = payload.split(":", 3);
+        return new MessageKey(parts[2], Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    }
+}
@@ -0,0 +1,211 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.MessageStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Group commit: rows are buffered for max-delay-ms or batch-size rows and written in one transaction.
+// Each submitted row gets a future that completes once the batch containing it is committed.
+@Component
+@Slf4j
+public class MessageWriteBuffer {
+
+    private static final long AWAIT_TIMEOUT_SECONDS = 30;
+
+    private final MessageStorageService storageService;
+    private final RecentMessageCache recentMessageCache;
+    private final KnownMessageFilter knownMessageFilter;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite> queue;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter duplicateCounter;
+    private final Counter failedCounter;
+
+    // Newest unwritten row per chat; entries are removed once that row's batch is done
+    private final Map<ChatKey, CompletableFuture<Void>> lastSubmittedByChat = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private Thread flusher;
+
+    public MessageWriteBuffer(MessageStorageService storageService,
+                              RecentMessageCache recentMessageCache,
+                              KnownMessageFilter knownMessageFilter,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.ingest.batch-size:100}") int batchSize,
+                              @Value("${app.ingest.max-delay-ms:20}") long maxDelayMs,
+                              @Value("${app.ingest.queue-capacity:10000}") int queueCapacity) {
+        this.storageService = storageService;
+        this.recentMessageCache = recentMessageCache;
+        this.knownMessageFilter = knownMessageFilter;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.flushTimer = meterRegistry.timer("spybot.ingest.flush");
+        this.batchSizeSummary = meterRegistry.summary("spybot.ingest.batch.size");
+        this.duplicateCounter = meterRegistry.counter("spybot.ingest.duplicates");
+        this.failedCounter = meterRegistry.counter("spybot.ingest.failed");
+        Gauge.builder("spybot.ingest.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(this::runFlushLoop, "message-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("action=write_buffer_started, batch_size={}, max_delay_ms={}",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(maxDelayNanos));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(AWAIT_TIMEOUT_SECONDS));
+        log.info("action=write_buffer_stopped, pending={}", queue.size());
+    }
+
+    public CompletableFuture<Void> submit(StoredMessage message) {
+        PendingWrite write = new PendingWrite(message, new CompletableFuture<>());
+        ChatKey key = new ChatKey(message.getBusinessConnectionId(), message.getChatId());
+        try {
+            lastSubmittedByChat.put(key, write.durable());
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.durable().completeExceptionally(e);
+        }
+        write.durable().whenComplete((ignored, error) -> lastSubmittedByChat.remove(key, write.durable()));
+        return write.durable();
+    }
+
+    // Batches are written in submission order, so waiting for the chat's most recent row is enough;
+    // rows of other chats do not hold this caller up
+    public void awaitPending(String connectionId, Long chatId) {
+        CompletableFuture<Void> barrier = lastSubmittedByChat.get(new ChatKey(connectionId, chatId));
+        if (barrier == null || barrier.isDone()) {
+            return;
+        }
+        try {
+            barrier.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            log.warn("action=await_pending_timeout, chat_id={}, pending={}", chatId, queue.size());
+        } catch (Exception e) {
+            // Failed rows are reported to their own submitters
+        }
+    }
+
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    private void runFlushLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                log.error("action=write_buffer_loop_failed, error={}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<StoredMessage> messages = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            messages.add(write.message());
+        }
+
+        long started = System.nanoTime();
+        try {
+            int inserted = storageService.storeMessages(messages);
+            // Cached before the futures complete: edits wait for them and then expect a hit
+            recentMessageCache.putStored(messages);
+            knownMessageFilter.addStored(messages);
+            batch.forEach(write -> write.durable().complete(null));
+            flushTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+            duplicateCounter.increment(batch.size() - inserted);
+            log.debug("action=batch_flushed, size={}, duplicates={}, duration_ms={}",
+                    batch.size(), batch.size() - inserted,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (Exception e) {
+            log.warn("action=batch_flush_failed, size={}, error={}", batch.size(), e.getMessage());
+            flushIndividually(batch);
+        }
+    }
+
+    // Isolates a poison row so it does not fail the whole batch
+    private void flushIndividually(List<PendingWrite> batch) {
+        for (PendingWrite write : batch) {
+            StoredMessage message = write.message();
+            // The failed batch may have handed out an id before it rolled back
+            message.setId(null);
+            try {
+                storageService.storeMessages(List.of(message));
+                recentMessageCache.putStored(List.of(message));
+                knownMessageFilter.addStored(List.of(message));
+                write.durable().complete(null);
+            } catch (Exception e) {
+                log.error("action=message_store_failed, chat_id={}, message_id={}, error={}",
+                        message.getChatId(), message.getMessageId(), e.getMessage());
+                failedCounter.increment();
+                write.durable().completeExceptionally(e);
+            }
+        }
+    }
+
+    private record ChatKey(String connectionId, Long chatId) {
+    }
+
+    private record PendingWrite(StoredMessage message, CompletableFuture<Void> durable) {
+    }
+}
@@ -0,0 +1,40 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+
+import java.time.Instant;
+
+// What edit/delete handling needs from a stored message; text and caption stay encrypted
+public record RecentMessage(
+        Long id,
+        MessageKey key,
+        Instant messageDate,
+        Long fromUserId,
+        byte[] encryptedText,
+        byte[] encryptedCaption,
+        int editCount
+) {
+
+    public static RecentMessage of(StoredMessage message) {
+        return new RecentMessage(
+                message.getId(),
+                new MessageKey(message.getBusinessConnectionId(), message.getChatId(), message.getMessageId()),
+                message.getMessageDate(),
+                message.getFromUserId(),
+                message.getEncryptedText(),
+                message.getEncryptedCaption(),
+                message.getEditCount() != null ? message.getEditCount() : 0
+        );
+    }
+
+    public RecentMessage withContent(byte[] newEncryptedText, byte[] newEncryptedCaption) {
+        return new RecentMessage(id, key, messageDate, fromUserId, newEncryptedText, newEncryptedCaption, editCount + 1);
+    }
+
+    // Rough retained size, used as the cache weight
+    int weight() {
+        return 160 + key.connectionId().length() * 2
+                + (encryptedText != null ? encryptedText.length + 16 : 0)
+                + (encryptedCaption != null ? encryptedCaption.length + 16 : 0);
+    }
+}
@@ -0,0 +1,124 @@
+package com.spybot.service.ingest;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+// Recently stored messages, still encrypted, so edits and deletions of fresh messages are handled
+// without reading stored_messages. Filled by MessageWriteBuffer once a batch is committed and on
+// repository reads; bounded by approximate bytes and age. Changes are applied after commit and
+// other nodes drop their copy over LISTEN/NOTIFY.
+@Component
+@Slf4j
+public class RecentMessageCache {
+
+    static final String INVALIDATION_CHANNEL = "stored_message_changed";
+
+    private final PgNotificationListener notificationListener;
+    private final boolean enabled;
+    private final Cache<MessageKey, RecentMessage> cache;
+
+    public RecentMessageCache(PgNotificationListener notificationListener,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.recent-messages.enabled:true}") boolean enabled,
+                              @Value("${app.recent-messages.max-weight-bytes:67108864}") long maxWeightBytes,
+                              @Value("${app.recent-messages.expire-after-write-minutes:30}") long expireMinutes) {
+        this.notificationListener = notificationListener;
+        this.enabled = enabled;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumWeight(maxWeightBytes)
+                        .<MessageKey, RecentMessage>weigher((key, message) -> message.weight())
+                        .expireAfterWrite(Duration.ofMinutes(expireMinutes))
+                        .recordStats()
+                        .build(),
+                "recent_messages");
+        Gauge.builder("spybot.recent_messages.weight.bytes", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        notificationListener.subscribe(INVALIDATION_CHANNEL,
+                payload -> cache.invalidate(MessageKey.decode(payload)), cache::invalidateAll);
+    }
+
+    public Optional<RecentMessage> get(MessageKey key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    // Rows that were skipped as duplicates have no id and are not cached
+    public void putStored(List<StoredMessage> messages) {
+        if (!enabled) {
+            return;
+        }
+        for (StoredMessage message : messages) {
+            if (message.getId() != null) {
+                RecentMessage recent = RecentMessage.of(message);
+                cache.put(recent.key(), recent);
+            }
+        }
+    }
+
+    // Caches a row read from the repository
+    public RecentMessage warm(RecentMessage message) {
+        if (enabled) {
+            cache.put(message.key(), message);
+        }
+        return message;
+    }
+
+    // Must be called inside the transaction that updated the row
+    public void update(RecentMessage message) {
+        publishChange(message.key());
+        afterCommit(message.key(), () -> cache.put(message.key(), message));
+    }
+
+    // Must be called inside the transaction that marked the row deleted
+    public void remove(MessageKey key) {
+        publishChange(key);
+        afterCommit(key, () -> cache.invalidate(key));
+    }
+
+    private void publishChange(MessageKey key) {
+        if (enabled) {
+            notificationListener.publish(INVALIDATION_CHANNEL, key.encode());
+        }
+    }
+
+    private void afterCommit(MessageKey key, Runnable action) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        // Readers fall back to the database until the change is committed
+        cache.invalidate(key);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
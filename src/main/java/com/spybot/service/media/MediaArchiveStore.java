@@ -0,0 +1,163 @@
+package com.spybot.service.media;
+
+import com.spybot.service.encryption.EncryptionService;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Encrypted media files on local disk, one directory per message day (UTC), mirroring the daily
+// partitions: <dir>/20240131/<stored message id>.bin. Files are written to a .part file through
+// EncryptionService's chunked stream and renamed into place, so a crash never leaves a file that
+// looks complete. Day directories past retention are removed as a whole. Plaintext copies for
+// re-upload only live in <dir>/.upload while a send is in flight.
+@Component
+@Slf4j
+public class MediaArchiveStore {
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String UPLOAD_DIR = ".upload";
+
+    private final EncryptionService encryptionService;
+    private final Path root;
+    private final int retentionDays;
+
+    public MediaArchiveStore(EncryptionService encryptionService,
+                             @Value("${app.media-archive.dir:./data/media}") String dir,
+                             @Value("${app.retention.days:30}") int retentionDays) {
+        this.encryptionService = encryptionService;
+        this.root = Paths.get(dir).toAbsolutePath().normalize();
+        this.retentionDays = retentionDays;
+    }
+
+    // Plaintext left behind by a crash during an upload
+    @PostConstruct
+    public void init() {
+        Path uploads = root.resolve(UPLOAD_DIR);
+        if (Files.isDirectory(uploads)) {
+            try {
+                deleteTree(uploads);
+            } catch (IOException e) {
+                log.warn("action=media_upload_dir_cleanup_failed, error={}", e.getMessage());
+            }
+        }
+        log.info("action=media_archive_store_initialized, dir={}", root);
+    }
+
+    // Streams whatever the writer produces into an encrypted file; returns the path to record
+    public String write(Long storedMessageId, Instant messageDate, MediaWriter writer) throws IOException {
+        String relative = DAY_FORMAT.format(messageDate.atOffset(ZoneOffset.UTC)) + "/" + storedMessageId + ".bin";
+        Path target = resolve(relative);
+        Files.createDirectories(target.getParent());
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            try (OutputStream out = encryptionService.encryptingStream(Files.newOutputStream(part))) {
+                writer.writeTo(out);
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return relative;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+    }
+
+    // Plaintext copy for uploading; the caller deletes it. Empty if the file is not on this node.
+    public Optional<Path> decryptToTempFile(String relativePath) {
+        Path source = resolve(relativePath);
+        if (!Files.isRegularFile(source)) {
+            log.warn("action=media_archive_missing, path={}", relativePath);
+            return Optional.empty();
+        }
+        Path temp = null;
+        try {
+            Path uploads = Files.createDirectories(root.resolve(UPLOAD_DIR));
+            temp = Files.createTempFile(uploads, "media-", ".tmp");
+            try (InputStream in = encryptionService.decryptingStream(Files.newInputStream(source));
+                 OutputStream out = Files.newOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            return Optional.of(temp);
+        } catch (IOException e) {
+            log.error("action=media_archive_read_failed, path={}, error={}", relativePath, e.getMessage());
+            deleteQuietly(temp);
+            return Optional.empty();
+        }
+    }
+
+    public void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("action=media_temp_delete_failed, path={}, error={}", path, e.getMessage());
+        }
+    }
+
+    // One day of slack over retention: a day directory can hold messages from rows not purged yet
+    @Scheduled(cron = "${app.media-archive.cleanup-cron:0 30 3 * * ?}")
+    public void deleteExpired() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        LocalDate cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays + 1L);
+        int removed = 0;
+        try (DirectoryStream<Path> days = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path day : days) {
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(day.getFileName().toString(), DAY_FORMAT);
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                if (date.isBefore(cutoff)) {
+                    deleteTree(day);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("action=media_archive_cleanup, status=failed, error={}", e.getMessage());
+            return;
+        }
+        log.info("action=media_archive_cleanup, removed_days={}, retention_days={}", removed, retentionDays);
+    }
+
+    private Path resolve(String relativePath) {
+        Path path = root.resolve(relativePath).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Media path escapes the archive directory: " + relativePath);
+        }
+        return path;
+    }
+
+    private void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+        }
+    }
+
+    @FunctionalInterface
+    public interface MediaWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
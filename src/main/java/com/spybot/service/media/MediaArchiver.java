@@ -0,0 +1,245 @@
+package com.spybot.service.media;
+
+import com.pengrad.telegrambot.model.File;
+import com.pengrad.telegrambot.response.GetFileResponse;
+import com.spybot.config.ExecutionMode;
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.repository.StoredMessageRepository;
+import com.spybot.service.telegram.TelegramBotService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Copies media out of Telegram while the file id still works: claims stored_messages rows that have
+// a media_file_id but no archive copy (FOR UPDATE SKIP LOCKED plus a lease, like the outbox), resolves
+// them with getFile and streams each download through MediaArchiveStore into an encrypted file.
+// At most `concurrency` downloads run at once and each is capped at maxFileBytes, the Bot API
+// download limit, so memory use does not depend on file size. Failed rows are retried after the
+// lease expires, up to maxAttempts.
+@Component
+@Slf4j
+public class MediaArchiver {
+
+    private final StoredMessageRepository messageRepository;
+    private final MediaArchiveStore archiveStore;
+    private final TelegramBotService botService;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService downloads;
+    private final Semaphore slots;
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final Timer archivedTimer;
+    private final Timer skippedTimer;
+    private final Timer failedTimer;
+    private final Counter bytesCounter;
+
+    @Value("${app.media-archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.media-archive.max-file-bytes:20971520}")
+    private long maxFileBytes;
+
+    @Value("${app.media-archive.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.media-archive.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${app.media-archive.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    // Media older than this when first seen (e.g. the backlog before archiving was enabled) is left as is
+    @Value("${app.media-archive.lookback-hours:24}")
+    private long lookbackHours;
+
+    private volatile boolean running;
+    private Thread claimThread;
+
+    public MediaArchiver(StoredMessageRepository messageRepository,
+                         MediaArchiveStore archiveStore,
+                         TelegramBotService botService,
+                         TransactionTemplate transactionTemplate,
+                         MeterRegistry meterRegistry,
+                         @Value("${app.media-archive.concurrency:4}") int concurrency,
+                         @Value("${app.execution.mode:PLATFORM}") ExecutionMode executionMode) {
+        this.messageRepository = messageRepository;
+        this.archiveStore = archiveStore;
+        this.botService = botService;
+        this.transactionTemplate = transactionTemplate;
+        this.slots = new Semaphore(concurrency);
+        this.downloads = executionMode == ExecutionMode.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("media-archive-", 1).factory())
+                : Executors.newFixedThreadPool(concurrency, Thread.ofPlatform().name("media-archive-", 1).daemon().factory());
+
+        this.archivedTimer = meterRegistry.timer("spybot.media.archive", "outcome", "archived");
+        this.skippedTimer = meterRegistry.timer("spybot.media.archive", "outcome", "skipped");
+        this.failedTimer = meterRegistry.timer("spybot.media.archive", "outcome", "failed");
+        this.bytesCounter = meterRegistry.counter("spybot.media.archive.bytes");
+        Gauge.builder("spybot.media.archive.active", active, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("spybot.media.archive.slots.free", slots, Semaphore::availablePermits).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("action=media_archiver_disabled");
+            return;
+        }
+        running = true;
+        claimThread = new Thread(this::runClaimLoop, "media-archive-claim");
+        claimThread.setDaemon(true);
+        claimThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (claimThread != null) {
+            claimThread.interrupt();
+            claimThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        // Interrupted downloads leave no file behind and are claimed again after the lease
+        downloads.shutdownNow();
+    }
+
+    // Called once a message with media is durably stored, so it is archived without waiting for the poll
+    public void wakeUp() {
+        wakeUp.release();
+    }
+
+    private void runClaimLoop() {
+        while (running) {
+            try {
+                wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+                int claimed;
+                do {
+                    claimed = claimBatch();
+                } while (running && claimed > 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("action=media_archive_claim_failed, error={}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // Claims as many rows as there are free slots, waiting for at least one slot first
+    private int claimBatch() throws InterruptedException {
+        slots.acquire();
+        int permits = 1 + slots.drainPermits();
+        Instant now = Instant.now();
+        List<StoredMessage> messages = transactionTemplate.execute(status -> {
+            List<Long> ids = messageRepository.lockArchivableIds(now.minus(Duration.ofHours(lookbackHours)), now,
+                    maxAttempts, permits);
+            if (ids.isEmpty()) {
+                return List.<StoredMessage>of();
+            }
+            messageRepository.claimForArchive(ids, now.plus(Duration.ofSeconds(leaseSeconds)));
+            return messageRepository.findAllById(ids);
+        });
+        int claimed = messages == null ? 0 : messages.size();
+        slots.release(permits - claimed);
+        if (claimed > 0) {
+            messages.forEach(message -> downloads.execute(() -> archive(message)));
+            log.debug("action=media_archive_claimed, messages={}", claimed);
+        }
+        return claimed;
+    }
+
+    private void archive(StoredMessage message) {
+        long started = System.nanoTime();
+        active.incrementAndGet();
+        Timer outcome = failedTimer;
+        try {
+            outcome = download(message);
+        } catch (Exception e) {
+            log.warn("action=media_archive_failed, stored_message_id={}, media_type={}, error={}",
+                    message.getId(), message.getMediaType(), e.getMessage());
+        } finally {
+            outcome.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            active.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    private Timer download(StoredMessage message) throws IOException {
+        GetFileResponse response = botService.getFile(message.getMediaFileId());
+        File file = response.isOk() ? response.file() : null;
+        if (file == null) {
+            // 400 means Telegram will not serve this file (e.g. over the download limit); retrying will not help
+            if (response.errorCode() == 400) {
+                return skip(message, response.description());
+            }
+            throw new IOException("getFile failed: " + response.errorCode() + " " + response.description());
+        }
+        if (file.fileSize() != null && file.fileSize() > maxFileBytes) {
+            return skip(message, "file_too_large");
+        }
+
+        long[] size = new long[1];
+        String path = archiveStore.write(message.getId(), message.getMessageDate(),
+                out -> size[0] = botService.downloadFile(file, new LimitedOutputStream(out, maxFileBytes)));
+        transactionTemplate.executeWithoutResult(status ->
+                messageRepository.markMediaArchived(message.getId(), message.getMessageDate(), path));
+        bytesCounter.increment(size[0]);
+        log.info("action=media_archived, stored_message_id={}, media_type={}, bytes={}",
+                message.getId(), message.getMediaType(), size[0]);
+        return archivedTimer;
+    }
+
+    private Timer skip(StoredMessage message, String reason) {
+        transactionTemplate.executeWithoutResult(status ->
+                messageRepository.skipMediaArchive(message.getId(), message.getMessageDate(), maxAttempts));
+        log.info("action=media_archive_skipped, stored_message_id={}, reason={}", message.getId(), reason);
+        return skippedTimer;
+    }
+
+    // getFile does not always report a size; the limit is enforced on the stream as well
+    private static final class LimitedOutputStream extends FilterOutputStream {
+
+        private final long limit;
+        private long written;
+
+        LimitedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written += len;
+            if (written > limit) {
+                throw new IOException("Media exceeds " + limit + " bytes");
+            }
+            out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.spybot.service.outbox;
+
+import com.spybot.domain.entity.MessageEvent;
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.domain.enums.EventType;
+import com.spybot.repository.MessageEventRepository;
+import com.spybot.service.history.EditHistoryService;
+import com.spybot.service.history.EditedContent;
+import com.spybot.service.telegram.NotificationService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Transactional outbox over message_events: handlers only record events, this dispatcher claims
+// unnotified ones with FOR UPDATE SKIP LOCKED plus a lease (safe with several nodes), sends them
+// and marks delivered events in bulk. Undelivered events are picked up again once the lease expires;
+// the lease of events still waiting in the send queue is renewed, so a long queue does not cause
+// duplicate notifications. Events that ran out of attempts are marked failed (notify_failed_at).
+@Component
+@Slf4j
+public class NotificationOutbox {
+
+    // The undelivered count is a bounded scan of idx_message_event_unnotified, refreshed at most once a second
+    private static final int BACKLOG_COUNT_LIMIT = 100_000;
+    private static final long BACKLOG_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MessageEventRepository eventRepository;
+    private final NotificationService notificationService;
+    private final EditHistoryService editHistoryService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Semaphore wakeUp = new Semaphore(0);
+    // Events are tracked by id and event_time, so every update on them prunes to their partitions
+    private final Queue<ClaimedEvent> delivered = new ConcurrentLinkedQueue<>();
+    private final Set<ClaimedEvent> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${app.outbox.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${app.outbox.lease-seconds:120}")
+    private long leaseSeconds;
+
+    @Value("${app.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    // Deletions arriving within this window are merged into one digest
+    @Value("${app.notifications.digest-window-ms:1500}")
+    private long digestWindowMs;
+
+    @Value("${app.notifications.digest-per-user:false}")
+    private boolean digestPerUser;
+
+    private volatile boolean running;
+    private Thread dispatcherThread;
+    private long nextLeaseCheckNanos;
+    private long nextBacklogRefreshNanos;
+    private volatile long undeliveredEvents;
+
+    public NotificationOutbox(MessageEventRepository eventRepository,
+                              NotificationService notificationService,
+                              EditHistoryService editHistoryService,
+                              TransactionTemplate transactionTemplate) {
+        this.eventRepository = eventRepository;
+        this.notificationService = notificationService;
+        this.editHistoryService = editHistoryService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        nextLeaseCheckNanos = System.nanoTime();
+        nextBacklogRefreshNanos = nextLeaseCheckNanos;
+        dispatcherThread = new Thread(this::runDispatchLoop, "notification-outbox");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        wakeUp.release();
+        if (dispatcherThread != null) {
+            dispatcherThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        markDelivered();
+    }
+
+    public void wakeUpAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp.release();
+                }
+            });
+        } else {
+            wakeUp.release();
+        }
+    }
+
+    private void runDispatchLoop() {
+        while (running) {
+            try {
+                boolean woken = wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                if (woken && digestWindowMs > 0) {
+                    Thread.sleep(digestWindowMs);
+                }
+                wakeUp.drainPermits();
+
+                markDelivered();
+                maintainLeases();
+                refreshBacklog();
+                while (running && dispatchBatch() == batchSize) {
+                    markDelivered();
+                    maintainLeases();
+                    refreshBacklog();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("action=outbox_dispatch_failed, error={}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // Events not handed to the send queue yet, across all nodes; the ones this node has in flight
+    // are already counted by OutboundSendScheduler as queued sends
+    public int pendingEvents() {
+        return (int) Math.max(0, undeliveredEvents - inFlight.size());
+    }
+
+    private void refreshBacklog() {
+        long nowNanos = System.nanoTime();
+        if (nowNanos - nextBacklogRefreshNanos < 0) {
+            return;
+        }
+        nextBacklogRefreshNanos = nowNanos + BACKLOG_REFRESH_NANOS;
+        undeliveredEvents = eventRepository.countUndelivered(BACKLOG_COUNT_LIMIT);
+    }
+
+    private int dispatchBatch() {
+        Instant now = Instant.now();
+        List<MessageEvent> events = transactionTemplate.execute(status -> {
+            List<ClaimedEvent> claimed = eventRepository.lockClaimableKeys(now, maxAttempts, batchSize).stream()
+                    .map(key -> new ClaimedEvent(key.getId(), key.getEventTime()))
+                    .toList();
+            if (claimed.isEmpty()) {
+                return List.<MessageEvent>of();
+            }
+            eventRepository.claim(ids(claimed), eventTimes(claimed), now.plus(Duration.ofSeconds(leaseSeconds)));
+            return eventRepository.findWithMessageByIdIn(ids(claimed), eventTimes(claimed));
+        });
+        if (events == null || events.isEmpty()) {
+            return 0;
+        }
+
+        Map<DigestKey, List<MessageEvent>> deletions = new LinkedHashMap<>();
+        List<ClaimedEvent> orphaned = new ArrayList<>();
+        for (MessageEvent event : events) {
+            StoredMessage storedMessage = event.getStoredMessage();
+            if (storedMessage == null) {
+                orphaned.add(ClaimedEvent.of(event));
+            } else if (event.getEventType() == EventType.MESSAGE_EDITED) {
+                EditedContent content = editHistoryService.resolve(event);
+                track(List.of(event), notificationService.notifyMessageEdited(
+                        storedMessage.getBusinessConnectionId(),
+                        storedMessage,
+                        content.oldText(),
+                        content.newText(),
+                        content.oldCaption(),
+                        content.newCaption()));
+            } else {
+                DigestKey key = new DigestKey(storedMessage.getBusinessConnectionId(),
+                        digestPerUser ? null : storedMessage.getChatId());
+                deletions.computeIfAbsent(key, k -> new ArrayList<>()).add(event);
+            }
+        }
+
+        deletions.forEach((key, group) -> {
+            List<StoredMessage> storedMessages = new ArrayList<>(group.size());
+            group.forEach(event -> storedMessages.add(event.getStoredMessage()));
+            storedMessages.sort(Comparator.comparing(StoredMessage::getChatId)
+                    .thenComparing(StoredMessage::getMessageId));
+            track(group, notificationService.notifyMessagesDeleted(key.connectionId(), storedMessages));
+        });
+
+        if (!orphaned.isEmpty()) {
+            // The message was purged before it could be reported; there is nothing left to send
+            transactionTemplate.executeWithoutResult(status -> eventRepository.markAllAsFailed(ids(orphaned), eventTimes(orphaned), Instant.now()));
+            log.warn("action=outbox_events_orphaned, events={}", orphaned.size());
+        }
+
+        log.debug("action=outbox_batch_dispatched, events={}, digests={}", events.size(), deletions.size());
+        return events.size();
+    }
+
+    private void track(List<MessageEvent> events, CompletableFuture<Boolean> result) {
+        List<ClaimedEvent> claimed = events.stream().map(ClaimedEvent::of).toList();
+        inFlight.addAll(claimed);
+        result.whenComplete((sent, error) -> {
+            claimed.forEach(inFlight::remove);
+            if (error == null && Boolean.TRUE.equals(sent)) {
+                delivered.addAll(claimed);
+            } else {
+                log.warn("action=outbox_delivery_failed, events={}, error={}",
+                        events.size(), error != null ? error.getMessage() : "not_delivered");
+            }
+        });
+    }
+
+    // Runs a few times per lease: extends the claim of events still queued for sending and
+    // dead-letters events whose last attempt has expired
+    private void maintainLeases() {
+        long nowNanos = System.nanoTime();
+        if (nowNanos - nextLeaseCheckNanos < 0) {
+            return;
+        }
+        nextLeaseCheckNanos = nowNanos + TimeUnit.SECONDS.toNanos(leaseSeconds) / 3;
+
+        Instant now = Instant.now();
+        List<ClaimedEvent> pending = new ArrayList<>(inFlight);
+        if (!pending.isEmpty()) {
+            Integer renewed = transactionTemplate.execute(status -> eventRepository.renewClaim(
+                    ids(pending), eventTimes(pending), now.plus(Duration.ofSeconds(leaseSeconds))));
+            log.debug("action=outbox_leases_renewed, events={}", renewed);
+        }
+        Integer failed = transactionTemplate.execute(status -> eventRepository.markExhaustedAsFailed(now, maxAttempts));
+        if (failed != null && failed > 0) {
+            log.warn("action=outbox_events_failed, events={}, max_attempts={}", failed, maxAttempts);
+        }
+    }
+
+    private void markDelivered() {
+        List<ClaimedEvent> events = new ArrayList<>();
+        ClaimedEvent event;
+        while ((event = delivered.poll()) != null) {
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status ->
+                eventRepository.markAllAsNotified(ids(events), eventTimes(events), Instant.now()));
+        log.debug("action=outbox_marked_notified, events={}", events.size());
+    }
+
+    private static List<Long> ids(List<ClaimedEvent> events) {
+        return events.stream().map(ClaimedEvent::id).toList();
+    }
+
+    private static List<Instant> eventTimes(List<ClaimedEvent> events) {
+        return events.stream().map(ClaimedEvent::eventTime).distinct().toList();
+    }
+
+    private record DigestKey(String connectionId, Long chatId) {
+    }
+
+    private record ClaimedEvent(Long id, Instant eventTime) {
+
+        static ClaimedEvent of(MessageEvent event) {
+            return new ClaimedEvent(event.getId(), event.getEventTime());
+        }
+    }
+}
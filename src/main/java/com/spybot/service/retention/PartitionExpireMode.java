@@ -0,0 +1,6 @@
+package com.spybot.service.retention;
+
+public enum PartitionExpireMode {
+    DROP,
+    DETACH
+}
@@ -0,0 +1,254 @@
+package com.spybot.service.retention;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Keeps the daily partitions of stored_messages and message_events (see V8) in shape: creates
+// partitions premakeDays ahead and expires partitions whose upper bound is past retention with a
+// DROP (or DETACH, to archive them elsewhere) instead of row deletes. Rows that already went to the
+// default partition for a day being created are moved into the new partition. Runs on one node at a time.
+@Component
+@Slf4j
+public class PartitionMaintenanceJob {
+
+    private static final long ADVISORY_LOCK_KEY = "spybot.partition_maintenance".hashCode();
+    private static final List<String> TABLES = List.of("stored_messages", "message_events");
+    private static final Map<String, String> PARTITION_KEYS = Map.of(
+            "stored_messages", "message_date",
+            "message_events", "event_time");
+    // Raised by CREATE ... PARTITION OF when the default partition already holds rows for the new range
+    private static final String CHECK_VIOLATION = "23514";
+
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSSSSS]X");
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String PARTITIONS_SQL = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid)
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = ?::regclass
+            """;
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final int retentionDays;
+    private final int premakeDays;
+    private final PartitionExpireMode expireMode;
+
+    private final Counter createdCounter;
+    private final Counter expiredCounter;
+
+    public PartitionMaintenanceJob(DataSource dataSource,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${app.partitions.enabled:true}") boolean enabled,
+                                   @Value("${app.retention.days:30}") int retentionDays,
+                                   @Value("${app.partitions.premake-days:7}") int premakeDays,
+                                   @Value("${app.partitions.expire-mode:DROP}") PartitionExpireMode expireMode) {
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+        this.retentionDays = retentionDays;
+        this.premakeDays = premakeDays;
+        this.expireMode = expireMode;
+        this.createdCounter = meterRegistry.counter("spybot.partitions.created");
+        this.expiredCounter = meterRegistry.counter("spybot.partitions.expired");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintain();
+    }
+
+    @Scheduled(cron = "${app.partitions.cron:0 15 0 * * ?}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            if (!tryAdvisoryLock(connection)) {
+                log.debug("action=partition_maintenance_skipped, reason=locked_by_other_node");
+                return;
+            }
+            try (Statement statement = connection.createStatement()) {
+                // Bounds are read back as text; render them in UTC so they parse the same on every server
+                statement.execute("SET TimeZone = 'UTC'");
+            }
+            try {
+                for (String table : TABLES) {
+                    maintainTable(connection, table);
+                }
+            } finally {
+                unlockAdvisoryLock(connection);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("RESET TimeZone");
+                }
+            }
+        } catch (Exception e) {
+            log.error("action=partition_maintenance, status=failed, error={}", e.getMessage());
+        }
+    }
+
+    private void maintainTable(Connection connection, String table) throws SQLException {
+        List<Partition> partitions = loadPartitions(connection, table);
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        // Create [coveredUntil, today + premakeDays]; a gap before today is left to the default partition
+        LocalDate coveredUntil = partitions.stream()
+                .filter(p -> p.upperBound() != null)
+                .map(p -> LocalDate.ofInstant(p.upperBound(), ZoneOffset.UTC))
+                .max(LocalDate::compareTo)
+                .orElse(today);
+        LocalDate day = coveredUntil.isBefore(today) ? today : coveredUntil;
+        for (; !day.isAfter(today.plusDays(premakeDays)); day = day.plusDays(1)) {
+            createPartition(connection, table, day);
+        }
+
+        Instant cutoff = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        for (Partition partition : partitions) {
+            if (partition.upperBound() != null && !partition.upperBound().isAfter(cutoff)) {
+                expirePartition(connection, table, partition.name());
+            }
+        }
+
+        warnIfDefaultNotEmpty(connection, table);
+    }
+
+    private List<Partition> loadPartitions(Connection connection, String table) throws SQLException {
+        List<Partition> partitions = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(PARTITIONS_SQL)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    partitions.add(new Partition(rs.getString(1), parseUpperBound(rs.getString(2))));
+                }
+            }
+        }
+        return partitions;
+    }
+
+    // "FOR VALUES FROM (...) TO ('2026-10-19 00:00:00+00')"; null for DEFAULT and MAXVALUE
+    private static Instant parseUpperBound(String boundExpression) {
+        if (boundExpression == null) {
+            return null;
+        }
+        Matcher matcher = UPPER_BOUND.matcher(boundExpression);
+        if (!matcher.find()) {
+            return null;
+        }
+        return OffsetDateTime.parse(matcher.group(1), BOUND_FORMAT).toInstant();
+    }
+
+    private void createPartition(Connection connection, String table, LocalDate day) {
+        String name = table + "_p" + day.format(SUFFIX_FORMAT);
+        String bounds = "FOR VALUES FROM ('" + day + " 00:00:00+00') TO ('" + day.plusDays(1) + " 00:00:00+00')";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + table + " " + bounds);
+            if (statement.getWarnings() == null) {
+                createdCounter.increment();
+                log.info("action=partition_created, table={}, partition={}", table, name);
+            }
+        } catch (SQLException e) {
+            if (!CHECK_VIOLATION.equals(e.getSQLState())) {
+                log.error("action=partition_create, status=failed, partition={}, error={}", name, e.getMessage());
+                return;
+            }
+            // Rows for that day already landed in the default partition
+            createFromDefault(connection, table, name, day, bounds);
+        }
+    }
+
+    // Moves the day's rows out of the default partition into a standalone table and attaches that, all in
+    // one transaction; the default partition is locked meanwhile, so no new row for the day can slip in
+    private void createFromDefault(Connection connection, String table, String name, LocalDate day, String bounds) {
+        String key = PARTITION_KEYS.get(table);
+        try (Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            try {
+                statement.execute("LOCK TABLE " + table + "_default IN ACCESS EXCLUSIVE MODE");
+                statement.execute("CREATE TABLE " + name + " (LIKE " + table + " INCLUDING DEFAULTS)");
+                int moved = statement.executeUpdate("WITH moved AS (DELETE FROM " + table + "_default WHERE "
+                        + key + " >= '" + day + " 00:00:00+00' AND " + key + " < '" + day.plusDays(1)
+                        + " 00:00:00+00' RETURNING *) INSERT INTO " + name + " SELECT * FROM moved");
+                statement.execute("ALTER TABLE " + table + " ATTACH PARTITION " + name + " " + bounds);
+                connection.commit();
+                createdCounter.increment();
+                log.info("action=partition_created, table={}, partition={}, moved_from_default={}", table, name, moved);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.error("action=partition_create, status=failed, partition={}, error={}", name, e.getMessage());
+        }
+    }
+
+    private void expirePartition(Connection connection, String table, String name) {
+        String sql = expireMode == PartitionExpireMode.DETACH
+                ? "ALTER TABLE " + table + " DETACH PARTITION " + name
+                : "DROP TABLE " + name;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            expiredCounter.increment();
+            log.info("action=partition_expired, table={}, partition={}, mode={}", table, name, expireMode);
+        } catch (SQLException e) {
+            log.error("action=partition_expire, status=failed, partition={}, error={}", name, e.getMessage());
+        }
+    }
+
+    private void warnIfDefaultNotEmpty(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT EXISTS (SELECT 1 FROM " + table + "_default)")) {
+            if (rs.next() && rs.getBoolean(1)) {
+                log.warn("action=partition_default_not_empty, table={}", table);
+            }
+        }
+    }
+
+    private boolean tryAdvisoryLock(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private void unlockAdvisoryLock(Connection connection) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            ps.execute();
+        } catch (SQLException e) {
+            log.warn("action=partition_unlock_failed, error={}", e.getMessage());
+        }
+    }
+
+    private record Partition(String name, Instant upperBound) {
+    }
+}
@@ -0,0 +1,242 @@
+package com.spybot.service.retention;
+
+import com.spybot.domain.entity.BotState;
+import com.spybot.repository.BotStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Row-level retention purge in keyset-ordered chunks. Whole days are expired by PartitionMaintenanceJob;
+// this trims what is left in partitions straddling the cutoff, including the legacy ones. Rows are
+// walked by the partition key (message_date / event_time) plus id, the same key the partitions are
+// dropped by, so only partitions below the cutoff are touched and id order does not matter.
+// Each chunk is one autocommit DELETE, so locks and WAL are bounded by the chunk size; a rows/sec
+// throttle keeps it from competing with live traffic. The (time, id) cursor is persisted in bot_state
+// after every chunk, so a crashed purge resumes where it stopped. A session-level advisory lock makes
+// sure only one node purges at a time.
+@Component
+@Slf4j
+public class RetentionPurgeJob {
+
+    private static final long ADVISORY_LOCK_KEY = "spybot.retention_purge".hashCode();
+    private static final PurgeTarget EVENTS = new PurgeTarget("message_events", "event_time",
+            "retention.message_events.cursor.time", "retention.message_events.cursor.id");
+    private static final PurgeTarget MESSAGES = new PurgeTarget("stored_messages", "message_date",
+            "retention.stored_messages.cursor.time", "retention.stored_messages.cursor.id");
+
+    // The plain range on the time column lets the planner use an index on it alone (idx_message_event_time)
+    private static final String DELETE_CHUNK_SQL = """
+            WITH chunk AS (
+                SELECT id, %2$s AS key_time FROM %1$s
+                WHERE %2$s < ? AND %2$s >= ? AND (%2$s, id) > (?, ?)
+                ORDER BY %2$s, id
+                LIMIT ?
+            )
+            DELETE FROM %1$s t USING chunk WHERE t.id = chunk.id AND t.%2$s = chunk.key_time
+            RETURNING t.%2$s, t.id
+            """;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final BotStateRepository stateRepository;
+    private final int retentionDays;
+    private final int chunkSize;
+    private final int maxRowsPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong lastRunRows = new AtomicLong();
+    private final Counter eventsDeletedCounter;
+    private final Counter messagesDeletedCounter;
+    private final Timer chunkTimer;
+
+    private volatile Thread purgeThread;
+
+    public RetentionPurgeJob(DataSource dataSource,
+                             JdbcTemplate jdbcTemplate,
+                             BotStateRepository stateRepository,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.retention.days:30}") int retentionDays,
+                             @Value("${app.retention.chunk-size:5000}") int chunkSize,
+                             @Value("${app.retention.max-rows-per-second:20000}") int maxRowsPerSecond) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stateRepository = stateRepository;
+        this.retentionDays = retentionDays;
+        this.chunkSize = chunkSize;
+        this.maxRowsPerSecond = maxRowsPerSecond;
+
+        this.eventsDeletedCounter = meterRegistry.counter("spybot.retention.deleted", "table", "message_events");
+        this.messagesDeletedCounter = meterRegistry.counter("spybot.retention.deleted", "table", "stored_messages");
+        this.chunkTimer = meterRegistry.timer("spybot.retention.chunk");
+        Gauge.builder("spybot.retention.running", running, r -> r.get() ? 1 : 0).register(meterRegistry);
+        Gauge.builder("spybot.retention.last.run.rows", lastRunRows, AtomicLong::get).register(meterRegistry);
+    }
+
+    // Only kicks off the purge; the work runs on its own thread so the shared scheduler is not blocked
+    @Scheduled(cron = "${app.retention.cron:0 0 3 * * ?}")
+    public void schedulePurge() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("action=retention_purge_skipped, reason=already_running");
+            return;
+        }
+        Thread thread = new Thread(this::runGuarded, "retention-purge");
+        thread.setDaemon(true);
+        purgeThread = thread;
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread thread = purgeThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void runGuarded() {
+        try (Connection lockConnection = dataSource.getConnection()) {
+            if (!tryAdvisoryLock(lockConnection)) {
+                log.info("action=retention_purge_skipped, reason=locked_by_other_node");
+                return;
+            }
+            try {
+                purge();
+            } finally {
+                unlockAdvisoryLock(lockConnection);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("action=retention_purge_interrupted");
+        } catch (Exception e) {
+            log.error("action=retention_purge, status=failed, error={}", e.getMessage());
+        } finally {
+            purgeThread = null;
+            running.set(false);
+        }
+    }
+
+    private void purge() throws InterruptedException {
+        Instant cutoffDate = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        Timestamp cutoff = Timestamp.from(cutoffDate);
+        long started = System.nanoTime();
+
+        // Events first (there is no cascade on partitioned tables); events of later edits may still
+        // outlive their message by a few days, NotificationOutbox and the history reads cope with that
+        long deletedEvents = purgeTable(EVENTS, cutoff, eventsDeletedCounter);
+        long deletedMessages = purgeTable(MESSAGES, cutoff, messagesDeletedCounter);
+        lastRunRows.set(deletedEvents + deletedMessages);
+
+        log.info("action=cleanup_completed, deleted_events={}, deleted_messages={}, retention_days={}, duration_ms={}",
+                deletedEvents, deletedMessages, retentionDays, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private long purgeTable(PurgeTarget target, Timestamp cutoff, Counter deletedCounter) throws InterruptedException {
+        String deleteSql = DELETE_CHUNK_SQL.formatted(target.table(), target.timeColumn());
+        Cursor cursor = loadCursor(target, cutoff);
+        if (cursor.id() > 0) {
+            log.info("action=retention_purge_resumed, table={}, cursor_time={}, cursor_id={}",
+                    target.table(), cursor.time().toInstant(), cursor.id());
+        }
+
+        long deleted = 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            long chunkStarted = System.nanoTime();
+            List<Cursor> rows = jdbcTemplate.query(deleteSql,
+                    (rs, rowNum) -> new Cursor(rs.getTimestamp(1), rs.getLong(2)),
+                    cutoff, cursor.time(), cursor.time(), cursor.id(), chunkSize);
+            chunkTimer.record(System.nanoTime() - chunkStarted, TimeUnit.NANOSECONDS);
+            if (rows.isEmpty()) {
+                break;
+            }
+            // RETURNING does not keep the chunk order
+            cursor = rows.stream().max(Cursor.ORDER).orElse(cursor);
+            deleted += rows.size();
+            deletedCounter.increment(rows.size());
+            saveCursor(target, cursor);
+            throttle(rows.size(), System.nanoTime() - chunkStarted);
+        }
+
+        // Pass finished: next run starts from the beginning of the table again
+        saveCursor(target, Cursor.START);
+        return deleted;
+    }
+
+    // A saved cursor past the cutoff belongs to a run with a longer retention and is not reused
+    private Cursor loadCursor(PurgeTarget target, Timestamp cutoff) {
+        Long micros = stateRepository.findById(target.timeCursorKey()).map(BotState::getStateValue).orElse(null);
+        Long id = stateRepository.findById(target.idCursorKey()).map(BotState::getStateValue).orElse(null);
+        if (micros == null || id == null) {
+            return Cursor.START;
+        }
+        Timestamp time = Timestamp.from(Instant.EPOCH.plus(micros, ChronoUnit.MICROS));
+        return time.before(cutoff) ? new Cursor(time, id) : Cursor.START;
+    }
+
+    private void saveCursor(PurgeTarget target, Cursor cursor) {
+        stateRepository.upsert(target.timeCursorKey(), ChronoUnit.MICROS.between(Instant.EPOCH, cursor.time().toInstant()));
+        stateRepository.upsert(target.idCursorKey(), cursor.id());
+    }
+
+    private void throttle(int rows, long elapsedNanos) throws InterruptedException {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        long budgetNanos = rows * 1_000_000_000L / maxRowsPerSecond;
+        long sleepNanos = budgetNanos - elapsedNanos;
+        if (sleepNanos > 0) {
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+        }
+    }
+
+    private boolean tryAdvisoryLock(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private void unlockAdvisoryLock(Connection connection) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            ps.setLong(1, ADVISORY_LOCK_KEY);
+            ps.execute();
+        } catch (SQLException e) {
+            // The lock is released with the session anyway
+            log.warn("action=retention_unlock_failed, error={}", e.getMessage());
+        }
+    }
+
+    private record PurgeTarget(String table, String timeColumn, String timeCursorKey, String idCursorKey) {
+    }
+
+    private record Cursor(Timestamp time, long id) {
+
+        static final Cursor START = new Cursor(Timestamp.from(Instant.EPOCH), 0);
+        static final Comparator<Cursor> ORDER = Comparator.comparing(Cursor::time).thenComparingLong(Cursor::id);
+    }
+}
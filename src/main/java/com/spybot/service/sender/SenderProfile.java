@@ -0,0 +1,20 @@
+package com.spybot.service.sender;
+
+import com.pengrad.telegrambot.model.User;
+import com.spybot.domain.entity.Sender;
+
+public record SenderProfile(
+        Long userId,
+        String username,
+        String firstName,
+        String lastName
+) {
+
+    public static SenderProfile of(Sender sender) {
+        return new SenderProfile(sender.getUserId(), sender.getUsername(), sender.getFirstName(), sender.getLastName());
+    }
+
+    public static SenderProfile of(User user) {
+        return new SenderProfile(user.id(), user.username(), user.firstName(), user.lastName());
+    }
+}
@@ -0,0 +1,119 @@
+package com.spybot.service.sender;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.spybot.domain.entity.Sender;
+import com.spybot.repository.SenderRepository;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Sender profiles keyed by Telegram user id. Ingestion reports every sender through observe(),
+// which only writes when the profile differs from the cached one; notification rendering reads
+// the cache. Changes made on other nodes invalidate the entry over LISTEN/NOTIFY.
+@Component
+@Slf4j
+public class SenderProfileCache {
+
+    static final String INVALIDATION_CHANNEL = "sender_changed";
+
+    private final SenderRepository senderRepository;
+    private final PgNotificationListener notificationListener;
+    private final Cache<Long, Optional<SenderProfile>> cache;
+
+    public SenderProfileCache(SenderRepository senderRepository,
+                              PgNotificationListener notificationListener,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.sender-cache.max-size:100000}") long maxSize,
+                              @Value("${app.sender-cache.expire-after-access-minutes:1440}") long expireMinutes) {
+        this.senderRepository = senderRepository;
+        this.notificationListener = notificationListener;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                        .recordStats()
+                        .<Long, Optional<SenderProfile>>build(),
+                "senders");
+    }
+
+    @PostConstruct
+    public void init() {
+        notificationListener.subscribe(INVALIDATION_CHANNEL, this::onRemoteChange, cache::invalidateAll);
+    }
+
+    public Optional<SenderProfile> get(Long userId) {
+        return cache.get(userId, id -> senderRepository.findById(id).map(SenderProfile::of));
+    }
+
+    // One query for every sender not cached yet, e.g. before rendering a deletion digest
+    public Map<Long, Optional<SenderProfile>> getAll(Collection<Long> userIds) {
+        return cache.getAll(userIds, missing -> {
+            Map<Long, Optional<SenderProfile>> loaded = new HashMap<>();
+            missing.forEach(id -> loaded.put(id, Optional.empty()));
+            for (Sender sender : senderRepository.findAllById(missing)) {
+                loaded.put(sender.getUserId(), Optional.of(SenderProfile.of(sender)));
+            }
+            return loaded;
+        });
+    }
+
+    // Called for every ingested message; the database is only touched when the profile is new or changed.
+    // Inside a caller's transaction the profile is cached only once it commits; the NOTIFY joins that
+    // transaction, so Postgres also delivers it on commit and drops it on rollback.
+    public void observe(SenderProfile profile) {
+        Optional<SenderProfile> cached = cache.getIfPresent(profile.userId());
+        if (cached != null && cached.isPresent() && cached.get().equals(profile)) {
+            return;
+        }
+
+        try {
+            int changed = senderRepository.upsertIfChanged(profile.userId(), profile.username(),
+                    profile.firstName(), profile.lastName());
+            if (changed > 0) {
+                notificationListener.publish(INVALIDATION_CHANNEL, String.valueOf(profile.userId()));
+                log.debug("action=sender_upserted, user_id={}", profile.userId());
+            }
+            putAfterCommit(profile);
+        } catch (Exception e) {
+            // The message is still stored; the name is picked up with the sender's next message
+            log.warn("action=sender_upsert_failed, user_id={}, error={}", profile.userId(), e.getMessage());
+        }
+    }
+
+    private void putAfterCommit(SenderProfile profile) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache.put(profile.userId(), Optional.of(profile));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache.put(profile.userId(), Optional.of(profile));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    cache.invalidate(profile.userId());
+                }
+            }
+        });
+    }
+
+    private void onRemoteChange(String payload) {
+        cache.invalidate(Long.parseLong(payload));
+    }
+}
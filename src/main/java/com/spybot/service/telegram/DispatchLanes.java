@@ -0,0 +1,131 @@
+package com.spybot.service.telegram;
+
+import com.spybot.config.ExecutionMode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Ordered lanes: tasks with the same key always run on the same single-threaded lane,
+// so per-chat order is kept while different chats are processed in parallel.
+// In VIRTUAL mode each lane runs on a virtual thread, so lanes are cheap and can be raised well past
+// the connection pool size; the synchronous part of each task then holds one of dbConcurrency permits.
+@Component
+@Slf4j
+public class DispatchLanes {
+
+    private final ThreadPoolExecutor[] lanes;
+    private final Semaphore dbPermits;
+
+    public DispatchLanes(MeterRegistry meterRegistry,
+                         @Value("${app.dispatch.lanes:8}") int laneCount,
+                         @Value("${app.dispatch.lane-queue-capacity:1000}") int queueCapacity,
+                         @Value("${app.execution.mode:PLATFORM}") ExecutionMode executionMode,
+                         @Value("${app.execution.db-concurrency:10}") int dbConcurrency) {
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        this.dbPermits = executionMode == ExecutionMode.VIRTUAL ? new Semaphore(dbConcurrency) : null;
+        for (int i = 0; i < laneCount; i++) {
+            String prefix = "dispatch-lane-" + i + "-";
+            ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity),
+                    executionMode == ExecutionMode.VIRTUAL
+                            ? Thread.ofVirtual().name(prefix, 1).factory()
+                            : namedThreadFactory(prefix),
+                    DispatchLanes::blockUntilQueued);
+            lanes[i] = lane;
+
+            Gauge.builder("spybot.dispatch.lane.queue.depth", lane, e -> e.getQueue().size())
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        if (dbPermits != null) {
+            Gauge.builder("spybot.dispatch.db.permits.available", dbPermits, Semaphore::availablePermits)
+                    .register(meterRegistry);
+        }
+        log.info("action=dispatch_lanes_created, lanes={}, execution_mode={}", laneCount, executionMode);
+    }
+
+    public CompletableFuture<Void> submit(Object key, Supplier<CompletableFuture<Void>> task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        lanes[Math.floorMod(key.hashCode(), lanes.length)].execute(() -> {
+            try {
+                runLimited(task).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(null);
+                    }
+                });
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Only the synchronous part holds a permit; batched writes complete later on the writer thread
+    private CompletableFuture<Void> runLimited(Supplier<CompletableFuture<Void>> task) throws InterruptedException {
+        if (dbPermits == null) {
+            return task.get();
+        }
+        dbPermits.acquire();
+        try {
+            return task.get();
+        } finally {
+            dbPermits.release();
+        }
+    }
+
+    public int queuedTasks() {
+        int total = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            total += lane.getQueue().size();
+        }
+        return total;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        log.info("action=dispatch_lanes_stopped, lanes={}", lanes.length);
+    }
+
+    // Blocking instead of caller-runs: running on the caller would break per-lane order
+    private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Dispatch lane is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a dispatch lane", e);
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,6 @@
+package com.spybot.service.telegram;
+
+public enum DispatchMode {
+    SEQUENTIAL,
+    PARALLEL
+}
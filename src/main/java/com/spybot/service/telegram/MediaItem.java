@@ -0,0 +1,6 @@
+package com.spybot.service.telegram;
+
+import com.spybot.domain.enums.MediaType;
+
+public record MediaItem(MediaType type, String fileId, String caption) {
+}
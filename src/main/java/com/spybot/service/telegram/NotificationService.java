@@ -1,24 +1,52 @@
 package com.spybot.service.telegram;
 
-import com.spybot.domain.entity.BusinessConnection;
 import com.spybot.domain.entity.StoredMessage;
 import com.spybot.domain.enums.MediaType;
-import com.spybot.repository.BusinessConnectionRepository;
+import com.spybot.service.connection.ConnectionState;
+import com.spybot.service.connection.ConnectionStateCache;
 import com.spybot.service.encryption.EncryptionService;
+import com.spybot.service.history.TextDiff;
+import com.spybot.service.i18n.HtmlEscaper;
 import com.spybot.service.i18n.I18nService;
+import com.spybot.service.i18n.Language;
+import com.spybot.service.i18n.MessageTemplate;
+import com.spybot.service.media.MediaArchiveStore;
+import com.spybot.service.sender.SenderProfile;
+import com.spybot.service.sender.SenderProfileCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class NotificationService {
 
-    private final BusinessConnectionRepository connectionRepository;
+    private static final int MESSAGE_LIMIT = 4096;
+    private static final int PAGE_FOOTER_RESERVE = 32;
+    private static final int MEDIA_GROUP_LIMIT = 10;
+    private static final int TEXT_PREVIEW_LIMIT = 1000;
+
+    // Render buffer per sending thread; notifications are built one at a time and copied out
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(MESSAGE_LIMIT));
+
+    private final ConnectionStateCache connectionStateCache;
     private final EncryptionService encryptionService;
     private final I18nService messages;
+    private final SenderProfileCache senderProfileCache;
+    private final MediaArchiveStore mediaArchiveStore;
+    @Qualifier("notificationExecutor")
+    private final Executor notificationExecutor;
 
     private TelegramBotService botService;
 
@@ -26,163 +54,374 @@ public class NotificationService {
         this.botService = botService;
     }
 
-    @Async("notificationExecutor")
-    public void sendConnectionNotification(Long chatId, boolean connected, String langCode) {
+    public CompletableFuture<Boolean> sendConnectionNotification(Long chatId, boolean connected, String langCode) {
         String message = connected
                 ? messages.get("connection.enabled", langCode)
                 : messages.get("connection.disabled", langCode);
 
-        botService.sendTextMessage(chatId, message);
+        CompletableFuture<Boolean> sent = botService.sendTextMessage(chatId, message);
         log.info("action=connection_notification_sent, chat_id={}, connected={}", chatId, connected);
+        return sent;
     }
 
-    @Async("notificationExecutor")
-    public void notifyMessageDeleted(String connectionId, StoredMessage storedMessage) {
-        BusinessConnection connection = connectionRepository.findByConnectionId(connectionId).orElse(null);
+    public CompletableFuture<Boolean> notifyMessageDeleted(String connectionId, StoredMessage storedMessage) {
+        ConnectionState connection = connectionStateCache.get(connectionId).orElse(null);
         if (connection == null) {
             log.warn("action=notify_deleted_failed, reason=connection_not_found, connection_id={}", connectionId);
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
-        // Default to Russian for now (can be extended to store user language preference)
-        String langCode = "ru";
+        Language language = resolveLanguage(connection);
 
         String senderName = formatSenderName(storedMessage);
         String decryptedText = encryptionService.decrypt(storedMessage.getEncryptedText());
         String decryptedCaption = encryptionService.decrypt(storedMessage.getEncryptedCaption());
 
-        StringBuilder notification = new StringBuilder();
-        notification.append(messages.get("notify.deleted", langCode)).append("\n\n");
-        notification.append(messages.get("notify.from", langCode)).append(" ").append(escapeHtml(senderName)).append("\n");
+        StringBuilder notification = renderBuffer();
+        notification.append(messages.get("notify.deleted", language)).append("\n\n");
+        notification.append(messages.get("notify.from", language)).append(' ');
+        HtmlEscaper.escape(senderName, notification).append('\n');
 
         if (decryptedText != null && !decryptedText.isEmpty()) {
-            notification.append(messages.get("notify.text", langCode)).append("\n")
-                    .append(escapeHtml(truncateText(decryptedText))).append("\n");
+            notification.append(messages.get("notify.text", language)).append('\n');
+            appendPreview(decryptedText, notification).append('\n');
         }
 
         if (storedMessage.getMediaType() != MediaType.NONE) {
-            notification.append(messages.get("notify.media_type", langCode)).append(" ")
-                    .append(getMediaTypeName(storedMessage.getMediaType(), langCode)).append("\n");
+            notification.append(messages.get("notify.media_type", language)).append(' ')
+                    .append(messages.mediaTypeName(storedMessage.getMediaType(), language)).append('\n');
 
             if (decryptedCaption != null && !decryptedCaption.isEmpty()) {
-                notification.append(messages.get("notify.caption", langCode)).append(" ")
-                        .append(escapeHtml(truncateText(decryptedCaption))).append("\n");
+                notification.append(messages.get("notify.caption", language)).append(' ');
+                appendPreview(decryptedCaption, notification).append('\n');
             }
         }
 
-        botService.sendTextMessage(connection.getUserChatId(), notification.toString());
+        List<CompletableFuture<Boolean>> sends = new ArrayList<>(2);
+        sends.add(botService.sendTextMessage(connection.userChatId(), notification.toString()));
 
         if (storedMessage.getMediaFileId() != null && storedMessage.getMediaType() != MediaType.NONE) {
-            String mediaCaption = messages.get("notify.deleted_media", langCode, senderName);
-            sendMediaNotification(connection.getUserChatId(), storedMessage, mediaCaption);
+            String mediaCaption = messages.template("notify.deleted_media", language).format(senderName);
+            sends.add(sendMediaNotification(connection.userChatId(), storedMessage, mediaCaption));
         }
 
         log.info("action=delete_notification_sent, connection_id={}, user_chat_id={}",
-                connectionId, connection.getUserChatId());
+                connectionId, connection.userChatId());
+        return allDelivered(sends);
+    }
+
+    public CompletableFuture<Boolean> notifyMessagesDeleted(String connectionId, List<StoredMessage> storedMessages) {
+        if (storedMessages.size() == 1) {
+            return notifyMessageDeleted(connectionId, storedMessages.get(0));
+        }
+
+        ConnectionState connection = connectionStateCache.get(connectionId).orElse(null);
+        if (connection == null) {
+            log.warn("action=notify_deleted_failed, reason=connection_not_found, connection_id={}", connectionId);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        Language language = resolveLanguage(connection);
+        String header = messages.template("notify.deleted_digest", language).format(storedMessages.size());
+        senderProfileCache.getAll(storedMessages.stream().map(StoredMessage::getFromUserId).distinct().toList());
+
+        List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+        List<String> pages = paginate(header, storedMessages, language);
+        MessageTemplate pageFooter = messages.template("notify.page", language);
+        for (int i = 0; i < pages.size(); i++) {
+            String page = pages.size() > 1
+                    ? pageFooter.render(renderBuffer().append(pages.get(i)).append('\n'), i + 1, pages.size()).toString()
+                    : pages.get(i);
+            sends.add(botService.sendTextMessage(connection.userChatId(), page));
+        }
+
+        sendMediaDigest(connection.userChatId(), storedMessages, language, sends);
+
+        log.info("action=delete_digest_sent, connection_id={}, user_chat_id={}, messages={}, pages={}",
+                connectionId, connection.userChatId(), storedMessages.size(), pages.size());
+        return allDelivered(sends);
     }
 
-    @Async("notificationExecutor")
-    public void notifyMessageEdited(String connectionId, StoredMessage storedMessage,
-                                    String oldText, String newText,
-                                    String oldCaption, String newCaption) {
-        BusinessConnection connection = connectionRepository.findByConnectionId(connectionId).orElse(null);
+    public CompletableFuture<Boolean> notifyMessageEdited(String connectionId, StoredMessage storedMessage,
+                                                          String oldText, String newText,
+                                                          String oldCaption, String newCaption) {
+        ConnectionState connection = connectionStateCache.get(connectionId).orElse(null);
         if (connection == null) {
             log.warn("action=notify_edited_failed, reason=connection_not_found, connection_id={}", connectionId);
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
-        String langCode = "ru";
+        Language language = resolveLanguage(connection);
         String senderName = formatSenderName(storedMessage);
-        String emptyText = messages.get("notify.empty", langCode);
+        String emptyText = messages.get("notify.empty", language);
 
-        StringBuilder notification = new StringBuilder();
-        notification.append(messages.get("notify.edited", langCode)).append("\n\n");
-        notification.append(messages.get("notify.from", langCode)).append(" ").append(escapeHtml(senderName)).append("\n\n");
+        StringBuilder notification = renderBuffer();
+        notification.append(messages.get("notify.edited", language)).append("\n\n");
+        notification.append(messages.get("notify.from", language)).append(' ');
+        HtmlEscaper.escape(senderName, notification).append("\n\n");
 
         boolean hasTextChange = !equalsNullSafe(oldText, newText);
         boolean hasCaptionChange = !equalsNullSafe(oldCaption, newCaption);
 
         if (hasTextChange) {
-            notification.append(messages.get("notify.was", langCode)).append("\n")
-                    .append(escapeHtml(truncateText(oldText != null ? oldText : emptyText))).append("\n\n");
-            notification.append(messages.get("notify.became", langCode)).append("\n")
-                    .append(escapeHtml(truncateText(newText != null ? newText : emptyText))).append("\n");
+            appendChange(notification, messages.get("notify.was", language), messages.get("notify.became", language),
+                    oldText, newText, emptyText);
         }
 
         if (hasCaptionChange) {
-            notification.append("\n").append(messages.get("notify.caption_was", langCode)).append("\n")
-                    .append(escapeHtml(truncateText(oldCaption != null ? oldCaption : emptyText))).append("\n\n");
-            notification.append(messages.get("notify.caption_became", langCode)).append("\n")
-                    .append(escapeHtml(truncateText(newCaption != null ? newCaption : emptyText))).append("\n");
+            notification.append('\n');
+            appendChange(notification, messages.get("notify.caption_was", language),
+                    messages.get("notify.caption_became", language), oldCaption, newCaption, emptyText);
         }
 
         if (storedMessage.getMediaType() != MediaType.NONE) {
-            notification.append("\n").append(messages.get("notify.media_type", langCode)).append(" ")
-                    .append(getMediaTypeName(storedMessage.getMediaType(), langCode));
+            notification.append('\n').append(messages.get("notify.media_type", language)).append(' ')
+                    .append(messages.mediaTypeName(storedMessage.getMediaType(), language));
         }
 
-        botService.sendTextMessage(connection.getUserChatId(), notification.toString());
+        CompletableFuture<Boolean> sent = botService.sendTextMessage(connection.userChatId(), notification.toString());
 
         log.info("action=edit_notification_sent, connection_id={}, user_chat_id={}",
-                connectionId, connection.getUserChatId());
+                connectionId, connection.userChatId());
+        return sent;
+    }
+
+    // Entries are rendered straight into the page; one that overflows is moved to a fresh page
+    private List<String> paginate(String header, List<StoredMessage> storedMessages, Language language) {
+        List<String> pages = new ArrayList<>();
+        StringBuilder page = renderBuffer().append(header).append("\n\n");
+        StringBuilder carried = new StringBuilder();
+        int pageStart = page.length();
+        for (StoredMessage storedMessage : storedMessages) {
+            int entryStart = page.length();
+            appendDigestEntry(storedMessage, language, page).append('\n');
+            if (page.length() - 1 > MESSAGE_LIMIT - PAGE_FOOTER_RESERVE && entryStart > pageStart) {
+                carried.setLength(0);
+                carried.append(page, entryStart, page.length());
+                page.setLength(entryStart);
+                pages.add(page.toString());
+                page.setLength(0);
+                page.append(carried);
+                pageStart = 0;
+            }
+        }
+        pages.add(page.toString());
+        return pages;
+    }
+
+    private StringBuilder appendDigestEntry(StoredMessage storedMessage, Language language, StringBuilder entry) {
+        entry.append(messages.get("notify.from", language)).append(' ');
+        HtmlEscaper.escape(formatSenderName(storedMessage), entry).append('\n');
+
+        String decryptedText = encryptionService.decrypt(storedMessage.getEncryptedText());
+        if (decryptedText != null && !decryptedText.isEmpty()) {
+            appendPreview(decryptedText, entry).append('\n');
+        }
+
+        if (storedMessage.getMediaType() != MediaType.NONE) {
+            entry.append(messages.get("notify.media_type", language)).append(' ')
+                    .append(messages.mediaTypeName(storedMessage.getMediaType(), language)).append('\n');
+
+            String decryptedCaption = encryptionService.decrypt(storedMessage.getEncryptedCaption());
+            if (decryptedCaption != null && !decryptedCaption.isEmpty()) {
+                entry.append(messages.get("notify.caption", language)).append(' ');
+                appendPreview(decryptedCaption, entry).append('\n');
+            }
+        }
+        return entry;
+    }
+
+    // Photos/videos, documents and audio are re-sent as media groups of up to 10 items
+    private void sendMediaDigest(Long chatId, List<StoredMessage> storedMessages, Language language,
+                                 List<CompletableFuture<Boolean>> sends) {
+        Map<MediaType, List<StoredMessage>> groups = new EnumMap<>(MediaType.class);
+        MessageTemplate captionTemplate = messages.template("notify.deleted_media", language);
+        for (StoredMessage storedMessage : storedMessages) {
+            if (storedMessage.getMediaFileId() == null || storedMessage.getMediaType() == MediaType.NONE) {
+                continue;
+            }
+            MediaType groupType = switch (storedMessage.getMediaType()) {
+                case PHOTO, VIDEO -> MediaType.PHOTO;
+                case DOCUMENT, AUDIO -> storedMessage.getMediaType();
+                default -> null;
+            };
+            if (groupType == null) {
+                sends.add(sendMediaNotification(chatId, storedMessage,
+                        captionTemplate.format(formatSenderName(storedMessage))));
+            } else {
+                groups.computeIfAbsent(groupType, t -> new ArrayList<>()).add(storedMessage);
+            }
+        }
+
+        for (List<StoredMessage> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += MEDIA_GROUP_LIMIT) {
+                List<StoredMessage> chunk = group.subList(from, Math.min(from + MEDIA_GROUP_LIMIT, group.size()));
+                List<MediaItem> items = new ArrayList<>(chunk.size());
+                for (StoredMessage storedMessage : chunk) {
+                    items.add(new MediaItem(storedMessage.getMediaType(), storedMessage.getMediaFileId(),
+                            captionTemplate.format(formatSenderName(storedMessage))));
+                }
+                sends.add(chunk.size() == 1
+                        ? sendMediaNotification(chatId, chunk.get(0), items.get(0).caption())
+                        : sendMediaGroup(chatId, chunk, items));
+            }
+        }
+    }
+
+    // Telegram rejects a whole group when one file id is stale and sends none of it, so if any item has
+    // an archived copy the group is re-sent item by item, each with its own archive fallback
+    private CompletableFuture<Boolean> sendMediaGroup(Long chatId, List<StoredMessage> chunk, List<MediaItem> items) {
+        CompletableFuture<Boolean> sent = botService.sendMediaGroup(chatId, items);
+        if (chunk.stream().allMatch(message -> message.getEncryptedMediaPath() == null)) {
+            return sent;
+        }
+        return sent.thenComposeAsync(delivered -> {
+            if (Boolean.TRUE.equals(delivered)) {
+                return CompletableFuture.completedFuture(true);
+            }
+            log.info("action=media_group_fallback, chat_id={}, items={}", chatId, items.size());
+            List<CompletableFuture<Boolean>> resends = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                resends.add(sendMediaNotification(chatId, chunk.get(i), items.get(i).caption()));
+            }
+            return allDelivered(resends);
+        }, notificationExecutor);
     }
 
-    private void sendMediaNotification(Long chatId, StoredMessage message, String caption) {
+    // Sends by file id; if Telegram rejects it and an archived copy exists, the copy is uploaded instead
+    private CompletableFuture<Boolean> sendMediaNotification(Long chatId, StoredMessage message, String caption) {
         String fileId = message.getMediaFileId();
-        if (fileId == null) return;
+        if (fileId == null) return CompletableFuture.completedFuture(true);
 
-        switch (message.getMediaType()) {
+        CompletableFuture<Boolean> sent = sendByFileId(chatId, message, fileId, caption);
+        String archivedPath = message.getEncryptedMediaPath();
+        if (archivedPath == null) {
+            return sent;
+        }
+        // Decrypting the archive copy blocks on disk, so it runs on the send-path executor
+        return sent.thenComposeAsync(delivered -> Boolean.TRUE.equals(delivered)
+                ? CompletableFuture.completedFuture(true)
+                : uploadArchived(chatId, message, archivedPath, caption), notificationExecutor);
+    }
+
+    private CompletableFuture<Boolean> uploadArchived(Long chatId, StoredMessage message, String archivedPath,
+                                                      String caption) {
+        Path plain = mediaArchiveStore.decryptToTempFile(archivedPath).orElse(null);
+        if (plain == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        log.info("action=media_fallback_upload, stored_message_id={}, media_type={}",
+                message.getId(), message.getMediaType());
+        return botService.uploadMedia(chatId, message.getMediaType(), plain, caption)
+                .whenComplete((delivered, error) -> mediaArchiveStore.deleteQuietly(plain));
+    }
+
+    private CompletableFuture<Boolean> sendByFileId(Long chatId, StoredMessage message, String fileId, String caption) {
+        return switch (message.getMediaType()) {
             case PHOTO -> botService.sendPhoto(chatId, fileId, caption);
             case VIDEO, ANIMATION -> botService.sendVideo(chatId, fileId, caption);
             case VIDEO_NOTE -> botService.sendVideoNote(chatId, fileId);
             case VOICE -> botService.sendVoice(chatId, fileId, caption);
             case STICKER -> botService.sendSticker(chatId, fileId);
             case DOCUMENT, AUDIO -> botService.sendDocument(chatId, fileId, caption);
-            default -> {}
-        }
+            case NONE -> CompletableFuture.completedFuture(true);
+        };
     }
 
+    private static CompletableFuture<Boolean> allDelivered(List<CompletableFuture<Boolean>> sends) {
+        return CompletableFuture.allOf(sends.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> sends.stream().allMatch(CompletableFuture::join));
+    }
+
+    // Connections created before the language was stored default to Russian
+    private Language resolveLanguage(ConnectionState connection) {
+        return connection.languageCode() != null ? Language.of(connection.languageCode()) : Language.RU;
+    }
+
+    // Profiles come from the sender cache; digests preload them in one query
     private String formatSenderName(StoredMessage message) {
+        SenderProfile sender = senderProfileCache.get(message.getFromUserId()).orElse(null);
+        if (sender == null) {
+            return "Unknown";
+        }
         StringBuilder name = new StringBuilder();
-        if (message.getFromFirstName() != null) {
-            name.append(message.getFromFirstName());
+        if (sender.firstName() != null) {
+            name.append(sender.firstName());
         }
-        if (message.getFromLastName() != null) {
+        if (sender.lastName() != null) {
             if (!name.isEmpty()) name.append(" ");
-            name.append(message.getFromLastName());
+            name.append(sender.lastName());
         }
-        if (message.getFromUsername() != null) {
+        if (sender.username() != null) {
             if (!name.isEmpty()) name.append(" ");
-            name.append("(@").append(message.getFromUsername()).append(")");
+            name.append("(@").append(sender.username()).append(")");
         }
         return name.isEmpty() ? "Unknown" : name.toString();
     }
 
-    private String getMediaTypeName(MediaType type, String langCode) {
-        return switch (type) {
-            case PHOTO -> messages.get("media.photo", langCode);
-            case VIDEO -> messages.get("media.video", langCode);
-            case DOCUMENT -> messages.get("media.document", langCode);
-            case VOICE -> messages.get("media.voice", langCode);
-            case VIDEO_NOTE -> messages.get("media.video_note", langCode);
-            case AUDIO -> messages.get("media.audio", langCode);
-            case STICKER -> messages.get("media.sticker", langCode);
-            case ANIMATION -> messages.get("media.animation", langCode);
-            case NONE -> "";
-        };
+    // "Was" and "became" blocks with removed words struck through and added words in bold.
+    // Texts that would be truncated are shown plain: a cut could land inside a tag.
+    private void appendChange(StringBuilder out, String wasLabel, String becameLabel,
+                              String oldText, String newText, String emptyText) {
+        if (oldText == null || newText == null
+                || oldText.length() > TEXT_PREVIEW_LIMIT || newText.length() > TEXT_PREVIEW_LIMIT) {
+            out.append(wasLabel).append('\n');
+            appendPreview(oldText != null ? oldText : emptyText, out).append("\n\n");
+            out.append(becameLabel).append('\n');
+            appendPreview(newText != null ? newText : emptyText, out).append('\n');
+            return;
+        }
+
+        List<String> oldTokens = TextDiff.tokenize(oldText);
+        List<String> newTokens = TextDiff.tokenize(newText);
+        List<TextDiff.Op> ops = TextDiff.diff(oldTokens, newTokens);
+        out.append(wasLabel).append('\n');
+        appendSide(out, oldText, oldTokens, ops, TextDiff.Kind.DELETE, "<s>", "</s>").append("\n\n");
+        out.append(becameLabel).append('\n');
+        appendSide(out, newText, newTokens, ops, TextDiff.Kind.INSERT, "<b>", "</b>").append('\n');
     }
 
-    private String truncateText(String text) {
-        if (text == null) return "";
-        return text.length() > 1000 ? text.substring(0, 1000) + "..." : text;
+    // One side of the diff: ops of the other side are skipped, own changes are wrapped in the tag
+    private static StringBuilder appendSide(StringBuilder out, String text, List<String> tokens, List<TextDiff.Op> ops,
+                                            TextDiff.Kind changed, String open, String close) {
+        int token = 0;
+        int position = 0;
+        for (TextDiff.Op op : ops) {
+            if (op.kind() != TextDiff.Kind.EQUAL && op.kind() != changed) {
+                continue;
+            }
+            int end = position;
+            for (int i = token; i < token + op.count(); i++) {
+                end += tokens.get(i).length();
+            }
+            if (op.kind() == changed) {
+                out.append(open);
+                HtmlEscaper.escape(text, position, end, out).append(close);
+            } else {
+                HtmlEscaper.escape(text, position, end, out);
+            }
+            token += op.count();
+            position = end;
+        }
+        return out;
     }
 
-    private String escapeHtml(String text) {
-        if (text == null) return "";
-        return text
-                .replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;");
+    // Escaped text cut at TEXT_PREVIEW_LIMIT characters
+    private static StringBuilder appendPreview(String text, StringBuilder out) {
+        if (text.length() <= TEXT_PREVIEW_LIMIT) {
+            return HtmlEscaper.escape(text, out);
+        }
+        return HtmlEscaper.escape(text, 0, TEXT_PREVIEW_LIMIT, out).append("...");
+    }
+
+    private static StringBuilder renderBuffer() {
+        StringBuilder buffer = RENDER_BUFFER.get();
+        if (buffer.capacity() > 4 * MESSAGE_LIMIT) {
+            buffer = new StringBuilder(MESSAGE_LIMIT);
+            RENDER_BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
     }
 
     private boolean equalsNullSafe(String a, String b) {
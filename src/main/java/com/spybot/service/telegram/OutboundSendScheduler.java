@@ -0,0 +1,350 @@
+package com.spybot.service.telegram;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pengrad.telegrambot.response.BaseResponse;
+import com.spybot.config.TelegramBotConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Schedules outbound Bot API calls under Telegram limits: a global token bucket (~30 msg/s)
+// and one bucket per chat (~1 msg/s). 429 responses are retried after retry_after,
+// network and 5xx errors after an exponential backoff, at most maxRetries times.
+// While a send waits for its retry, later sends of the same chat are held back so they cannot overtake it.
+// Calls are asynchronous; workers only wait for rate limits and the in-flight window.
+@Component
+@Slf4j
+public class OutboundSendScheduler {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final TelegramBotConfig botConfig;
+    private final DelayQueue<ScheduledSend> queue = new DelayQueue<>();
+    // Entries in queue; submit reserves a place here first, so concurrent submits cannot overshoot capacity
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final TokenBucket globalBucket;
+    private final Cache<Long, TokenBucket> chatBuckets;
+    private final Map<Long, ChatHold> holds = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final Semaphore inFlight;
+    private final MeterRegistry meterRegistry;
+
+    private final Counter queuedCounter;
+    private final Counter sentCounter;
+    private final Counter throttledCounter;
+    private final Counter droppedCounter;
+
+    private volatile boolean running;
+
+    public OutboundSendScheduler(TelegramBotConfig botConfig, MeterRegistry meterRegistry) {
+        this.botConfig = botConfig;
+        this.globalBucket = new TokenBucket(botConfig.getGlobalRatePerSecond(),
+                botConfig.getGlobalRatePerSecond(), System.nanoTime());
+        this.inFlight = new Semaphore(botConfig.getMaxInFlight());
+        this.meterRegistry = meterRegistry;
+        this.chatBuckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(5))
+                .build();
+
+        this.queuedCounter = meterRegistry.counter("spybot.telegram.send.queued");
+        this.sentCounter = meterRegistry.counter("spybot.telegram.send.sent");
+        this.throttledCounter = meterRegistry.counter("spybot.telegram.send.throttled");
+        this.droppedCounter = meterRegistry.counter("spybot.telegram.send.dropped");
+        Gauge.builder("spybot.telegram.send.queue.size", queue, DelayQueue::size).register(meterRegistry);
+        Gauge.builder("spybot.telegram.send.inflight", inFlight,
+                s -> botConfig.getMaxInFlight() - s.availablePermits()).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < botConfig.getSendWorkers(); i++) {
+            Thread worker = new Thread(this::runWorker, "telegram-send-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        log.info("action=send_scheduler_stopped, pending={}", queue.size());
+    }
+
+    // Completes with true once Telegram accepted the request, false if it was dropped
+    public CompletableFuture<Boolean> submit(Long chatId, String action,
+                                             Supplier<CompletableFuture<? extends BaseResponse>> call) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (!reserveQueueSlot()) {
+            droppedCounter.increment();
+            log.warn("action=send_dropped, reason=queue_full, chat_id={}, type={}", chatId, action);
+            result.complete(false);
+            return result;
+        }
+
+        long now = System.nanoTime();
+        long notBefore = chatBucket(chatId).reserve(now);
+        if (notBefore > now) {
+            throttledCounter.increment();
+        }
+        long seq = sequence.incrementAndGet();
+        queue.put(new ScheduledSend(chatId, action, call, result, 0, notBefore, seq, seq));
+        queuedCounter.increment();
+        return result;
+    }
+
+    // Sends waiting for their turn; retries parked behind a chat's hold are not counted
+    public int queuedSends() {
+        return queued.get();
+    }
+
+    private boolean reserveQueueSlot() {
+        int capacity = botConfig.getSendQueueCapacity();
+        while (true) {
+            int current = queued.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Retries and released sends were admitted once already and are never dropped for capacity
+    private void requeue(ScheduledSend send) {
+        queued.incrementAndGet();
+        queue.put(send);
+    }
+
+    private void runWorker() {
+        while (running) {
+            try {
+                ScheduledSend send = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (send == null) {
+                    continue;
+                }
+                queued.decrementAndGet();
+                if (holdBehindRetry(send)) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                long wait = globalBucket.reserve(now) - now;
+                if (wait > 0) {
+                    throttledCounter.increment();
+                    LockSupport.parkNanos(wait);
+                }
+                inFlight.acquire();
+                execute(send);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("action=send_worker_failed, error={}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void execute(ScheduledSend send) {
+        long started = System.nanoTime();
+        CompletableFuture<? extends BaseResponse> call;
+        try {
+            call = send.call().get();
+        } catch (Exception e) {
+            inFlight.release();
+            recordApiCall(send, "io_error", started);
+            onError(send, e);
+            return;
+        }
+        call.whenComplete((response, error) -> {
+            inFlight.release();
+            if (error != null) {
+                recordApiCall(send, "io_error", started);
+                onError(send, error);
+            } else {
+                recordApiCall(send, response.isOk() ? "ok" : String.valueOf(response.errorCode()), started);
+                onResponse(send, response);
+            }
+        });
+    }
+
+    // One sample per HTTP attempt; status is "ok", the Bot API error code or "io_error"
+    private void recordApiCall(ScheduledSend send, String status, long startedNanos) {
+        Timer.builder("spybot.telegram.api")
+                .tag("method", send.action())
+                .tag("status", status)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void onError(ScheduledSend send, Throwable error) {
+        log.warn("action=send_{}_error, chat_id={}, attempt={}, error={}",
+                send.action(), send.chatId(), send.attempt() + 1, error.getMessage());
+        retryOrDrop(send, backoffNanos(send.attempt()));
+    }
+
+    private void onResponse(ScheduledSend send, BaseResponse response) {
+        if (response.isOk()) {
+            sentCounter.increment();
+            log.debug("action={}_sent, chat_id={}", send.action(), send.chatId());
+            finish(send, true);
+        } else if (response.errorCode() == TOO_MANY_REQUESTS) {
+            throttledCounter.increment();
+            Integer retryAfter = response.parameters() != null ? response.parameters().retryAfter() : null;
+            long delay = retryAfter != null ? TimeUnit.SECONDS.toNanos(retryAfter) : backoffNanos(send.attempt());
+            long now = System.nanoTime();
+            // Telegram does not say which limit was hit, so both the chat and the bot back off
+            chatBucket(send.chatId()).pauseUntil(now, now + delay);
+            globalBucket.pauseUntil(now, now + delay);
+            log.warn("action=send_{}_throttled, chat_id={}, retry_after_s={}",
+                    send.action(), send.chatId(), retryAfter);
+            retryOrDrop(send, delay);
+        } else if (response.errorCode() >= 500) {
+            log.warn("action=send_{}_failed, chat_id={}, error_code={}, description={}",
+                    send.action(), send.chatId(), response.errorCode(), response.description());
+            retryOrDrop(send, backoffNanos(send.attempt()));
+        } else {
+            droppedCounter.increment();
+            log.error("action=send_{}_failed, chat_id={}, error_code={}, description={}",
+                    send.action(), send.chatId(), response.errorCode(), response.description());
+            finish(send, false);
+        }
+    }
+
+    private void retryOrDrop(ScheduledSend send, long delayNanos) {
+        if (send.attempt() >= botConfig.getMaxRetries()) {
+            droppedCounter.increment();
+            log.error("action=send_dropped, reason=retries_exhausted, chat_id={}, type={}",
+                    send.chatId(), send.action());
+            finish(send, false);
+            return;
+        }
+        holds.putIfAbsent(send.chatId(), new ChatHold(send.order()));
+        // The retry is a send like any other and takes its own place in the chat's rate
+        long now = System.nanoTime();
+        long notBefore = Math.max(now + delayNanos, chatBucket(send.chatId()).reserve(now));
+        requeue(send.retryAt(notBefore, sequence.incrementAndGet()));
+    }
+
+    private void finish(ScheduledSend send, boolean sent) {
+        send.result().complete(sent);
+        releaseHold(send);
+    }
+
+    // Parks a send that was submitted after a chat's pending retry; it is re-queued by releaseHold
+    private boolean holdBehindRetry(ScheduledSend send) {
+        ChatHold hold = holds.get(send.chatId());
+        if (hold == null) {
+            return false;
+        }
+        synchronized (hold) {
+            if (hold.released || send.order() <= hold.order) {
+                return false;
+            }
+            hold.parked.add(send);
+            return true;
+        }
+    }
+
+    // Called once the retried send went out or was dropped: parked sends go back in submission order,
+    // each with a fresh chat reservation so they do not burst right after the retry
+    private void releaseHold(ScheduledSend send) {
+        ChatHold hold = holds.get(send.chatId());
+        if (hold == null || hold.order != send.order()) {
+            return;
+        }
+        List<ScheduledSend> parked;
+        synchronized (hold) {
+            hold.released = true;
+            parked = new ArrayList<>(hold.parked);
+        }
+        holds.remove(send.chatId(), hold);
+        parked.sort(Comparator.comparingLong(ScheduledSend::order));
+        TokenBucket bucket = chatBucket(send.chatId());
+        for (ScheduledSend next : parked) {
+            requeue(next.requeueAt(bucket.reserve(System.nanoTime()), sequence.incrementAndGet()));
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        return TimeUnit.MILLISECONDS.toNanos(botConfig.getRetryDelayMs() << Math.min(attempt, 10));
+    }
+
+    private TokenBucket chatBucket(Long chatId) {
+        return chatBuckets.get(chatId, id -> new TokenBucket(
+                botConfig.getPerChatRatePerSecond(), botConfig.getPerChatBurst(), System.nanoTime()));
+    }
+
+    private static final class ChatHold {
+
+        private final long order;
+        private final List<ScheduledSend> parked = new ArrayList<>();
+        private boolean released;
+
+        private ChatHold(long order) {
+            this.order = order;
+        }
+    }
+
+    // order is the submission sequence and survives retries; seq breaks ties inside the delay queue
+    private record ScheduledSend(
+            Long chatId,
+            String action,
+            Supplier<CompletableFuture<? extends BaseResponse>> call,
+            CompletableFuture<Boolean> result,
+            int attempt,
+            long notBeforeNanos,
+            long seq,
+            long order
+    ) implements Delayed {
+
+        ScheduledSend retryAt(long notBefore, long nextSeq) {
+            return new ScheduledSend(chatId, action, call, result, attempt + 1, notBefore, nextSeq, order);
+        }
+
+        ScheduledSend requeueAt(long notBefore, long nextSeq) {
+            return new ScheduledSend(chatId, action, call, result, attempt, notBefore, nextSeq, order);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notBeforeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        // Sends due at the same time keep submission order
+        @Override
+        public int compareTo(Delayed other) {
+            ScheduledSend that = (ScheduledSend) other;
+            int byTime = Long.compare(notBeforeNanos, that.notBeforeNanos);
+            return byTime != 0 ? byTime : Long.compare(seq, that.seq);
+        }
+    }
+}
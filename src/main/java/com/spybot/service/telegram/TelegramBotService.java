@@ -1,50 +1,147 @@
 package com.spybot.service.telegram;
 
+import com.pengrad.telegrambot.Callback;
 import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.UpdatesListener;
+import com.pengrad.telegrambot.model.File;
 import com.pengrad.telegrambot.model.Update;
 import com.pengrad.telegrambot.model.LinkPreviewOptions;
+import com.pengrad.telegrambot.model.request.InputMedia;
+import com.pengrad.telegrambot.model.request.InputMediaAudio;
+import com.pengrad.telegrambot.model.request.InputMediaDocument;
+import com.pengrad.telegrambot.model.request.InputMediaPhoto;
+import com.pengrad.telegrambot.model.request.InputMediaVideo;
 import com.pengrad.telegrambot.model.request.ParseMode;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.DeleteWebhook;
+import com.pengrad.telegrambot.request.GetFile;
 import com.pengrad.telegrambot.request.SendDocument;
+import com.pengrad.telegrambot.request.SendMediaGroup;
 import com.pengrad.telegrambot.request.SendMessage;
 import com.pengrad.telegrambot.request.SendPhoto;
 import com.pengrad.telegrambot.request.SendVideo;
 import com.pengrad.telegrambot.request.SendVideoNote;
 import com.pengrad.telegrambot.request.SendVoice;
 import com.pengrad.telegrambot.request.SendSticker;
-import com.pengrad.telegrambot.response.SendResponse;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
+import com.pengrad.telegrambot.response.GetFileResponse;
 import com.spybot.config.TelegramBotConfig;
+import com.spybot.domain.enums.MediaType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.springframework.stereotype.Service;
 
-import java.util.function.Consumer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 @Service
 @Slf4j
 public class TelegramBotService {
 
+    private static final long DURABLE_WAIT_SECONDS = 60;
+    private static final long HTTP_TIMEOUT_SECONDS = 75;
+    private static final long MAX_REDELIVERY_DELAY_MS = 30_000;
+
     private final TelegramBotConfig botConfig;
+    private final OutboundSendScheduler sendScheduler;
     private final TelegramBot bot;
+    private final OkHttpClient httpClient;
+    private final UpdateBackpressure backpressure;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary batchSize;
+    private final Counter redeliveredCounter;
+    private final Counter abandonedCounter;
+
+    // Only touched by the polling thread
+    private final Map<Integer, Integer> failedAttempts = new HashMap<>();
 
-    public TelegramBotService(TelegramBotConfig botConfig) {
+    public TelegramBotService(TelegramBotConfig botConfig, OutboundSendScheduler sendScheduler,
+                              UpdateBackpressure backpressure, MeterRegistry meterRegistry) {
         this.botConfig = botConfig;
-        this.bot = new TelegramBot(botConfig.getToken());
-        log.info("action=bot_created, username={}", botConfig.getUsername());
+        this.sendScheduler = sendScheduler;
+        this.backpressure = backpressure;
+        this.meterRegistry = meterRegistry;
+        this.batchSize = meterRegistry.summary("spybot.telegram.updates.batch.size");
+        this.redeliveredCounter = meterRegistry.counter("spybot.update.redelivery.requested");
+        this.abandonedCounter = meterRegistry.counter("spybot.update.abandoned");
+        this.httpClient = createHttpClient(botConfig.getMaxInFlight());
+        this.bot = new TelegramBot.Builder(botConfig.getToken())
+                .apiUrl(botConfig.getApiUrl())
+                .fileApiUrl(botConfig.getFileApiUrl())
+                .okHttpClient(httpClient)
+                .build();
+        log.info("action=bot_created, username={}, api_url={}", botConfig.getUsername(), botConfig.getApiUrl());
     }
 
-    public void startListening(Consumer<Update> updateHandler) {
+    // Async calls run on virtual threads, so hundreds of requests can be in flight without a
+    // matching number of platform threads; OkHttp's default caps them at 5 per host.
+    private static OkHttpClient createHttpClient(int maxInFlight) {
+        Dispatcher dispatcher = new Dispatcher(Executors.newVirtualThreadPerTaskExecutor());
+        dispatcher.setMaxRequests(maxInFlight);
+        dispatcher.setMaxRequestsPerHost(maxInFlight);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public void startListening(Function<Update, CompletableFuture<Void>> updateHandler,
+                               Function<Update, Object> laneKey,
+                               IntConsumer releasedHandler) {
         bot.setUpdatesListener(updates -> {
+            batchSize.record(updates.size());
+            List<CompletableFuture<Void>> pending = new ArrayList<>(updates.size());
             for (Update update : updates) {
                 try {
-                    updateHandler.accept(update);
+                    pending.add(updateHandler.apply(update));
                 } catch (Exception e) {
                     log.error("action=update_processing_failed, update_id={}, error={}",
                             update.updateId(), e.getMessage());
+                    pending.add(CompletableFuture.failedFuture(e));
                 }
             }
-            return UpdatesListener.CONFIRMED_UPDATES_ALL;
+            int lastUpdateId = updates.get(updates.size() - 1).updateId();
+            awaitDurable(pending, lastUpdateId);
+
+            int result;
+            if (botConfig.getConfirmMode() == UpdateConfirmMode.AT_MOST_ONCE) {
+                result = UpdatesListener.CONFIRMED_UPDATES_ALL;
+            } else {
+                result = confirmDurablePrefix(updates, pending, laneKey, releasedHandler);
+            }
+
+            try {
+                backpressure.awaitCapacity();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
         }, e -> {
+            meterRegistry.counter("spybot.telegram.updates.errors", "status",
+                    e.response() != null ? String.valueOf(e.response().errorCode()) : "io_error").increment();
             if (e.response() != null) {
                 log.error("action=updates_listener_error, code={}, description={}",
                         e.response().errorCode(), e.response().description());
@@ -53,131 +150,233 @@ public class TelegramBotService {
             }
         });
 
-        log.info("action=bot_listening_started, username={}", botConfig.getUsername());
+        log.info("action=bot_listening_started, username={}, confirm_mode={}",
+                botConfig.getUsername(), botConfig.getConfirmMode());
     }
 
-    @PreDestroy
-    public void shutdown() {
-        if (bot != null) {
-            bot.removeGetUpdatesListener();
-            bot.shutdown();
-            log.info("action=bot_shutdown");
-        }
-    }
+    // Confirms up to the last update of the unbroken run of completed ones. The first update that
+    // failed or did not finish in time, and every unfinished one after it, is released from the dedup
+    // window so that the redelivered copy is processed. Completed updates after it are released too
+    // when they share a lane with a released one (an edit that ran before its message was stored must
+    // run again after it); completed ones on other lanes stay marked and are skipped.
+    // An update that keeps failing is given up after updateMaxAttempts so it cannot stall the offset.
+    // Webhook mode has no offset to hold back: WebhookController releases a failed update and answers
+    // with an error so that Telegram redelivers that one update.
+    private int confirmDurablePrefix(List<Update> updates, List<CompletableFuture<Void>> pending,
+                                     Function<Update, Object> laneKey, IntConsumer releasedHandler) {
+        int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
+        for (int i = 0; i < updates.size(); i++) {
+            int updateId = updates.get(i).updateId();
+            if (isDurable(pending.get(i))) {
+                failedAttempts.remove(updateId);
+                confirmed = updateId;
+                continue;
+            }
 
-    public void sendTextMessage(Long chatId, String text) {
-        try {
-            SendMessage request = new SendMessage(chatId, text)
-                    .parseMode(ParseMode.HTML)
-                    .linkPreviewOptions(new LinkPreviewOptions().isDisabled(true));
+            int attempts = failedAttempts.merge(updateId, 1, Integer::sum);
+            int maxAttempts = botConfig.getUpdateMaxAttempts();
+            if (maxAttempts > 0 && attempts >= maxAttempts) {
+                failedAttempts.remove(updateId);
+                abandonedCounter.increment();
+                log.error("action=update_abandoned, update_id={}, attempts={}", updateId, attempts);
+                confirmed = updateId;
+                continue;
+            }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=message_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_message_failed, chat_id={}, error_code={}, description={}",
-                        chatId, response.errorCode(), response.description());
+            Set<Object> brokenLanes = new HashSet<>();
+            for (int j = i; j < updates.size(); j++) {
+                Update update = updates.get(j);
+                Object lane = laneKey.apply(update);
+                if (!isDurable(pending.get(j)) || brokenLanes.contains(lane)) {
+                    brokenLanes.add(lane);
+                    releasedHandler.accept(update.updateId());
+                    redeliveredCounter.increment();
+                }
             }
-        } catch (Exception e) {
-            log.error("action=send_message_failed, chat_id={}, error={}", chatId, e.getMessage());
+            log.warn("action=update_redelivery_scheduled, update_id={}, attempt={}, confirmed_update_id={}",
+                    updateId, attempts, confirmed);
+            backOff(attempts);
+            break;
         }
+        return confirmed;
     }
 
-    public void sendPhoto(Long chatId, String fileId, String caption) {
-        try {
-            SendPhoto request = new SendPhoto(chatId, fileId)
-                    .caption(caption)
-                    .parseMode(ParseMode.HTML);
+    private static boolean isDurable(CompletableFuture<Void> future) {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=photo_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_photo_failed, chat_id={}, error={}", chatId, response.description());
-            }
-        } catch (Exception e) {
-            log.error("action=send_photo_failed, chat_id={}, error={}", chatId, e.getMessage());
+    // Keeps a failing dependency (e.g. the database) from turning redelivery into a hot loop
+    private void backOff(int attempt) {
+        long delayMs = Math.min(botConfig.getRetryDelayMs() << Math.min(attempt - 1, 10), MAX_REDELIVERY_DELAY_MS);
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public void sendVideo(Long chatId, String fileId, String caption) {
-        try {
-            SendVideo request = new SendVideo(chatId, fileId)
-                    .caption(caption)
-                    .parseMode(ParseMode.HTML);
+    public void registerWebhook() {
+        if (botConfig.getWebhookUrl() == null || botConfig.getWebhookUrl().isBlank()
+                || botConfig.getWebhookSecret() == null || botConfig.getWebhookSecret().isBlank()) {
+            throw new IllegalStateException("Webhook mode requires telegram.bot.webhook-url and webhook-secret");
+        }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=video_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_video_failed, chat_id={}, error={}", chatId, response.description());
-            }
-        } catch (Exception e) {
-            log.error("action=send_video_failed, chat_id={}, error={}", chatId, e.getMessage());
+        String url = botConfig.getWebhookUrl() + botConfig.getWebhookPath();
+        SetWebhook request = new SetWebhook()
+                .url(url)
+                .secretToken(botConfig.getWebhookSecret())
+                .maxConnections(botConfig.getWebhookMaxConnections());
+
+        BaseResponse response = bot.execute(request);
+        if (!response.isOk()) {
+            throw new IllegalStateException("Failed to register webhook: " + response.description());
         }
+        log.info("action=webhook_registered, username={}, path={}", botConfig.getUsername(), botConfig.getWebhookPath());
     }
 
-    public void sendDocument(Long chatId, String fileId, String caption) {
-        try {
-            SendDocument request = new SendDocument(chatId, fileId)
-                    .caption(caption)
-                    .parseMode(ParseMode.HTML);
+    // getUpdates is rejected with 409 while a webhook is set, e.g. left over from a previous webhook deployment.
+    // Pending updates are kept so switching modes loses nothing.
+    public void removeWebhook() {
+        BaseResponse response = bot.execute(new DeleteWebhook().dropPendingUpdates(false));
+        if (!response.isOk()) {
+            throw new IllegalStateException("Failed to delete webhook: " + response.description());
+        }
+        log.info("action=webhook_deleted, username={}", botConfig.getUsername());
+    }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=document_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_document_failed, chat_id={}, error={}", chatId, response.description());
-            }
+    private void awaitDurable(List<CompletableFuture<Void>> pending, int lastUpdateId) {
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                    .get(DURABLE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
-            log.error("action=send_document_failed, chat_id={}, error={}", chatId, e.getMessage());
+            log.error("action=update_batch_not_durable, last_update_id={}, error={}",
+                    lastUpdateId, e.getMessage());
         }
     }
 
-    public void sendVideoNote(Long chatId, String fileId) {
-        try {
-            SendVideoNote request = new SendVideoNote(chatId, fileId);
+    @PreDestroy
+    public void shutdown() {
+        if (bot != null) {
+            bot.removeGetUpdatesListener();
+            bot.shutdown();
+            log.info("action=bot_shutdown");
+        }
+    }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=video_note_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_video_note_failed, chat_id={}, error={}", chatId, response.description());
-            }
-        } catch (Exception e) {
-            log.error("action=send_video_note_failed, chat_id={}, error={}", chatId, e.getMessage());
+    public CompletableFuture<Boolean> sendTextMessage(Long chatId, String text) {
+        SendMessage request = new SendMessage(chatId, text)
+                .parseMode(ParseMode.HTML)
+                .linkPreviewOptions(new LinkPreviewOptions().isDisabled(true));
+        return sendScheduler.submit(chatId, "message", () -> executeAsync(request));
+    }
+
+    public CompletableFuture<Boolean> sendPhoto(Long chatId, String fileId, String caption) {
+        SendPhoto request = new SendPhoto(chatId, fileId)
+                .caption(caption)
+                .parseMode(ParseMode.HTML);
+        return sendScheduler.submit(chatId, "photo", () -> executeAsync(request));
+    }
+
+    public CompletableFuture<Boolean> sendVideo(Long chatId, String fileId, String caption) {
+        SendVideo request = new SendVideo(chatId, fileId)
+                .caption(caption)
+                .parseMode(ParseMode.HTML);
+        return sendScheduler.submit(chatId, "video", () -> executeAsync(request));
+    }
+
+    public CompletableFuture<Boolean> sendDocument(Long chatId, String fileId, String caption) {
+        SendDocument request = new SendDocument(chatId, fileId)
+                .caption(caption)
+                .parseMode(ParseMode.HTML);
+        return sendScheduler.submit(chatId, "document", () -> executeAsync(request));
+    }
+
+    public CompletableFuture<Boolean> sendVideoNote(Long chatId, String fileId) {
+        SendVideoNote request = new SendVideoNote(chatId, fileId);
+        return sendScheduler.submit(chatId, "video_note", () -> executeAsync(request));
+    }
+
+    public CompletableFuture<Boolean> sendVoice(Long chatId, String fileId, String caption) {
+        SendVoice request = new SendVoice(chatId, fileId)
+                .caption(caption)
+                .parseMode(ParseMode.HTML);
+        return sendScheduler.submit(chatId, "voice", () -> executeAsync(request));
+    }
+
+    // Telegram only groups photos with videos, documents with documents and audio with audio
+    public CompletableFuture<Boolean> sendMediaGroup(Long chatId, List<MediaItem> items) {
+        InputMedia<?>[] media = new InputMedia<?>[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            MediaItem item = items.get(i);
+            media[i] = switch (item.type()) {
+                case PHOTO -> new InputMediaPhoto(item.fileId()).caption(item.caption()).parseMode(ParseMode.HTML);
+                case VIDEO -> new InputMediaVideo(item.fileId()).caption(item.caption()).parseMode(ParseMode.HTML);
+                case DOCUMENT -> new InputMediaDocument(item.fileId()).caption(item.caption()).parseMode(ParseMode.HTML);
+                case AUDIO -> new InputMediaAudio(item.fileId()).caption(item.caption()).parseMode(ParseMode.HTML);
+                default -> throw new IllegalArgumentException("Media type cannot be grouped: " + item.type());
+            };
         }
+        SendMediaGroup request = new SendMediaGroup(chatId, media);
+        return sendScheduler.submit(chatId, "media_group", () -> executeAsync(request));
     }
 
-    public void sendVoice(Long chatId, String fileId, String caption) {
-        try {
-            SendVoice request = new SendVoice(chatId, fileId)
-                    .caption(caption)
-                    .parseMode(ParseMode.HTML);
+    public CompletableFuture<Boolean> sendSticker(Long chatId, String fileId) {
+        SendSticker request = new SendSticker(chatId, fileId);
+        return sendScheduler.submit(chatId, "sticker", () -> executeAsync(request));
+    }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=voice_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_voice_failed, chat_id={}, error={}", chatId, response.description());
+    // Blocking; used by MediaArchiver workers, which bound their own concurrency
+    public GetFileResponse getFile(String fileId) {
+        return bot.execute(new GetFile(fileId));
+    }
+
+    // Streams the file body into out without buffering it; returns the number of bytes copied
+    public long downloadFile(File file, OutputStream out) throws IOException {
+        Request request = new Request.Builder().url(bot.getFullFilePath(file)).build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("File download failed with HTTP " + response.code());
             }
-        } catch (Exception e) {
-            log.error("action=send_voice_failed, chat_id={}, error={}", chatId, e.getMessage());
+            return body.byteStream().transferTo(out);
         }
     }
 
-    public void sendSticker(Long chatId, String fileId) {
-        try {
-            SendSticker request = new SendSticker(chatId, fileId);
+    // Re-uploads an archived copy when the original file id can no longer be sent
+    public CompletableFuture<Boolean> uploadMedia(Long chatId, MediaType type, Path path, String caption) {
+        java.io.File file = path.toFile();
+        return switch (type) {
+            case PHOTO -> sendScheduler.submit(chatId, "upload_photo", () -> executeAsync(
+                    new SendPhoto(chatId, file).caption(caption).parseMode(ParseMode.HTML)));
+            case VIDEO, ANIMATION -> sendScheduler.submit(chatId, "upload_video", () -> executeAsync(
+                    new SendVideo(chatId, file).caption(caption).parseMode(ParseMode.HTML)));
+            case VIDEO_NOTE -> sendScheduler.submit(chatId, "upload_video_note", () -> executeAsync(
+                    new SendVideoNote(chatId, file)));
+            case VOICE -> sendScheduler.submit(chatId, "upload_voice", () -> executeAsync(
+                    new SendVoice(chatId, file).caption(caption).parseMode(ParseMode.HTML)));
+            case STICKER -> sendScheduler.submit(chatId, "upload_sticker", () -> executeAsync(
+                    new SendSticker(chatId, file)));
+            case DOCUMENT, AUDIO -> sendScheduler.submit(chatId, "upload_document", () -> executeAsync(
+                    new SendDocument(chatId, file).caption(caption).parseMode(ParseMode.HTML)));
+            case NONE -> CompletableFuture.completedFuture(true);
+        };
+    }
 
-            SendResponse response = bot.execute(request);
-            if (response.isOk()) {
-                log.debug("action=sticker_sent, chat_id={}", chatId);
-            } else {
-                log.error("action=send_sticker_failed, chat_id={}, error={}", chatId, response.description());
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> executeAsync(T request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        bot.execute(request, new Callback<T, R>() {
+            @Override
+            public void onResponse(T sentRequest, R response) {
+                future.complete(response);
             }
-        } catch (Exception e) {
-            log.error("action=send_sticker_failed, chat_id={}, error={}", chatId, e.getMessage());
-        }
+
+            @Override
+            public void onFailure(T sentRequest, IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 }
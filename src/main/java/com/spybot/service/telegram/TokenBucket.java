@@ -0,0 +1,44 @@
+package com.spybot.service.telegram;
+
+import java.util.concurrent.TimeUnit;
+
+// Token bucket that hands out reservations: tokens may go negative, and the caller gets the
+// time at which its token becomes available instead of being rejected.
+class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double tokensPerSecond, double capacity, long nowNanos) {
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    synchronized long reserve(long nowNanos) {
+        refill(nowNanos);
+        tokens -= 1;
+        if (tokens >= 0) {
+            return nowNanos;
+        }
+        return nowNanos + (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    // Used for 429 responses: no token is available before the given time
+    synchronized void pauseUntil(long nowNanos, long untilNanos) {
+        refill(nowNanos);
+        tokens = Math.min(tokens, -(untilNanos - nowNanos) * tokensPerNano);
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.spybot.service.telegram;
+
+import com.spybot.service.ingest.MessageWriteBuffer;
+import com.spybot.service.outbox.NotificationOutbox;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+// Stops intake while downstream queues are too deep. The backlog is the write buffer and dispatch
+// lanes, which the polling loop itself drains before it checks, plus what they feed: sends waiting
+// in OutboundSendScheduler and outbox events not handed to it yet. Each unit is counted in the stage
+// it is in. Intake pauses when the backlog reaches the high watermark and resumes only once it has
+// drained to the low watermark, so it does not flap around a single threshold.
+@Component
+@Slf4j
+public class UpdateBackpressure {
+
+    private static final long CHECK_INTERVAL_MS = 50;
+
+    private final MessageWriteBuffer messageWriteBuffer;
+    private final DispatchLanes dispatchLanes;
+    private final OutboundSendScheduler sendScheduler;
+    private final NotificationOutbox notificationOutbox;
+    private final boolean enabled;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final Counter pausedCounter;
+
+    private volatile boolean paused;
+
+    public UpdateBackpressure(MessageWriteBuffer messageWriteBuffer,
+                              DispatchLanes dispatchLanes,
+                              OutboundSendScheduler sendScheduler,
+                              NotificationOutbox notificationOutbox,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.backpressure.enabled:true}") boolean enabled,
+                              @Value("${app.backpressure.high-watermark:5000}") int highWatermark,
+                              @Value("${app.backpressure.low-watermark:1000}") int lowWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalStateException("app.backpressure.low-watermark must not exceed high-watermark");
+        }
+        this.messageWriteBuffer = messageWriteBuffer;
+        this.dispatchLanes = dispatchLanes;
+        this.sendScheduler = sendScheduler;
+        this.notificationOutbox = notificationOutbox;
+        this.enabled = enabled;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+
+        this.pausedCounter = meterRegistry.counter("spybot.backpressure.pauses");
+        Gauge.builder("spybot.backpressure.backlog", this, UpdateBackpressure::backlog).register(meterRegistry);
+        Gauge.builder("spybot.backpressure.high.watermark", () -> highWatermark).register(meterRegistry);
+        Gauge.builder("spybot.backpressure.low.watermark", () -> lowWatermark).register(meterRegistry);
+        Gauge.builder("spybot.backpressure.paused", this, b -> b.paused ? 1 : 0).register(meterRegistry);
+    }
+
+    public int backlog() {
+        return messageWriteBuffer.pendingCount() + dispatchLanes.queuedTasks()
+                + sendScheduler.queuedSends() + notificationOutbox.pendingEvents();
+    }
+
+    public synchronized boolean isPaused() {
+        if (!enabled) {
+            return false;
+        }
+        int backlog = backlog();
+        if (paused && backlog <= lowWatermark) {
+            paused = false;
+            log.info("action=intake_resumed, backlog={}, low_watermark={}", backlog, lowWatermark);
+        } else if (!paused && backlog >= highWatermark) {
+            paused = true;
+            pausedCounter.increment();
+            log.warn("action=intake_paused, backlog={}, high_watermark={}", backlog, highWatermark);
+        }
+        return paused;
+    }
+
+    // Blocks the polling thread, which delays the next getUpdates call
+    public void awaitCapacity() throws InterruptedException {
+        while (isPaused()) {
+            TimeUnit.MILLISECONDS.sleep(CHECK_INTERVAL_MS);
+        }
+    }
+}
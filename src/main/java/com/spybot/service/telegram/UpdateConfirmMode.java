@@ -0,0 +1,8 @@
+package com.spybot.service.telegram;
+
+public enum UpdateConfirmMode {
+    // Offset moves past the whole batch, even if some updates failed
+    AT_MOST_ONCE,
+    // Offset moves only past the updates that completed; the rest is fetched again
+    AT_LEAST_ONCE
+}
@@ -0,0 +1,70 @@
+package com.spybot.service.telegram;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Sliding dedup window over update_id. Each slot holds the latest update_id that hashed into it;
+// since ids grow monotonically, a slot holding a larger id means the window has moved past.
+// Lock-free, constant memory, no allocation per update. Nothing survives a restart: updates that
+// Telegram redelivers then are stored idempotently.
+@Component
+@Slf4j
+public class UpdateDedupWindow {
+
+    private final AtomicIntegerArray slots;
+    private final int mask;
+
+    // Highest update_id accepted since start or since the last sequence reset
+    private final AtomicInteger highest = new AtomicInteger();
+
+    public UpdateDedupWindow(@Value("${app.dedup.window-size:16384}") int windowSize) {
+        int capacity = Integer.highestOneBit(Math.max(windowSize - 1, 1)) << 1;
+        this.slots = new AtomicIntegerArray(capacity);
+        this.mask = capacity - 1;
+        log.info("action=dedup_window_initialized, capacity={}", capacity);
+    }
+
+    public boolean markIfNew(int updateId) {
+        if (updateId < highest.get() - slots.length()) {
+            resetIfStillBehind(updateId);
+        }
+        int index = updateId & mask;
+        while (true) {
+            int current = slots.get(index);
+            if (current >= updateId) {
+                return false;
+            }
+            if (slots.compareAndSet(index, current, updateId)) {
+                highest.accumulateAndGet(updateId, Math::max);
+                return true;
+            }
+        }
+    }
+
+    // Undoes markIfNew so the redelivered copy is processed. A slot is only reused after window-size
+    // newer ids, far more than one getUpdates batch, so the CAS fails only on misconfiguration.
+    public void release(int updateId) {
+        if (!slots.compareAndSet(updateId & mask, updateId, 0)) {
+            log.warn("action=dedup_release_skipped, update_id={}, reason=slot_reused", updateId);
+        }
+    }
+
+    // Telegram may start update_id over from a lower value after a week without updates. An id more
+    // than a whole window behind cannot be a redelivery of one still tracked, so the window starts
+    // over instead of rejecting the new sequence as duplicates.
+    private synchronized void resetIfStillBehind(int updateId) {
+        int previous = highest.get();
+        if (updateId >= previous - slots.length()) {
+            return;
+        }
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+        highest.set(updateId);
+        log.warn("action=dedup_window_reset, update_id={}, previous_highest={}", updateId, previous);
+    }
+}
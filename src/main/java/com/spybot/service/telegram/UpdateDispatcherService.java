@@ -9,12 +9,16 @@ import com.spybot.service.handler.BusinessMessageHandler;
 import com.spybot.service.handler.CommandHandler;
 import com.spybot.service.handler.DeletedMessageHandler;
 import com.spybot.service.handler.EditedMessageHandler;
+import com.spybot.service.ingest.MessageWriteBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -26,61 +30,156 @@ public class UpdateDispatcherService {
     private final EditedMessageHandler editedMessageHandler;
     private final DeletedMessageHandler deletedMessageHandler;
     private final CommandHandler commandHandler;
+    private final MessageWriteBuffer messageWriteBuffer;
+    private final UpdateDedupWindow dedupWindow;
+    private final DispatchLanes dispatchLanes;
+    private final MeterRegistry meterRegistry;
 
-    // Защита от дублирования обработки update
-    private final Set<Integer> processedUpdateIds = ConcurrentHashMap.newKeySet();
-    private static final int MAX_PROCESSED_IDS = 10000;
+    @Value("${app.dispatch.mode:SEQUENTIAL}")
+    private DispatchMode dispatchMode;
 
-    public void dispatch(Update update) {
+    public CompletableFuture<Void> dispatch(Update update) {
         int updateId = update.updateId();
 
         // Проверка на дублирование
-        if (!processedUpdateIds.add(updateId)) {
+        if (!dedupWindow.markIfNew(updateId)) {
+            meterRegistry.counter("spybot.update.duplicates").increment();
             log.debug("action=skip_duplicate_update, update_id={}", updateId);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        // Очистка старых ID для предотвращения утечки памяти
-        if (processedUpdateIds.size() > MAX_PROCESSED_IDS) {
-            processedUpdateIds.clear();
-            processedUpdateIds.add(updateId);
+        if (dispatchMode == DispatchMode.PARALLEL) {
+            return dispatchLanes.submit(laneKey(update), () -> route(update));
         }
+        return route(update);
+    }
 
-        log.debug("action=dispatch_update, update_id={}", updateId);
+    private CompletableFuture<Void> route(Update update) {
+        int updateId = update.updateId();
+        String type = updateType(update);
+        log.debug("action=dispatch_update, update_id={}, type={}", updateId, type);
+        recordIngestLag(update, type);
 
+        long started = System.nanoTime();
+        CompletableFuture<Void> result;
         try {
-            BusinessConnection businessConnection = update.businessConnection();
-            Message businessMessage = update.businessMessage();
-            Message editedBusinessMessage = update.editedBusinessMessage();
-            BusinessMessageDeleted deletedBusinessMessages = update.deletedBusinessMessages();
-            Message directMessage = update.message();
-
-            if (businessConnection != null) {
-                log.info("action=received_business_connection, connection_id={}",
-                        businessConnection.id());
-                businessConnectionHandler.handle(businessConnection);
-            } else if (businessMessage != null) {
-                log.debug("action=received_business_message, message_id={}, chat_id={}",
-                        businessMessage.messageId(),
-                        businessMessage.chat().id());
-                businessMessageHandler.handle(businessMessage);
-            } else if (editedBusinessMessage != null) {
-                log.info("action=received_edited_business_message, message_id={}, chat_id={}",
-                        editedBusinessMessage.messageId(),
-                        editedBusinessMessage.chat().id());
-                editedMessageHandler.handle(editedBusinessMessage);
-            } else if (deletedBusinessMessages != null) {
-                log.info("action=received_deleted_business_messages, chat_id={}, count={}",
-                        deletedBusinessMessages.chat().id(),
-                        deletedBusinessMessages.messageIds().length);
-                deletedMessageHandler.handle(deletedBusinessMessages);
-            } else if (directMessage != null) {
-                handleDirectMessage(directMessage);
-            }
+            result = handle(update);
         } catch (Exception e) {
             log.error("action=dispatch_failed, update_id={}, error={}",
                     updateId, e.getMessage(), e);
+            recordDispatch(type, "error", started);
+            // Failed, not completed: in AT_LEAST_ONCE mode the update is not confirmed and comes again
+            return CompletableFuture.failedFuture(e);
+        }
+        // New messages complete once their batch is written, so the timer covers the group commit too
+        result.whenComplete((ignored, error) -> recordDispatch(type, error == null ? "success" : "error", started));
+        return result;
+    }
+
+    private CompletableFuture<Void> handle(Update update) {
+        BusinessConnection businessConnection = update.businessConnection();
+        Message businessMessage = update.businessMessage();
+        Message editedBusinessMessage = update.editedBusinessMessage();
+        BusinessMessageDeleted deletedBusinessMessages = update.deletedBusinessMessages();
+        Message directMessage = update.message();
+
+        if (businessConnection != null) {
+            log.info("action=received_business_connection, connection_id={}",
+                    businessConnection.id());
+            businessConnectionHandler.handle(businessConnection);
+        } else if (businessMessage != null) {
+            log.debug("action=received_business_message, message_id={}, chat_id={}",
+                    businessMessage.messageId(),
+                    businessMessage.chat().id());
+            return businessMessageHandler.handle(businessMessage);
+        } else if (editedBusinessMessage != null) {
+            log.info("action=received_edited_business_message, message_id={}, chat_id={}",
+                    editedBusinessMessage.messageId(),
+                    editedBusinessMessage.chat().id());
+            // Оригинал может ещё находиться в буфере записи
+            messageWriteBuffer.awaitPending(editedBusinessMessage.businessConnectionId(),
+                    editedBusinessMessage.chat().id());
+            editedMessageHandler.handle(editedBusinessMessage);
+        } else if (deletedBusinessMessages != null) {
+            log.info("action=received_deleted_business_messages, chat_id={}, count={}",
+                    deletedBusinessMessages.chat().id(),
+                    deletedBusinessMessages.messageIds().length);
+            messageWriteBuffer.awaitPending(deletedBusinessMessages.businessConnectionId(),
+                    deletedBusinessMessages.chat().id());
+            deletedMessageHandler.handle(deletedBusinessMessages);
+        } else if (directMessage != null) {
+            handleDirectMessage(directMessage);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Tag values are fixed names, never ids, to keep metric cardinality bounded
+    private static String updateType(Update update) {
+        if (update.businessConnection() != null) return "business_connection";
+        if (update.businessMessage() != null) return "business_message";
+        if (update.editedBusinessMessage() != null) return "edited_business_message";
+        if (update.deletedBusinessMessages() != null) return "deleted_business_messages";
+        if (update.message() != null) return "message";
+        return "other";
+    }
+
+    private void recordDispatch(String type, String outcome, long startedNanos) {
+        Timer.builder("spybot.update.dispatch")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Time between the event in Telegram (second precision) and its arrival here
+    private void recordIngestLag(Update update, String type) {
+        Integer eventDate = null;
+        if (update.businessMessage() != null) {
+            eventDate = update.businessMessage().date();
+        } else if (update.editedBusinessMessage() != null) {
+            Message edited = update.editedBusinessMessage();
+            eventDate = edited.editDate() != null ? edited.editDate() : edited.date();
+        } else if (update.businessConnection() != null) {
+            eventDate = update.businessConnection().date();
+        }
+        if (eventDate == null) {
+            return;
+        }
+        long lagMs = Math.max(0, System.currentTimeMillis() - eventDate * 1000L);
+        Timer.builder("spybot.update.ingest.lag")
+                .tag("type", type)
+                .register(meterRegistry)
+                .record(lagMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Messages, edits and deletes of one chat land on one lane, so edits and deletes never overtake
+    // their messages while other chats of the same connection run in parallel. Connection updates are
+    // keyed by the connection. Also used to decide which updates are redelivered.
+    public Object laneKey(Update update) {
+        if (update.businessConnection() != null) {
+            return update.businessConnection().id();
+        }
+        if (update.businessMessage() != null) {
+            Message message = update.businessMessage();
+            return new ChatLane(message.businessConnectionId(), message.chat().id());
         }
+        if (update.editedBusinessMessage() != null) {
+            Message edited = update.editedBusinessMessage();
+            return new ChatLane(edited.businessConnectionId(), edited.chat().id());
+        }
+        if (update.deletedBusinessMessages() != null) {
+            BusinessMessageDeleted deleted = update.deletedBusinessMessages();
+            return new ChatLane(deleted.businessConnectionId(), deleted.chat().id());
+        }
+        if (update.message() != null) {
+            return update.message().chat().id();
+        }
+        return update.updateId();
+    }
+
+    // The update will be delivered again and must not be skipped as a duplicate then
+    public void release(int updateId) {
+        dedupWindow.release(updateId);
     }
 
     private void handleDirectMessage(Message message) {
@@ -93,4 +192,7 @@ public class UpdateDispatcherService {
             }
         }
     }
+
+    private record ChatLane(String connectionId, Long chatId) {
+    }
 }
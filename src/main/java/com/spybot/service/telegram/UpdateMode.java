@@ -0,0 +1,6 @@
+package com.spybot.service.telegram;
+
+public enum UpdateMode {
+    POLLING,
+    WEBHOOK
+}
@@ -0,0 +1,101 @@
+package com.spybot.web;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.spybot.config.TelegramBotConfig;
+import com.spybot.service.telegram.UpdateBackpressure;
+import com.spybot.service.telegram.UpdateConfirmMode;
+import com.spybot.service.telegram.UpdateDispatcherService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "telegram.bot", name = "update-mode", havingValue = "WEBHOOK")
+public class WebhookController {
+
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    // Stays below Telegram's own webhook timeout, so a slow write is retried rather than lost
+    private static final long DURABLE_WAIT_MS = 30_000;
+
+    private final TelegramBotConfig botConfig;
+    private final UpdateDispatcherService updateDispatcher;
+    private final UpdateBackpressure backpressure;
+
+    private long durableWaitMs = DURABLE_WAIT_MS;
+
+    @PostMapping("${telegram.bot.webhook-path:/api/webhook}")
+    public CompletableFuture<ResponseEntity<Void>> receiveUpdate(
+            @RequestHeader(name = SECRET_HEADER, required = false) String secretToken,
+            HttpServletRequest request) throws IOException {
+        if (!isValidSecret(secretToken)) {
+            log.warn("action=webhook_rejected, reason=invalid_secret, remote_addr={}", request.getRemoteAddr());
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).build());
+        }
+
+        // Telegram redelivers on non-2xx responses, which makes it hold updates back while we catch up
+        if (backpressure.isPaused()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        }
+
+        // Parse straight from the request stream, without buffering the body into a String
+        Update update;
+        try (Reader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            update = BotUtils.parseUpdate(reader);
+        }
+        if (update == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        CompletableFuture<Void> durable = updateDispatcher.dispatch(update);
+        if (botConfig.getConfirmMode() == UpdateConfirmMode.AT_MOST_ONCE) {
+            // Acknowledge once the update is handed off; a failure is only logged
+            durable.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    log.error("action=webhook_update_failed, update_id={}, error={}",
+                            update.updateId(), error.getMessage());
+                }
+            });
+            return CompletableFuture.completedFuture(ResponseEntity.ok().build());
+        }
+
+        // AT_LEAST_ONCE: answer when the update is stored. On failure it is released from the dedup
+        // window and Telegram, seeing the error, delivers it again.
+        return durable.copy().orTimeout(durableWaitMs, TimeUnit.MILLISECONDS)
+                .handle((ignored, error) -> {
+                    if (error == null) {
+                        return ResponseEntity.ok().<Void>build();
+                    }
+                    updateDispatcher.release(update.updateId());
+                    log.error("action=webhook_update_failed, update_id={}, redelivery=requested, error={}",
+                            update.updateId(), error.getMessage());
+                    return ResponseEntity.internalServerError().<Void>build();
+                });
+    }
+
+    private boolean isValidSecret(String secretToken) {
+        String expected = botConfig.getWebhookSecret();
+        if (secretToken == null || expected == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                secretToken.getBytes(StandardCharsets.UTF_8),
+                expected.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,20 @@
+-- Sender profiles are kept once per user instead of on every stored message
+CREATE TABLE senders (
+    user_id BIGINT PRIMARY KEY,
+    username VARCHAR(255),
+    first_name VARCHAR(255),
+    last_name VARCHAR(255),
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW()
+);
+
+-- The most recent profile seen for each sender
+INSERT INTO senders (user_id, username, first_name, last_name)
+SELECT DISTINCT ON (from_user_id) from_user_id, from_username, from_first_name, from_last_name
+FROM stored_messages
+ORDER BY from_user_id, message_date DESC;
+
+-- Dropping is a catalog change only; old rows shrink as partitions are rewritten or expire
+ALTER TABLE stored_messages
+    DROP COLUMN from_username,
+    DROP COLUMN from_first_name,
+    DROP COLUMN from_last_name;
@@ -0,0 +1,6 @@
+-- Edit events store encrypted reverse deltas (current version -> previous version) instead of
+-- full old/new copies. Events written before this keep their full copies (delta_encoded = false).
+-- Constant defaults make these catalog-only changes.
+ALTER TABLE message_events ADD COLUMN encrypted_text_delta BYTEA;
+ALTER TABLE message_events ADD COLUMN encrypted_caption_delta BYTEA;
+ALTER TABLE message_events ADD COLUMN delta_encoded BOOLEAN NOT NULL DEFAULT false;
@@ -0,0 +1,13 @@
+-- MediaArchiver copies media to encrypted local files and records them in encrypted_media_path.
+-- These columns track claims (a lease, as in the outbox) and attempts for rows still to archive.
+-- Runs outside a transaction (CREATE INDEX CONCURRENTLY; spring.flyway.mixed=true).
+ALTER TABLE stored_messages ADD COLUMN media_archive_attempts INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE stored_messages ADD COLUMN media_archive_claimed_until TIMESTAMP WITH TIME ZONE;
+
+-- The archiver poll only looks at media rows without an archive copy. As in V9: the legacy
+-- partition is indexed without blocking writes, then the partitioned index attaches it and only
+-- builds the small daily partitions
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_stored_message_media_pending_legacy
+    ON stored_messages_legacy (id) WHERE media_file_id IS NOT NULL AND encrypted_media_path IS NULL;
+CREATE INDEX idx_stored_message_media_pending
+    ON stored_messages (id) WHERE media_file_id IS NOT NULL AND encrypted_media_path IS NULL;
@@ -0,0 +1,14 @@
+-- Events that used up app.outbox.max-attempts are dead-lettered: notify_failed_at is set and they
+-- leave the outbox index, so the poll no longer walks over them. Events already exhausted are
+-- marked by NotificationOutbox on its first pass, with the configured limit.
+-- Runs outside a transaction (CREATE INDEX CONCURRENTLY; spring.flyway.mixed=true).
+ALTER TABLE message_events ADD COLUMN notify_failed_at TIMESTAMP WITH TIME ZONE;
+
+-- As in V9: the legacy partition is indexed without blocking writes, then the partitioned index
+-- attaches it and only builds the small daily partitions
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_message_event_pending_legacy
+    ON message_events_legacy (id) WHERE user_notified = false AND notify_failed_at IS NULL;
+CREATE INDEX idx_message_event_pending
+    ON message_events (id) WHERE user_notified = false AND notify_failed_at IS NULL;
+
+DROP INDEX idx_message_event_unnotified;
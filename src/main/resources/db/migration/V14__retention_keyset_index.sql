@@ -0,0 +1,9 @@
+-- RetentionPurgeJob walks stored_messages by its partition key, (message_date, id), instead of by id;
+-- message_events already has idx_message_event_time for the same walk over event_time.
+-- Runs outside a transaction (CREATE INDEX CONCURRENTLY; spring.flyway.mixed=true).
+
+-- As in V9: the legacy partition is indexed without blocking writes, then the partitioned index
+-- attaches it and only builds the small daily partitions
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_stored_message_date_legacy
+    ON stored_messages_legacy (message_date, id);
+CREATE INDEX idx_stored_message_date ON stored_messages (message_date, id);
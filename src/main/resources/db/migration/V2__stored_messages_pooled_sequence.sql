@@ -0,0 +1,5 @@
+-- Pooled id allocation for stored_messages so Hibernate can batch inserts.
+-- The increment must match allocationSize of the StoredMessage id generator.
+-- Superseded by V9: ingestion moved to a multi-row INSERT ... ON CONFLICT that takes ids from the column
+-- default, so the increment is set back to 1 there.
+ALTER SEQUENCE stored_messages_id_seq INCREMENT BY 50;
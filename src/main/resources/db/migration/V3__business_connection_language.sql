@@ -0,0 +1,2 @@
+-- Language of the connected user, used to localize notifications
+ALTER TABLE business_connections ADD COLUMN language_code VARCHAR(16);
@@ -0,0 +1,6 @@
+-- Small key/value store for runtime state that must survive restarts
+CREATE TABLE bot_state (
+    state_key VARCHAR(100) PRIMARY KEY,
+    state_value BIGINT NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW()
+);
@@ -0,0 +1,10 @@
+-- message_events becomes the notification outbox.
+-- Events recorded before the outbox were already notified directly.
+UPDATE message_events SET user_notified = true, notified_at = NOW() WHERE user_notified = false;
+
+ALTER TABLE message_events ADD COLUMN claimed_until TIMESTAMP WITH TIME ZONE;
+ALTER TABLE message_events ADD COLUMN notify_attempts INTEGER NOT NULL DEFAULT 0;
+
+-- The outbox poll only touches unnotified rows; keep that index small as the table grows
+DROP INDEX idx_message_event_notified;
+CREATE INDEX idx_message_event_unnotified ON message_events(id) WHERE user_notified = false;
@@ -0,0 +1,10 @@
+-- Ciphertext is stored as raw nonce || ciphertext || tag bytes instead of Base64 text.
+-- The TEXT columns stay as legacy storage until CiphertextBackfillJob has moved every row;
+-- rows written from now on only use the *_bin columns.
+ALTER TABLE stored_messages ADD COLUMN encrypted_text_bin BYTEA;
+ALTER TABLE stored_messages ADD COLUMN encrypted_caption_bin BYTEA;
+
+ALTER TABLE message_events ADD COLUMN encrypted_old_text_bin BYTEA;
+ALTER TABLE message_events ADD COLUMN encrypted_new_text_bin BYTEA;
+ALTER TABLE message_events ADD COLUMN encrypted_old_caption_bin BYTEA;
+ALTER TABLE message_events ADD COLUMN encrypted_new_caption_bin BYTEA;
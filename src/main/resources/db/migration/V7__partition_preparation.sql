@@ -0,0 +1,31 @@
+-- Preparation for V8 (daily partitioning), done without write-blocking locks on the live tables:
+-- unique indexes matching the partitioned primary keys are built concurrently, and the partition
+-- bound of the existing data is enforced by CHECK constraints validated online, so V8 can attach
+-- the existing tables as partitions without rebuilding indexes or rescanning rows.
+-- CREATE INDEX CONCURRENTLY runs outside a transaction (spring.flyway.mixed=true).
+
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS stored_messages_id_message_date_key
+    ON stored_messages (id, message_date);
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS message_events_id_event_time_key
+    ON message_events (id, event_time);
+
+-- Everything up to the end of tomorrow (UTC) stays in the legacy partition
+INSERT INTO bot_state (state_key, state_value, updated_at)
+VALUES ('partition.legacy_upper_bound',
+        EXTRACT(EPOCH FROM date_trunc('day', NOW() AT TIME ZONE 'UTC') + INTERVAL '2 days')::BIGINT,
+        NOW())
+ON CONFLICT (state_key) DO NOTHING;
+
+DO $$
+DECLARE
+    upper_bound TIMESTAMPTZ := to_timestamp(
+            (SELECT state_value FROM bot_state WHERE state_key = 'partition.legacy_upper_bound'));
+BEGIN
+    EXECUTE format('ALTER TABLE stored_messages ADD CONSTRAINT stored_messages_legacy_bound '
+                       'CHECK (message_date < %L) NOT VALID', upper_bound);
+    EXECUTE format('ALTER TABLE message_events ADD CONSTRAINT message_events_legacy_bound '
+                       'CHECK (event_time < %L) NOT VALID', upper_bound);
+END $$;
+
+ALTER TABLE stored_messages VALIDATE CONSTRAINT stored_messages_legacy_bound;
+ALTER TABLE message_events VALIDATE CONSTRAINT message_events_legacy_bound;
@@ -0,0 +1,76 @@
+-- stored_messages is range-partitioned by message_date and message_events by event_time, one
+-- partition per UTC day. The existing tables become the *_legacy partitions covering everything
+-- before the bound chosen in V7; PartitionMaintenanceJob creates daily partitions ahead of time
+-- and drops them once they fall out of retention.
+-- Partitioned tables cannot be referenced by foreign keys, so message_events no longer cascades
+-- from stored_messages; both tables are expired by their own partitions.
+
+ALTER TABLE message_events DROP CONSTRAINT IF EXISTS message_events_stored_message_id_fkey;
+
+-- Legacy stored_messages: primary key switches to the (id, message_date) index built in V7
+ALTER TABLE stored_messages RENAME TO stored_messages_legacy;
+ALTER TABLE stored_messages_legacy DROP CONSTRAINT stored_messages_pkey;
+ALTER TABLE stored_messages_legacy
+    ADD CONSTRAINT stored_messages_legacy_pkey PRIMARY KEY USING INDEX stored_messages_id_message_date_key;
+ALTER INDEX idx_stored_message_chat_message RENAME TO idx_stored_message_chat_message_legacy;
+ALTER INDEX idx_stored_message_connection RENAME TO idx_stored_message_connection_legacy;
+ALTER INDEX idx_stored_message_from_user RENAME TO idx_stored_message_from_user_legacy;
+ALTER INDEX idx_stored_message_stored_at RENAME TO idx_stored_message_stored_at_legacy;
+
+-- Legacy message_events
+ALTER TABLE message_events RENAME TO message_events_legacy;
+ALTER TABLE message_events_legacy DROP CONSTRAINT message_events_pkey;
+ALTER TABLE message_events_legacy
+    ADD CONSTRAINT message_events_legacy_pkey PRIMARY KEY USING INDEX message_events_id_event_time_key;
+ALTER INDEX idx_message_event_stored_message RENAME TO idx_message_event_stored_message_legacy;
+ALTER INDEX idx_message_event_type RENAME TO idx_message_event_type_legacy;
+ALTER INDEX idx_message_event_time RENAME TO idx_message_event_time_legacy;
+ALTER INDEX idx_message_event_unnotified RENAME TO idx_message_event_unnotified_legacy;
+
+-- Partitioned parents; ids keep coming from the existing sequences
+CREATE TABLE stored_messages (LIKE stored_messages_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (message_date);
+ALTER TABLE stored_messages ADD PRIMARY KEY (id, message_date);
+ALTER SEQUENCE stored_messages_id_seq OWNED BY stored_messages.id;
+
+CREATE TABLE message_events (LIKE message_events_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (event_time);
+ALTER TABLE message_events ADD PRIMARY KEY (id, event_time);
+ALTER SEQUENCE message_events_id_seq OWNED BY message_events.id;
+
+-- The CHECK constraints from V7 imply the partition bounds, so ATTACH skips the validation scan
+DO $$
+DECLARE
+    upper_bound TIMESTAMPTZ := to_timestamp(
+            (SELECT state_value FROM bot_state WHERE state_key = 'partition.legacy_upper_bound'));
+    day_start TIMESTAMPTZ;
+BEGIN
+    EXECUTE format('ALTER TABLE stored_messages ATTACH PARTITION stored_messages_legacy '
+                       'FOR VALUES FROM (MINVALUE) TO (%L)', upper_bound);
+    EXECUTE format('ALTER TABLE message_events ATTACH PARTITION message_events_legacy '
+                       'FOR VALUES FROM (MINVALUE) TO (%L)', upper_bound);
+
+    FOR i IN 0..6 LOOP
+        day_start := upper_bound + make_interval(days => i);
+        EXECUTE format('CREATE TABLE stored_messages_p%s PARTITION OF stored_messages FOR VALUES FROM (%L) TO (%L)',
+                       to_char(day_start AT TIME ZONE 'UTC', 'YYYYMMDD'), day_start, day_start + INTERVAL '1 day');
+        EXECUTE format('CREATE TABLE message_events_p%s PARTITION OF message_events FOR VALUES FROM (%L) TO (%L)',
+                       to_char(day_start AT TIME ZONE 'UTC', 'YYYYMMDD'), day_start, day_start + INTERVAL '1 day');
+    END LOOP;
+END $$;
+
+ALTER TABLE stored_messages_legacy DROP CONSTRAINT stored_messages_legacy_bound;
+ALTER TABLE message_events_legacy DROP CONSTRAINT message_events_legacy_bound;
+
+-- Catch-all for rows outside the pre-created range; PartitionMaintenanceJob reports it when non-empty
+CREATE TABLE stored_messages_default PARTITION OF stored_messages DEFAULT;
+CREATE TABLE message_events_default PARTITION OF message_events DEFAULT;
+
+-- Partitioned indexes; the renamed legacy indexes are attached instead of being rebuilt
+CREATE INDEX idx_stored_message_chat_message ON stored_messages(chat_id, message_id);
+CREATE INDEX idx_stored_message_connection ON stored_messages(business_connection_id);
+CREATE INDEX idx_stored_message_from_user ON stored_messages(from_user_id);
+CREATE INDEX idx_stored_message_stored_at ON stored_messages(stored_at);
+
+CREATE INDEX idx_message_event_stored_message ON message_events(stored_message_id);
+CREATE INDEX idx_message_event_type ON message_events(event_type);
+CREATE INDEX idx_message_event_time ON message_events(event_time);
+CREATE INDEX idx_message_event_unnotified ON message_events(id) WHERE user_notified = false;
@@ -0,0 +1,41 @@
+-- One row per message: (business_connection_id, chat_id, message_id) plus message_date, which a
+-- unique key on a partitioned table has to include. A redelivered update carries the same date,
+-- so ingestion becomes INSERT ... ON CONFLICT DO NOTHING.
+-- Runs outside a transaction (CREATE INDEX CONCURRENTLY; spring.flyway.mixed=true).
+
+-- Existing duplicates: events are moved to the lowest id of each key, then the extra rows removed
+WITH duplicates AS (
+    SELECT id, keep_id
+    FROM (SELECT id, MIN(id) OVER (PARTITION BY business_connection_id, chat_id, message_id, message_date) AS keep_id
+          FROM stored_messages) ranked
+    WHERE id <> keep_id
+)
+UPDATE message_events e SET stored_message_id = d.keep_id
+FROM duplicates d
+WHERE e.stored_message_id = d.id;
+
+WITH duplicates AS (
+    SELECT id
+    FROM (SELECT id, MIN(id) OVER (PARTITION BY business_connection_id, chat_id, message_id, message_date) AS keep_id
+          FROM stored_messages) ranked
+    WHERE id <> keep_id
+)
+DELETE FROM stored_messages s
+USING duplicates d
+WHERE s.id = d.id;
+
+-- The legacy partition holds nearly all rows: build its index without blocking writes, then
+-- create the partitioned index, which attaches it and only builds the small daily partitions
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS uq_stored_message_key_legacy
+    ON stored_messages_legacy (business_connection_id, chat_id, message_id, message_date);
+CREATE UNIQUE INDEX uq_stored_message_key
+    ON stored_messages (business_connection_id, chat_id, message_id, message_date);
+
+-- Every lookup now goes through the new key (business_connection_id leads it)
+DROP INDEX idx_stored_message_chat_message;
+DROP INDEX idx_stored_message_connection;
+
+-- Replaces the pooled allocation from V2. StoredMessageInsertRepository writes a whole batch in one
+-- multi-row INSERT ... ON CONFLICT DO NOTHING and every row takes its id from the column default, so a
+-- pooled increment would only burn 49 ids per row; the round trip per batch is already one statement.
+ALTER SEQUENCE stored_messages_id_seq INCREMENT BY 1;
@@ -0,0 +1,203 @@
+package com.spybot.load;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// End-to-end load run: the whole application polls FakeBotApiServer for a SyntheticUpdateStream and stores
+// into an embedded Postgres. Reports update throughput, ingest latency (update handed out by getUpdates ->
+// acknowledged by the next offset, i.e. durable) and notification latency (edit/delete update handed out ->
+// matching sendMessage received). Excluded from ./gradlew test; run with
+//   ./gradlew loadTest -Dload.updates=50000 -Dload.updates-per-second=2000 -Dload.rate-429=0.001
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+class BotLoadHarnessTest {
+
+    private static final int UPDATES = Integer.getInteger("load.updates", 20_000);
+    private static final int CONNECTIONS = Integer.getInteger("load.connections", 50);
+    private static final int CHATS_PER_CONNECTION = Integer.getInteger("load.chats-per-connection", 20);
+    // 0 hands out the whole stream at once and measures saturation throughput
+    private static final double UPDATES_PER_SECOND = Double.parseDouble(System.getProperty("load.updates-per-second", "0"));
+    private static final double PHOTO_SHARE = Double.parseDouble(System.getProperty("load.photo-share", "0.1"));
+    private static final long API_LATENCY_MS = Long.getLong("load.api-latency-ms", 20);
+    private static final double RATE_429 = Double.parseDouble(System.getProperty("load.rate-429", "0.001"));
+    private static final double RATE_5XX = Double.parseDouble(System.getProperty("load.rate-5xx", "0.005"));
+    private static final long TIMEOUT_SECONDS = Long.getLong("load.timeout-seconds", 600);
+    private static final long SEED = Long.getLong("load.seed", 42);
+
+    private static final Pattern MESSAGE_TOKEN = Pattern.compile("Ktok(\\d+)");
+    private static final Pattern EDIT_TOKEN = Pattern.compile("Etok(\\d+)");
+
+    private static EmbeddedPostgres postgres;
+    private static SyntheticUpdateStream stream;
+    private static FakeBotApiServer api;
+    private static ConfigurableApplicationContext application;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Which update deleted each message, and how many of its messages each delete update still waits for
+    private final Map<Integer, Integer> deletedBy = new HashMap<>();
+    private final Map<Integer, Integer> unreportedPerDelete = new HashMap<>();
+
+    // Runs before the context starts, so the bot begins polling an already scripted stand-in
+    @DynamicPropertySource
+    static void loadEnvironment(DynamicPropertyRegistry registry) throws IOException {
+        postgres = EmbeddedPostgres.start();
+        stream = new SyntheticUpdateStream(UPDATES, CONNECTIONS, CHATS_PER_CONNECTION, PHOTO_SHARE, SEED);
+        api = new FakeBotApiServer(stream.updates(), UPDATES_PER_SECOND, API_LATENCY_MS, RATE_429, RATE_5XX);
+        String mediaDir = Files.createTempDirectory("spybot-load-media").toString();
+
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+        registry.add("telegram.bot.token", () -> "100000:load-test");
+        registry.add("telegram.bot.username", () -> "load_test_bot");
+        registry.add("telegram.bot.api-url", api::apiUrl);
+        registry.add("encryption.secret-key", () -> Base64.getEncoder().encodeToString(new byte[32]));
+        registry.add("app.media-archive.enabled", () -> "false");
+        registry.add("app.media-archive.dir", () -> mediaDir);
+        // The stand-in has no Telegram send limits; the bot's own buckets follow load.* so they can be
+        // put back to the production values to see their effect on notification latency
+        registry.add("telegram.bot.global-rate-per-second", () -> System.getProperty("load.global-rate", "100000"));
+        registry.add("telegram.bot.per-chat-rate-per-second", () -> System.getProperty("load.per-chat-rate", "100000"));
+    }
+
+    @Autowired
+    void setApplication(ConfigurableApplicationContext context) {
+        application = context;
+    }
+
+    // The application is stopped first so that its shutdown does not race Postgres and the stand-in
+    @AfterAll
+    static void stopEnvironment() throws IOException {
+        if (application != null) {
+            application.close();
+        }
+        if (api != null) {
+            api.close();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Test
+    void sustainsSyntheticUpdateStream() throws InterruptedException {
+        deletedBy.putAll(stream.deletes());
+        Map<Integer, Long> notifiedNanos = new HashMap<>();
+        Set<Integer> expected = new HashSet<>(stream.edits());
+        expected.addAll(deletedBy.values());
+        deletedBy.values().forEach(updateId -> unreportedPerDelete.merge(updateId, 1, Integer::sum));
+        Map<String, Integer> sendsByMethod = new TreeMap<>();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline && !(api.allConfirmed() && notifiedNanos.keySet().containsAll(expected))) {
+            FakeBotApiServer.SentRequest request;
+            while ((request = api.sent().poll()) != null) {
+                sendsByMethod.merge(request.method(), 1, Integer::sum);
+                matchNotification(request, notifiedNanos);
+            }
+            Thread.sleep(100);
+        }
+
+        report(notifiedNanos, expected, sendsByMethod);
+
+        assertTrue(api.allConfirmed(), "not every update was confirmed within " + TIMEOUT_SECONDS + "s");
+        int stored = jdbcTemplate.queryForObject("SELECT count(*) FROM stored_messages", Integer.class);
+        assertEquals(stream.messageCount(), stored);
+        assertTrue(notifiedNanos.keySet().containsAll(expected), "missing notifications");
+    }
+
+    // Edit notifications are matched by the Etok in the new text, delete notifications by the Ktok of
+    // every message they list; a delete update is done once all of its messages were reported
+    private void matchNotification(FakeBotApiServer.SentRequest request, Map<Integer, Long> notifiedNanos) {
+        String text = request.text();
+        if (text.contains("Message edited")) {
+            int became = text.indexOf("Became:");
+            Matcher edit = EDIT_TOKEN.matcher(became >= 0 ? text.substring(became) : text);
+            while (edit.find()) {
+                notifiedNanos.putIfAbsent(Integer.parseInt(edit.group(1)), request.receivedNanos());
+            }
+        } else if (text.contains("deleted")) {
+            Matcher message = MESSAGE_TOKEN.matcher(text);
+            while (message.find()) {
+                Integer updateId = deletedBy.remove(Integer.parseInt(message.group(1)));
+                if (updateId != null && unreportedPerDelete.merge(updateId, -1, Integer::sum) == 0) {
+                    notifiedNanos.put(updateId, request.receivedNanos());
+                }
+            }
+        }
+    }
+
+    private void report(Map<Integer, Long> notifiedNanos, Set<Integer> expected, Map<String, Integer> sendsByMethod) {
+        int updates = api.updateCount();
+        long firstServed = Long.MAX_VALUE;
+        long lastConfirmed = Long.MIN_VALUE;
+        List<Long> ingest = new ArrayList<>(updates);
+        for (int id = 1; id <= updates; id++) {
+            long served = api.servedNanos(id);
+            long confirmed = api.confirmedNanos(id);
+            if (served == 0 || confirmed == 0) {
+                continue;
+            }
+            firstServed = Math.min(firstServed, served);
+            lastConfirmed = Math.max(lastConfirmed, confirmed);
+            ingest.add(confirmed - served);
+        }
+        List<Long> notification = new ArrayList<>(notifiedNanos.size());
+        notifiedNanos.forEach((updateId, received) -> notification.add(received - api.servedNanos(updateId)));
+
+        double seconds = ingest.isEmpty() ? 0 : (lastConfirmed - firstServed) / 1e9;
+        System.out.printf("%n=== load report ===%n");
+        System.out.printf("updates=%d confirmed=%d messages=%d connections=%d offered_rate=%s%n",
+                updates, ingest.size(), stream.messageCount(), CONNECTIONS,
+                UPDATES_PER_SECOND > 0 ? UPDATES_PER_SECOND + "/s" : "unbounded");
+        System.out.printf("throughput=%.0f updates/s over %.1fs%n", seconds > 0 ? ingest.size() / seconds : 0, seconds);
+        System.out.printf("ingest_latency_ms %s%n", percentiles(ingest));
+        System.out.printf("notification_latency_ms %s (notified=%d of %d)%n",
+                percentiles(notification), notification.size(), expected.size());
+        System.out.printf("sends=%s injected_errors=%s api_latency_ms=%d%n", sendsByMethod, api.injected(), API_LATENCY_MS);
+    }
+
+    private static String percentiles(List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "n/a";
+        }
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format("p50=%.1f p95=%.1f p99=%.1f max=%.1f mean=%.1f",
+                at(sorted, 0.50), at(sorted, 0.95), at(sorted, 0.99), sorted[sorted.length - 1] / 1e6,
+                Arrays.stream(sorted).average().orElse(0) / 1e6);
+    }
+
+    private static double at(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+}
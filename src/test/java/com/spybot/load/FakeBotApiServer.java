@@ -0,0 +1,227 @@
+package com.spybot.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// In-process stand-in for the Bot API at http://127.0.0.1:<port>/bot<token>/<method>. getUpdates serves a
+// scripted update stream (ids 1..n, released at a fixed rate or all at once) and treats the offset as the
+// bot's confirmation; send methods are recorded with their arrival time. Latency, 429 and 5xx answers are
+// injected into send methods only, so the update stream itself is never disturbed.
+final class FakeBotApiServer implements AutoCloseable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    // One call to a send method that was answered with ok=true
+    record SentRequest(String method, long chatId, String text, long receivedNanos) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<String> updates;
+    private final double updatesPerSecond;
+    private final long latencyMs;
+    private final double rate429;
+    private final double rate5xx;
+
+    private final AtomicLongArray servedNanos;
+    private final AtomicLongArray confirmedNanos;
+    private final AtomicInteger confirmedOffset = new AtomicInteger(1);
+    private final Queue<SentRequest> sent = new ConcurrentLinkedQueue<>();
+    private final Map<String, AtomicLong> injected = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+    private volatile long streamStartNanos;
+
+    // updates are JSON objects whose update_id equals their position + 1
+    FakeBotApiServer(List<String> updates, double updatesPerSecond, long latencyMs, double rate429, double rate5xx)
+            throws IOException {
+        this.updates = updates;
+        this.updatesPerSecond = updatesPerSecond;
+        this.latencyMs = latencyMs;
+        this.rate429 = rate429;
+        this.rate5xx = rate5xx;
+        this.servedNanos = new AtomicLongArray(updates.size());
+        this.confirmedNanos = new AtomicLongArray(updates.size());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // Value for telegram.bot.api-url; the library appends the token and "/<method>"
+    String apiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    int updateCount() {
+        return updates.size();
+    }
+
+    boolean allConfirmed() {
+        return confirmedOffset.get() > updates.size();
+    }
+
+    long servedNanos(int updateId) {
+        return servedNanos.get(updateId - 1);
+    }
+
+    long confirmedNanos(int updateId) {
+        return confirmedNanos.get(updateId - 1);
+    }
+
+    Queue<SentRequest> sent() {
+        return sent;
+    }
+
+    Map<String, AtomicLong> injected() {
+        return injected;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1);
+            Map<String, String> params = readParams(exchange);
+            switch (method) {
+                case "getUpdates" -> respond(exchange, 200, ok(getUpdates(params)));
+                case "sendMessage", "sendPhoto", "sendVideo", "sendDocument", "sendVoice",
+                     "sendVideoNote", "sendSticker", "sendMediaGroup" -> handleSend(exchange, method, params);
+                default -> respond(exchange, 200, ok(JSON.getNodeFactory().booleanNode(true)));
+            }
+        }
+    }
+
+    private ArrayNode getUpdates(Map<String, String> params) throws IOException {
+        long now = System.nanoTime();
+        if (streamStartNanos == 0) {
+            streamStartNanos = now;
+        }
+        int offset = Math.max(1, Integer.parseInt(params.getOrDefault("offset", "0")));
+        int limit = Integer.parseInt(params.getOrDefault("limit", "100"));
+        confirm(offset, now);
+
+        int available = updatesPerSecond > 0
+                ? (int) Math.min(updates.size(), (now - streamStartNanos) / 1e9 * updatesPerSecond + 1)
+                : updates.size();
+        ArrayNode result = JSON.createArrayNode();
+        for (int id = offset; id <= available && result.size() < limit; id++) {
+            servedNanos.compareAndSet(id - 1, 0, now);
+            result.add(JSON.readTree(updates.get(id - 1)));
+        }
+        return result;
+    }
+
+    // An offset acknowledges every update below it
+    private void confirm(int offset, long now) {
+        int previous = confirmedOffset.getAndAccumulate(offset, Math::max);
+        for (int id = previous; id < Math.min(offset, updates.size() + 1); id++) {
+            confirmedNanos.compareAndSet(id - 1, 0, now);
+        }
+    }
+
+    private void handleSend(HttpExchange exchange, String method, Map<String, String> params) throws IOException {
+        sleep(latencyMs);
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < rate429) {
+            injected.computeIfAbsent("429", k -> new AtomicLong()).incrementAndGet();
+            ObjectNode error = error(429, "Too Many Requests: retry after " + RETRY_AFTER_SECONDS);
+            error.putObject("parameters").put("retry_after", RETRY_AFTER_SECONDS);
+            respond(exchange, 429, error);
+            return;
+        }
+        if (roll < rate429 + rate5xx) {
+            injected.computeIfAbsent("502", k -> new AtomicLong()).incrementAndGet();
+            respond(exchange, 502, error(502, "Bad Gateway"));
+            return;
+        }
+
+        long chatId = Long.parseLong(params.getOrDefault("chat_id", "0"));
+        String text = params.getOrDefault("text", params.getOrDefault("caption", ""));
+        sent.add(new SentRequest(method, chatId, text, System.nanoTime()));
+
+        ObjectNode message = JSON.createObjectNode()
+                .put("message_id", nextMessageId.incrementAndGet())
+                .put("date", System.currentTimeMillis() / 1000);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        respond(exchange, 200, ok(method.equals("sendMediaGroup") ? JSON.createArrayNode().add(message) : message));
+    }
+
+    // The library posts form-encoded parameters; multipart uploads are only counted, not parsed
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        for (String form : new String[]{query, contentType != null && contentType.startsWith("multipart/") ? null : body}) {
+            if (form == null || form.isEmpty()) {
+                continue;
+            }
+            for (String pair : form.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static ObjectNode ok(JsonNode result) {
+        ObjectNode response = JSON.createObjectNode().put("ok", true);
+        response.set("result", result);
+        return response;
+    }
+
+    private static ObjectNode error(int code, String description) {
+        return JSON.createObjectNode().put("ok", false).put("error_code", code).put("description", description);
+    }
+
+    private static void respond(HttpExchange exchange, int status, ObjectNode body) throws IOException {
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
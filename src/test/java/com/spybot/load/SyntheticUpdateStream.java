@@ -0,0 +1,171 @@
+package com.spybot.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Scripted Bot API updates: one business_connection per owner, then a random mix of business_message
+// (text or photo), edited_business_message and deleted_business_messages over each owner's private
+// chats. Edits and deletes only target earlier messages of the same chat, so every one of them must
+// produce a notification. Message texts carry "Ktok<n>" (message n) and edits add "Etok<update_id>",
+// which lets the harness match notifications back to the update that caused them.
+final class SyntheticUpdateStream {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String[] WORDS = {
+            "привет", "как", "дела", "завтра", "встреча", "созвонимся", "ok", "thanks", "later", "photo",
+            "🙂", "👍", "сегодня", "вечером", "работа", "meeting", "moved", "to", "11:00", "https://t.me/example"
+    };
+
+    private record LiveMessage(int messageId, int key, long date, boolean photo) {
+    }
+
+    private final Random random;
+    private final long now = System.currentTimeMillis() / 1000;
+    private final List<String> updates = new ArrayList<>();
+    // Message key -> update that deleted it, and update ids of text edits
+    private final Map<Integer, Integer> deletes = new HashMap<>();
+    private final List<Integer> edits = new ArrayList<>();
+    private int messages;
+
+    SyntheticUpdateStream(int totalUpdates, int connections, int chatsPerConnection, double photoShare, long seed) {
+        this.random = new Random(seed);
+        List<List<List<LiveMessage>>> live = new ArrayList<>();
+        int[][] nextMessageId = new int[connections][chatsPerConnection];
+        for (int c = 0; c < connections; c++) {
+            add(connectionUpdate(c));
+            List<List<LiveMessage>> chats = new ArrayList<>();
+            for (int j = 0; j < chatsPerConnection; j++) {
+                chats.add(new ArrayList<>());
+            }
+            live.add(chats);
+        }
+
+        while (updates.size() < totalUpdates) {
+            int c = random.nextInt(connections);
+            int j = random.nextInt(chatsPerConnection);
+            List<LiveMessage> chat = live.get(c).get(j);
+            double op = random.nextDouble();
+            if (op < 0.70 || chat.isEmpty()) {
+                LiveMessage message = new LiveMessage(++nextMessageId[c][j], ++messages, now, random.nextDouble() < photoShare);
+                chat.add(message);
+                add(messageUpdate("business_message", c, j, message, "Ktok" + message.key() + words()));
+            } else if (op < 0.85) {
+                LiveMessage message = chat.get(random.nextInt(chat.size()));
+                if (message.photo()) {
+                    continue;
+                }
+                int updateId = updates.size() + 1;
+                edits.add(updateId);
+                add(messageUpdate("edited_business_message", c, j, message,
+                        "Ktok" + message.key() + " Etok" + updateId + words()));
+            } else {
+                int updateId = updates.size() + 1;
+                ArrayNode ids = JSON.createArrayNode();
+                for (int n = 1 + random.nextInt(3); n > 0 && !chat.isEmpty(); n--) {
+                    LiveMessage message = chat.remove(random.nextInt(chat.size()));
+                    deletes.put(message.key(), updateId);
+                    ids.add(message.messageId());
+                }
+                ObjectNode deleted = JSON.createObjectNode().put("business_connection_id", connectionId(c));
+                deleted.set("chat", chat(c, j));
+                deleted.set("message_ids", ids);
+                add(JSON.createObjectNode().set("deleted_business_messages", deleted));
+            }
+        }
+    }
+
+    List<String> updates() {
+        return updates;
+    }
+
+    int messageCount() {
+        return messages;
+    }
+
+    Map<Integer, Integer> deletes() {
+        return deletes;
+    }
+
+    List<Integer> edits() {
+        return edits;
+    }
+
+    private void add(ObjectNode update) {
+        update.put("update_id", updates.size() + 1);
+        updates.add(update.toString());
+    }
+
+    private ObjectNode connectionUpdate(int c) {
+        ObjectNode connection = JSON.createObjectNode()
+                .put("id", connectionId(c))
+                .put("user_chat_id", ownerId(c))
+                .put("date", now)
+                .put("can_reply", true)
+                .put("is_enabled", true);
+        connection.set("user", user(ownerId(c), "Owner" + c));
+        connection.putObject("rights").put("can_reply", true);
+        return JSON.createObjectNode().set("business_connection", connection);
+    }
+
+    private ObjectNode messageUpdate(String type, int c, int j, LiveMessage live, String text) {
+        ObjectNode message = JSON.createObjectNode()
+                .put("message_id", live.messageId())
+                .put("business_connection_id", connectionId(c))
+                .put("date", live.date());
+        message.set("from", user(partnerId(c, j), "Partner" + j));
+        message.set("chat", chat(c, j));
+        if (type.startsWith("edited")) {
+            message.put("edit_date", now + 1);
+        }
+        if (live.photo()) {
+            message.put("caption", text);
+            message.putArray("photo").addObject()
+                    .put("file_id", "photo-" + live.key())
+                    .put("file_unique_id", "u-" + live.key())
+                    .put("width", 1280)
+                    .put("height", 960);
+        } else {
+            message.put("text", text);
+        }
+        return JSON.createObjectNode().set(type, message);
+    }
+
+    private String words() {
+        StringBuilder text = new StringBuilder();
+        for (int n = 2 + random.nextInt(12); n > 0; n--) {
+            text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private ObjectNode chat(int c, int j) {
+        return JSON.createObjectNode().put("id", partnerId(c, j)).put("type", "private").put("first_name", "Partner" + j);
+    }
+
+    private static ObjectNode user(long id, String firstName) {
+        return JSON.createObjectNode()
+                .put("id", id)
+                .put("is_bot", false)
+                .put("first_name", firstName)
+                .put("language_code", "en");
+    }
+
+    private static String connectionId(int c) {
+        return "load-connection-" + c;
+    }
+
+    static long ownerId(int c) {
+        return 1_000_000L + c;
+    }
+
+    private static long partnerId(int c, int j) {
+        return 2_000_000_000L + c * 10_000L + j;
+    }
+}
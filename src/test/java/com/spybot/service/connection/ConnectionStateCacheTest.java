@@ -0,0 +1,107 @@
+package com.spybot.service.connection;
+
+import com.spybot.domain.entity.BusinessConnection;
+import com.spybot.repository.BusinessConnectionRepository;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The repository always answers "disabled", so an enabled connection can only come from the cache
+class ConnectionStateCacheTest {
+
+    private static final String CONNECTION = "connection-1";
+
+    private final BusinessConnectionRepository repository = mock(BusinessConnectionRepository.class);
+    private final PgNotificationListener listener = new PgNotificationListener(null, null, false);
+    private final ConnectionStateCache cache = new ConnectionStateCache(repository, listener,
+            new SimpleMeterRegistry(), 100, 60);
+
+    @BeforeEach
+    void setUp() {
+        when(repository.findByConnectionId(CONNECTION)).thenReturn(Optional.of(connection(false)));
+        cache.init();
+    }
+
+    @AfterEach
+    void clearTransaction() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void putOutsideATransactionIsVisibleAtOnce() {
+        cache.put(connection(true));
+        assertTrue(cache.isEnabled(CONNECTION));
+    }
+
+    @Test
+    void putInsideATransactionIsCachedOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.put(connection(true));
+        assertFalse(cache.isEnabled(CONNECTION));
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertTrue(cache.isEnabled(CONNECTION));
+    }
+
+    @Test
+    void rolledBackPutLeavesTheStoredState() {
+        cache.put(connection(true));
+        TransactionSynchronizationManager.initSynchronization();
+        cache.put(connection(true));
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertFalse(cache.isEnabled(CONNECTION));
+    }
+
+    @Test
+    void notificationFromAnotherNodeInvalidatesTheEntry() {
+        cache.put(connection(true));
+        ReflectionTestUtils.invokeMethod(listener, "deliver", ConnectionStateCache.INVALIDATION_CHANNEL,
+                "other-node:" + CONNECTION);
+        assertFalse(cache.isEnabled(CONNECTION));
+    }
+
+    @Test
+    void listenerReconnectInvalidatesEverything() {
+        cache.put(connection(true));
+        cache.put(BusinessConnection.builder().connectionId("connection-2").isEnabled(true).build());
+
+        ReflectionTestUtils.invokeMethod(listener, "resync");
+
+        assertFalse(cache.isEnabled(CONNECTION));
+        assertFalse(cache.isEnabled("connection-2"));
+    }
+
+    private static void complete(int status) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private static BusinessConnection connection(boolean enabled) {
+        return BusinessConnection.builder()
+                .connectionId(CONNECTION)
+                .userId(7L)
+                .userChatId(7L)
+                .isEnabled(enabled)
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.spybot.service.encryption;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncryptionServiceTest {
+
+    static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private static final int NONCE_LENGTH = 12;
+
+    // A fresh instance is what a restart produces: same key, new prefix and counter start
+    static EncryptionService newService() {
+        EncryptionService service = new EncryptionService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "secretKeyBase64", KEY);
+        ReflectionTestUtils.setField(service, "compressionEnabled", true);
+        ReflectionTestUtils.setField(service, "compressionMinBytes", 64);
+        service.init();
+        return service;
+    }
+
+    private final EncryptionService service = newService();
+
+    @Test
+    void textAndBytesRoundTrip() {
+        String text = "привет, мир 👋 ".repeat(20);
+        assertEquals(text, service.decrypt(service.encrypt(text)));
+
+        byte[] data = "raw bytes".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(data, service.decryptBytes(service.encryptBytes(data)));
+    }
+
+    @Test
+    void noncesAreUniqueAcrossThreads() throws Exception {
+        int threads = 8;
+        int perThread = 20_000;
+        Set<ByteBuffer> nonces = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    byte[] data = {1, 2, 3};
+                    for (int i = 0; i < perThread; i++) {
+                        nonces.add(nonceOf(service.encryptBytes(data)));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, nonces.size());
+    }
+
+    @Test
+    void noncesDoNotRepeatAcrossRestarts() {
+        byte[] data = {42};
+        Set<ByteBuffer> nonces = new HashSet<>();
+        for (int restart = 0; restart < 5; restart++) {
+            EncryptionService instance = newService();
+            for (int i = 0; i < 10_000; i++) {
+                assertTrue(nonces.add(nonceOf(instance.encryptBytes(data))), "repeated nonce after restart " + restart);
+            }
+        }
+    }
+
+    @Test
+    void counterKeepsGoingPastLongMaxValue() {
+        ReflectionTestUtils.setField(service, "nonceStart", Long.MAX_VALUE - 1);
+        byte[] data = {7};
+        Set<ByteBuffer> nonces = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            byte[] sealed = service.encryptBytes(data);
+            assertTrue(nonces.add(nonceOf(sealed)));
+            assertArrayEquals(data, service.decryptBytes(sealed));
+        }
+    }
+
+    @Test
+    void exhaustedCounterRefusesToEncrypt() {
+        AtomicLong issued = (AtomicLong) ReflectionTestUtils.getField(service, "noncesIssued");
+        issued.set(Long.MAX_VALUE);
+        byte[] data = {7};
+
+        assertArrayEquals(data, service.decryptBytes(service.encryptBytes(data)));
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> service.encryptBytes(data));
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        assertThrows(RuntimeException.class, () -> service.encrypt("still refused"));
+    }
+
+    private static ByteBuffer nonceOf(byte[] sealed) {
+        return ByteBuffer.wrap(Arrays.copyOf(sealed, NONCE_LENGTH));
+    }
+}
@@ -0,0 +1,141 @@
+package com.spybot.service.encryption;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// EncryptingOutputStream and DecryptingInputStream against the on-disk MediaChunkFormat
+class MediaChunkFormatTest {
+
+    private static final int CHUNK = MediaChunkFormat.CHUNK_SIZE;
+    private static final int SEALED_CHUNK = EncryptionService.encryptedSize(CHUNK);
+    private static final int HEADER = MediaChunkFormat.HEADER.length;
+
+    private final EncryptionService service = EncryptionServiceTest.newService();
+
+    @Test
+    void aadEncodesIndexAndLastFlag() {
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0}, MediaChunkFormat.aad(0, false));
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 1, 2, 1}, MediaChunkFormat.aad(0x0102, true));
+        assertEquals(MediaChunkFormat.AAD_LENGTH, MediaChunkFormat.aad(Long.MAX_VALUE, false).length);
+    }
+
+    @Test
+    void roundTripsAroundChunkBoundaries() throws IOException {
+        for (int size : new int[]{0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, 3 * CHUNK + 17}) {
+            byte[] data = randomBytes(size);
+            assertArrayEquals(data, decrypt(encrypt(data)), "size " + size);
+        }
+    }
+
+    @Test
+    void fullLastChunkIsFollowedByAnEmptyOne() throws IOException {
+        assertEquals(HEADER + EncryptionService.encryptedSize(0), encrypt(new byte[0]).length);
+        assertEquals(HEADER + SEALED_CHUNK + EncryptionService.encryptedSize(0), encrypt(randomBytes(CHUNK)).length);
+        assertEquals(HEADER + SEALED_CHUNK + EncryptionService.encryptedSize(1), encrypt(randomBytes(CHUNK + 1)).length);
+    }
+
+    @Test
+    void singleByteWritesAndReadsMatchBulk() throws IOException {
+        byte[] data = randomBytes(CHUNK + 100);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (OutputStream out = service.encryptingStream(file)) {
+            for (byte b : data) {
+                out.write(b);
+            }
+        }
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = service.decryptingStream(new ByteArrayInputStream(file.toByteArray()))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                plain.write(b);
+            }
+        }
+        assertArrayEquals(data, plain.toByteArray());
+    }
+
+    @Test
+    void closeIsIdempotent() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        OutputStream out = service.encryptingStream(file);
+        out.write(randomBytes(10));
+        out.close();
+        int length = file.size();
+        out.close();
+        assertEquals(length, file.size());
+    }
+
+    @Test
+    void truncationAtChunkBoundaryIsDetected() throws IOException {
+        byte[] file = encrypt(randomBytes(2 * CHUNK));
+        // Drop the empty final chunk: every remaining chunk is full and none is marked last
+        byte[] cut = Arrays.copyOf(file, HEADER + 2 * SEALED_CHUNK);
+        assertThrows(EOFException.class, () -> decrypt(cut));
+    }
+
+    @Test
+    void truncationInsideChunkIsDetected() throws IOException {
+        byte[] file = encrypt(randomBytes(2 * CHUNK + 500));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(file, HEADER + SEALED_CHUNK + 100)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(file, file.length - 1)));
+        assertThrows(EOFException.class, () -> decrypt(Arrays.copyOf(file, HEADER + 5)));
+    }
+
+    @Test
+    void tamperedByteFailsAuthentication() throws IOException {
+        byte[] file = encrypt(randomBytes(CHUNK + 500));
+        for (int offset : new int[]{HEADER, HEADER + 20, HEADER + SEALED_CHUNK - 1, file.length - 1}) {
+            byte[] tampered = file.clone();
+            tampered[offset] ^= 1;
+            assertThrows(IOException.class, () -> decrypt(tampered), "offset " + offset);
+        }
+    }
+
+    @Test
+    void reorderedChunksFailAuthentication() throws IOException {
+        byte[] file = encrypt(randomBytes(3 * CHUNK));
+        byte[] swapped = file.clone();
+        System.arraycopy(file, HEADER, swapped, HEADER + SEALED_CHUNK, SEALED_CHUNK);
+        System.arraycopy(file, HEADER + SEALED_CHUNK, swapped, HEADER, SEALED_CHUNK);
+        assertThrows(IOException.class, () -> decrypt(swapped));
+    }
+
+    @Test
+    void wrongHeaderIsRejected() throws IOException {
+        byte[] file = encrypt(randomBytes(10));
+        file[HEADER - 1] = 2;
+        assertThrows(IOException.class, () -> service.decryptingStream(new ByteArrayInputStream(file)));
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (OutputStream out = service.encryptingStream(file)) {
+            out.write(data);
+        }
+        return file.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] file) throws IOException {
+        try (InputStream in = service.decryptingStream(new ByteArrayInputStream(file))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
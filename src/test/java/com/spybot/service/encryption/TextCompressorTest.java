@@ -0,0 +1,76 @@
+package com.spybot.service.encryption;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextCompressorTest {
+
+    private static final int MIN_BYTES = 64;
+    private static final String CHAT_TEXT = "Привет! Как дела? Что делаешь сегодня вечером? "
+            + "Давай завтра утром созвонимся, я позвоню тебе после работы. Спасибо 🙂 https://t.me/example";
+
+    @Test
+    void shortTextStaysRaw() {
+        byte[] framed = TextCompressor.encode("ok", true, MIN_BYTES);
+        assertArrayEquals("ok".getBytes(StandardCharsets.UTF_8), framed);
+    }
+
+    @Test
+    void disabledCompressionStaysRaw() {
+        byte[] framed = TextCompressor.encode(CHAT_TEXT, false, MIN_BYTES);
+        assertArrayEquals(CHAT_TEXT.getBytes(StandardCharsets.UTF_8), framed);
+    }
+
+    @Test
+    void chatTextIsCompressedAndRoundTrips() throws Exception {
+        byte[] framed = TextCompressor.encode(CHAT_TEXT, true, MIN_BYTES);
+        assertEquals(TextCompressor.FORMAT_DEFLATE_V1, framed[0]);
+        assertTrue(framed.length < CHAT_TEXT.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(CHAT_TEXT, TextCompressor.decode(framed));
+    }
+
+    @Test
+    void longTextRoundTrips() throws Exception {
+        String text = CHAT_TEXT.repeat(40);
+        byte[] framed = TextCompressor.encode(text, true, MIN_BYTES);
+        assertEquals(TextCompressor.FORMAT_DEFLATE_V1, framed[0]);
+        assertEquals(text, TextCompressor.decode(framed));
+    }
+
+    @Test
+    void rawUtf8FromBeforeCompressionDecodes() throws Exception {
+        assertEquals(CHAT_TEXT, TextCompressor.decode(CHAT_TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("", TextCompressor.decode(new byte[0]));
+    }
+
+    @Test
+    void legacyUncompressedCiphertextStillDecrypts() {
+        EncryptionService service = EncryptionServiceTest.newService();
+        // Rows written before compression sealed the plain UTF-8 bytes
+        byte[] legacy = service.encryptBytes(CHAT_TEXT.getBytes(StandardCharsets.UTF_8));
+        assertEquals(CHAT_TEXT, service.decrypt(legacy));
+        assertEquals(CHAT_TEXT, service.decrypt(service.encrypt(CHAT_TEXT)));
+    }
+
+    @Test
+    void truncatedCompressedTextIsRejected() {
+        byte[] framed = TextCompressor.encode(CHAT_TEXT.repeat(10), true, MIN_BYTES);
+        byte[] truncated = Arrays.copyOf(framed, framed.length / 2);
+        assertThrows(DataFormatException.class, () -> TextCompressor.decode(truncated));
+    }
+
+    @Test
+    void oversizedInflatedTextIsRejected() {
+        byte[] bomb = TextCompressor.encode("a".repeat(200_000), true, MIN_BYTES);
+        assertEquals(TextCompressor.FORMAT_DEFLATE_V1, bomb[0]);
+        assertThrows(DataFormatException.class, () -> TextCompressor.decode(bomb));
+    }
+}
@@ -0,0 +1,121 @@
+package com.spybot.service.history;
+
+import com.spybot.domain.entity.MessageEvent;
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.repository.MessageEventRepository;
+import com.spybot.service.encryption.EncryptionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EditHistoryServiceTest {
+
+    private static final long MESSAGE_ID = 1L;
+    private static final Instant SENT_AT = Instant.parse("2026-01-01T10:00:00Z");
+
+    private final EncryptionService encryptionService = newEncryptionService();
+    private final MessageEventRepository eventRepository = mock(MessageEventRepository.class);
+    private final EditHistoryService service = new EditHistoryService(eventRepository, encryptionService);
+
+    @Test
+    void equalContentHasNoDelta() {
+        assertNull(service.encryptedReverseDelta("same 🙂", "same 🙂"));
+        assertNull(service.encryptedReverseDelta(null, ""));
+        assertNull(service.encryptedReverseDelta("", null));
+        assertNotNull(service.encryptedReverseDelta("new", null));
+    }
+
+    @Test
+    void historyRebuildsEveryVersionFromTheCurrentOne() {
+        String[] texts = {"Встреча в 10:00", "Встреча в 11:00 🙂", null, "Встреча отменена 😢"};
+        String[] captions = {"фото", "фото", "фото 📷", null};
+        List<MessageEvent> edits = editChain(texts, captions);
+        StoredMessage message = storedMessage(texts[texts.length - 1], captions[captions.length - 1]);
+        when(eventRepository.findEditsNewestFirst(MESSAGE_ID)).thenReturn(reversed(edits));
+
+        List<MessageVersion> versions = service.history(message);
+
+        assertEquals(texts.length, versions.size());
+        for (int i = 0; i < texts.length; i++) {
+            assertEquals(new MessageVersion(i, texts[i], captions[i]), versions.get(i));
+        }
+    }
+
+    @Test
+    void resolveAppliesEditsMadeAfterTheEvent() {
+        String[] texts = {"один", "один два", "один два три", "раз два три"};
+        String[] captions = {null, null, null, null};
+        List<MessageEvent> edits = editChain(texts, captions);
+        StoredMessage message = storedMessage(texts[3], null);
+        MessageEvent event = edits.get(0);
+        event.setStoredMessage(message);
+        when(eventRepository.findEditsAfter(MESSAGE_ID, event.getId(), event.getEventTime()))
+                .thenReturn(reversed(edits.subList(1, edits.size())));
+
+        assertEquals(new EditedContent("один", "один два", null, null), service.resolve(event));
+    }
+
+    @Test
+    void resolveReadsFullCopiesFromBeforeDeltas() {
+        MessageEvent event = MessageEvent.builder()
+                .id(5L)
+                .encryptedOldText(encryptionService.encrypt("old"))
+                .encryptedNewText(encryptionService.encrypt("new"))
+                .deltaEncoded(false)
+                .eventTime(SENT_AT)
+                .build();
+
+        assertEquals(new EditedContent("old", "new", null, null), service.resolve(event));
+    }
+
+    // Edit events the way EditedMessageHandler writes them, oldest first: event i turns version i+1 back into version i
+    private List<MessageEvent> editChain(String[] texts, String[] captions) {
+        List<MessageEvent> edits = new ArrayList<>();
+        for (int i = 1; i < texts.length; i++) {
+            edits.add(MessageEvent.builder()
+                    .id((long) i + 1)
+                    .encryptedTextDelta(service.encryptedReverseDelta(texts[i], texts[i - 1]))
+                    .encryptedCaptionDelta(service.encryptedReverseDelta(captions[i], captions[i - 1]))
+                    .deltaEncoded(true)
+                    .eventTime(SENT_AT.plusSeconds(i))
+                    .build());
+        }
+        return edits;
+    }
+
+    private StoredMessage storedMessage(String text, String caption) {
+        return StoredMessage.builder()
+                .id(MESSAGE_ID)
+                .encryptedText(encryptionService.encrypt(text))
+                .encryptedCaption(encryptionService.encrypt(caption))
+                .messageDate(SENT_AT)
+                .build();
+    }
+
+    private static EncryptionService newEncryptionService() {
+        EncryptionService encryption = new EncryptionService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(encryption, "secretKeyBase64", Base64.getEncoder().encodeToString(new byte[32]));
+        ReflectionTestUtils.setField(encryption, "compressionEnabled", true);
+        ReflectionTestUtils.setField(encryption, "compressionMinBytes", 64);
+        encryption.init();
+        return encryption;
+    }
+
+    private static List<MessageEvent> reversed(List<MessageEvent> events) {
+        List<MessageEvent> copy = new ArrayList<>(events);
+        Collections.reverse(copy);
+        return copy;
+    }
+}
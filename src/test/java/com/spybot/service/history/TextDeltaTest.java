@@ -0,0 +1,109 @@
+package com.spybot.service.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextDeltaTest {
+
+    private static final String CHAT_TEXT = "Привет! Давай завтра утром созвонимся, я позвоню тебе после работы.";
+
+    @Test
+    void emptyTextRoundTrips() {
+        assertRoundTrip("", "");
+        assertRoundTrip("", CHAT_TEXT);
+        assertRoundTrip(CHAT_TEXT, "");
+        assertEquals("", TextDelta.apply(null, TextDelta.encode(null, "")));
+        assertEquals(CHAT_TEXT, TextDelta.apply(null, TextDelta.encode(null, CHAT_TEXT)));
+    }
+
+    @Test
+    void identicalTextIsSingleCopy() {
+        byte[] delta = TextDelta.encode(CHAT_TEXT, CHAT_TEXT);
+        // version byte, COPY op, start 0, one varint byte for the length
+        assertEquals(4, delta.length);
+        assertEquals(CHAT_TEXT, TextDelta.apply(CHAT_TEXT, delta));
+    }
+
+    @Test
+    void smallEditCarriesOnlyTheChangedWord() {
+        String edited = CHAT_TEXT.replace("завтра", "послезавтра");
+        byte[] delta = TextDelta.encode(CHAT_TEXT, edited);
+        assertTrue(delta.length < "послезавтра".getBytes(StandardCharsets.UTF_8).length + 16);
+        assertEquals(edited, TextDelta.apply(CHAT_TEXT, delta));
+    }
+
+    @Test
+    void fullReplacementRoundTrips() {
+        assertRoundTrip("first version of the text", "совсем другой текст без общих слов");
+        assertRoundTrip("a b c", "x");
+    }
+
+    @Test
+    void rewriteBeyondEditDistanceLimitRoundTrips() {
+        StringBuilder base = new StringBuilder();
+        StringBuilder target = new StringBuilder();
+        for (int i = 0; i < TextDiff.MAX_EDIT_DISTANCE; i++) {
+            base.append("word").append(i).append(' ');
+            target.append("слово").append(i * 7).append(", ");
+        }
+        assertRoundTrip(base.toString(), target.toString());
+    }
+
+    @Test
+    void multiByteAndEmojiBoundariesRoundTrip() {
+        assertRoundTrip("Ок 🙂 до встречи", "Ок 😀 до встречи");
+        assertRoundTrip("👍", "👍👍");
+        assertRoundTrip("👨‍👩‍👧 семья", "👨‍👩‍👦 семья");
+        assertRoundTrip("日本語のテキスト", "日本語のメッセージ");
+        assertRoundTrip("école", "ecolé");
+        // Supplementary letters are kept inside one word token
+        assertRoundTrip("𝐀𝐁𝐂 abc", "𝐀𝐁 abc");
+    }
+
+    @Test
+    void longCopyOffsetsUseMultiByteVarInts() {
+        String prefix = "ж".repeat(20_000) + " ";
+        assertRoundTrip(prefix + "старое окончание", prefix + "новое окончание");
+    }
+
+    @Test
+    void reverseDeltaChainRebuildsEveryVersion() {
+        List<String> versions = List.of(
+                "Встреча в 10:00",
+                "Встреча в 11:00 🙂",
+                "Встреча переносится на завтра, в 11:00 🙂",
+                "",
+                "Встреча отменена 😢",
+                "Встреча отменена 😢 — подробности позже");
+
+        // Stored like EditHistoryService does: the latest text plus a patch from each version back to the one before
+        List<byte[]> reverseDeltas = new ArrayList<>();
+        for (int i = 1; i < versions.size(); i++) {
+            reverseDeltas.add(TextDelta.encode(versions.get(i), versions.get(i - 1)));
+        }
+
+        String text = versions.get(versions.size() - 1);
+        for (int i = reverseDeltas.size() - 1; i >= 0; i--) {
+            text = TextDelta.apply(text, reverseDeltas.get(i));
+            assertEquals(versions.get(i), text);
+        }
+    }
+
+    @Test
+    void unknownFormatIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("x", new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("x", new byte[]{2, 1, 0, 1}));
+        assertThrows(IllegalArgumentException.class, () -> TextDelta.apply("x", new byte[]{1, 9}));
+    }
+
+    private static void assertRoundTrip(String base, String target) {
+        assertEquals(target, TextDelta.apply(base, TextDelta.encode(base, target)));
+    }
+}
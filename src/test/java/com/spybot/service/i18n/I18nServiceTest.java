@@ -0,0 +1,28 @@
+package com.spybot.service.i18n;
+
+import com.spybot.domain.enums.MediaType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class I18nServiceTest {
+
+    private final I18nService i18n = new I18nService();
+
+    @Test
+    void catalogEntriesRenderPerLanguage() {
+        assertEquals("<i>Страница 2 из 5</i>", i18n.get("notify.page", "ru", 2, 5));
+        assertEquals("<i>Page 2 of 5</i>", i18n.get("notify.page", "de", 2, 5));
+        assertEquals("(пусто)", i18n.get("notify.empty", Language.RU));
+        assertEquals("Voice message", i18n.mediaTypeName(MediaType.VOICE, Language.EN));
+        assertEquals("", i18n.mediaTypeName(MediaType.NONE, Language.RU));
+    }
+
+    @Test
+    void unknownKeyRendersAsItselfFromOneCachedTemplate() {
+        MessageTemplate first = i18n.template("missing.key 100%", Language.RU);
+        assertSame(first, i18n.template("missing.key 100%", Language.EN));
+        assertEquals("missing.key 100%", i18n.get("missing.key 100%", "en"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.spybot.service.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int KEYS = 100_000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void emptyFilterContainsNothing() {
+        BloomFilter filter = BloomFilter.create(KEYS, FPP);
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(filter.mightContain(random.nextLong()));
+        }
+        assertEquals(0, filter.insertions());
+        assertEquals(0.0, filter.expectedFpp(), 0.0);
+    }
+
+    @Test
+    void everyInsertedKeyIsFound() {
+        BloomFilter filter = BloomFilter.create(KEYS, FPP);
+        SplittableRandom random = new SplittableRandom(2);
+        long[] keys = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = random.nextLong();
+            filter.put(keys[i]);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key), "false negative for " + key);
+        }
+        assertEquals(KEYS, filter.insertions());
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheConfiguredOne() {
+        BloomFilter filter = BloomFilter.create(KEYS, FPP);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < KEYS; i++) {
+            filter.put(random.nextLong());
+        }
+        int probes = 200_000;
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue(rate < FPP * 1.5, "false positive rate " + rate);
+        assertEquals(FPP, filter.expectedFpp(), FPP * 0.25);
+    }
+
+    @Test
+    void keysFromTheMessageHashAreFound() {
+        BloomFilter filter = BloomFilter.create(KEYS, FPP);
+        for (int messageId = 1; messageId <= 10_000; messageId++) {
+            filter.put(KnownMessageFilter.hash(new MessageKey("connection", 42L, messageId)));
+        }
+        for (int messageId = 1; messageId <= 10_000; messageId++) {
+            assertTrue(filter.mightContain(KnownMessageFilter.hash(new MessageKey("connection", 42L, messageId))));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class KnownMessageFilterTest {
+
+    private static final long NOTIFY_LAG_MS = 5000;
+    private static final Instant OLD = Instant.now().minus(Duration.ofDays(1));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final KnownMessageFilter filter = new KnownMessageFilter(
+            new PgNotificationListener(null, null, false), mock(DataSource.class), null, meterRegistry,
+            true, 10_000, 0.01, NOTIFY_LAG_MS);
+
+    @Test
+    void everythingIsUncheckedUntilTheFirstBuild() {
+        assertEquals(KnownMessageFilter.Lookup.UNCHECKED, filter.check(key(1), OLD));
+        assertEquals(KnownMessageFilter.Lookup.UNCHECKED, filter.check(key(2), null));
+        assertEquals(0.0, counter("spybot.message_filter.lookups.skipped"));
+    }
+
+    @Test
+    void storedKeysAreMaybeAndOldUnknownKeysAreAbsent() {
+        markReady();
+        filter.addStored(List.of(stored(1)));
+
+        assertEquals(KnownMessageFilter.Lookup.MAYBE, filter.check(key(1), OLD));
+        assertEquals(KnownMessageFilter.Lookup.ABSENT, filter.check(key(2), OLD));
+        assertEquals(KnownMessageFilter.Lookup.ABSENT, filter.check(key(3), null));
+        assertEquals(2.0, counter("spybot.message_filter.lookups.skipped"));
+    }
+
+    @Test
+    void missesForRecentMessagesGoToTheDatabase() {
+        markReady();
+
+        assertEquals(KnownMessageFilter.Lookup.UNCHECKED, filter.check(key(1), Instant.now()));
+        assertEquals(1.0, counter("spybot.message_filter.lookups.unchecked"));
+    }
+
+    @Test
+    void missesWithoutADateAreUncheckedWhileOtherNodesPublishKeys() {
+        markReady();
+        String remoteKey = Integer.toHexString(KnownMessageFilter.shard(key(7)))
+                + Long.toHexString(KnownMessageFilter.hash(key(7)));
+        ReflectionTestUtils.invokeMethod(filter, "onRemoteKeys", remoteKey);
+
+        assertEquals(KnownMessageFilter.Lookup.MAYBE, filter.check(key(7), null));
+        assertEquals(KnownMessageFilter.Lookup.UNCHECKED, filter.check(key(8), null));
+        assertEquals(KnownMessageFilter.Lookup.ABSENT, filter.check(key(8), OLD));
+    }
+
+    @Test
+    void keysAreShardedByConnection() {
+        Set<Integer> shards = new HashSet<>();
+        for (int connection = 0; connection < 100; connection++) {
+            int shard = KnownMessageFilter.shard(new MessageKey("connection-" + connection, 1L, 1));
+            for (int messageId = 2; messageId < 50; messageId++) {
+                assertEquals(shard, KnownMessageFilter.shard(new MessageKey("connection-" + connection,
+                        (long) messageId, messageId)));
+            }
+            shards.add(shard);
+        }
+        assertEquals(KnownMessageFilter.SHARDS, shards.size());
+    }
+
+    @Test
+    void falsePositivesAreCounted() {
+        filter.recordFalsePositives(0);
+        filter.recordFalsePositives(3);
+        assertEquals(3.0, counter("spybot.message_filter.false_positives"));
+    }
+
+    private void markReady() {
+        ReflectionTestUtils.setField(filter, "ready", true);
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    private static MessageKey key(int messageId) {
+        return new MessageKey("connection", 42L, messageId);
+    }
+
+    private static StoredMessage stored(int messageId) {
+        return StoredMessage.builder()
+                .businessConnectionId("connection")
+                .chatId(42L)
+                .messageId(messageId)
+                .build();
+    }
+}
@@ -0,0 +1,185 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.MessageStorageService;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class MessageWriteBufferTest {
+
+    private static final String CONNECTION = "connection";
+    private static final int POISON = -1;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RecentMessageCache recentMessageCache = new RecentMessageCache(
+            new PgNotificationListener(null, null, false), meterRegistry, true, 1 << 20, 30);
+    private final KnownMessageFilter knownMessageFilter = new KnownMessageFilter(
+            new PgNotificationListener(null, null, false), mock(DataSource.class), null, meterRegistry,
+            true, 10_000, 0.01, 5000);
+    private final FakeStorage storage = new FakeStorage();
+    private MessageWriteBuffer buffer;
+
+    @AfterEach
+    void stopBuffer() throws InterruptedException {
+        storage.release();
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    void rowsQueuedDuringAFlushAreCommittedTogether() throws Exception {
+        start(100, 20);
+        storage.blockNextFlush();
+        CompletableFuture<Void> first = buffer.submit(message(42L, 1));
+        assertTrue(storage.awaitBlocked());
+
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int messageId = 2; messageId <= 4; messageId++) {
+            queued.add(buffer.submit(message(42L, messageId)));
+        }
+        assertFalse(first.isDone());
+        storage.release();
+
+        first.get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(queued.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of(1), List.of(2, 3, 4)), storage.flushedMessageIds());
+        assertTrue(recentMessageCache.get(new MessageKey(CONNECTION, 42L, 4)).isPresent());
+    }
+
+    @Test
+    void awaitPendingWaitsForTheLastRowOfThatChatOnly() throws Exception {
+        start(100, 20);
+        storage.blockNextFlush();
+        buffer.submit(message(42L, 1));
+        assertTrue(storage.awaitBlocked());
+        CompletableFuture<Void> last = buffer.submit(message(42L, 2));
+
+        // Nothing is pending for another chat of the same connection
+        buffer.awaitPending(CONNECTION, 43L);
+        buffer.awaitPending("other", 42L);
+
+        CompletableFuture<Boolean> waited = CompletableFuture.supplyAsync(() -> {
+            buffer.awaitPending(CONNECTION, 42L);
+            return last.isDone();
+        });
+        Thread.sleep(100);
+        assertFalse(waited.isDone());
+
+        storage.release();
+        assertTrue(waited.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failedBatchIsRetriedRowByRow() throws Exception {
+        // The third submit fills the batch, so all three rows are written together
+        start(3, 5_000);
+        CompletableFuture<Void> first = buffer.submit(message(42L, 1));
+        CompletableFuture<Void> poison = buffer.submit(message(42L, POISON));
+        CompletableFuture<Void> third = buffer.submit(message(43L, 3));
+
+        first.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        ExecutionException error = assertThrows(ExecutionException.class, () -> poison.get(5, TimeUnit.SECONDS));
+        assertEquals("poison row", error.getCause().getMessage());
+
+        assertEquals(List.of(List.of(1, POISON, 3), List.of(1), List.of(POISON), List.of(3)),
+                storage.flushedMessageIds());
+        // Ids handed out by the rolled back batch are cleared before the retry
+        assertEquals(List.of(false, false, false), storage.retriedWithId());
+        assertEquals(1.0, meterRegistry.counter("spybot.ingest.failed").count());
+        assertTrue(recentMessageCache.get(new MessageKey(CONNECTION, 43L, 3)).isPresent());
+        assertTrue(recentMessageCache.get(new MessageKey(CONNECTION, 42L, POISON)).isEmpty());
+    }
+
+    private void start(int batchSize, long maxDelayMs) {
+        buffer = new MessageWriteBuffer(storage, recentMessageCache, knownMessageFilter, meterRegistry,
+                batchSize, maxDelayMs, 1000);
+        buffer.start();
+    }
+
+    private static StoredMessage message(long chatId, int messageId) {
+        return StoredMessage.builder()
+                .businessConnectionId(CONNECTION)
+                .chatId(chatId)
+                .messageId(messageId)
+                .build();
+    }
+
+    // Assigns ids like the insert repository does and fails every batch that contains a POISON row
+    private static final class FakeStorage extends MessageStorageService {
+
+        private final AtomicLong nextId = new AtomicLong();
+        private final List<List<Integer>> flushed = new CopyOnWriteArrayList<>();
+        private final List<Boolean> retriedWithId = new CopyOnWriteArrayList<>();
+        private volatile boolean blockNext;
+        private volatile CountDownLatch entered = new CountDownLatch(0);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+
+        FakeStorage() {
+            super(null);
+        }
+
+        void blockNextFlush() {
+            entered = new CountDownLatch(1);
+            released = new CountDownLatch(1);
+            blockNext = true;
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return entered.await(5, TimeUnit.SECONDS);
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        List<List<Integer>> flushedMessageIds() {
+            return flushed;
+        }
+
+        List<Boolean> retriedWithId() {
+            return retriedWithId;
+        }
+
+        @Override
+        public int storeMessages(List<StoredMessage> messages) {
+            if (!flushed.isEmpty() && messages.size() == 1) {
+                retriedWithId.add(messages.get(0).getId() != null);
+            }
+            flushed.add(messages.stream().map(StoredMessage::getMessageId).toList());
+            messages.forEach(message -> message.setId(nextId.incrementAndGet()));
+            if (blockNext) {
+                blockNext = false;
+                entered.countDown();
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (messages.stream().anyMatch(message -> message.getMessageId() == POISON)) {
+                throw new IllegalStateException("poison row");
+            }
+            return messages.size();
+        }
+    }
+}
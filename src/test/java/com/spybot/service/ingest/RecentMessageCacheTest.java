@@ -0,0 +1,146 @@
+package com.spybot.service.ingest;
+
+import com.spybot.domain.entity.StoredMessage;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentMessageCacheTest {
+
+    private static final MessageKey KEY = new MessageKey("connection-1", 10L, 1);
+    private static final MessageKey OTHER_KEY = new MessageKey("connection:2", 20L, 2);
+
+    private final PgNotificationListener listener = new PgNotificationListener(null, null, false);
+    private final RecentMessageCache cache = new RecentMessageCache(listener, new SimpleMeterRegistry(),
+            true, 1_000_000, 30);
+
+    @BeforeEach
+    void setUp() {
+        cache.init();
+    }
+
+    @AfterEach
+    void clearTransaction() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void storedRowsAreCachedAndDuplicatesWithoutAnIdAreNot() {
+        cache.putStored(List.of(stored(KEY, 100L), stored(OTHER_KEY, null)));
+
+        assertEquals(Optional.of(100L), cache.get(KEY).map(RecentMessage::id));
+        assertEquals(Optional.empty(), cache.get(OTHER_KEY));
+    }
+
+    @Test
+    void updateInsideATransactionIsCachedOnlyAfterCommit() {
+        RecentMessage original = cache.warm(message(KEY, "old"));
+        TransactionSynchronizationManager.initSynchronization();
+        cache.update(original.withContent(bytes("new"), null));
+
+        // Neither the old nor the uncommitted version is served meanwhile
+        assertEquals(Optional.empty(), cache.get(KEY));
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        RecentMessage cached = cache.get(KEY).orElseThrow();
+        assertArrayEquals(bytes("new"), cached.encryptedText());
+        assertEquals(1, cached.editCount());
+    }
+
+    @Test
+    void rolledBackUpdateLeavesTheEntryToTheDatabase() {
+        RecentMessage original = cache.warm(message(KEY, "old"));
+        TransactionSynchronizationManager.initSynchronization();
+        cache.update(original.withContent(bytes("new"), null));
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(Optional.empty(), cache.get(KEY));
+    }
+
+    @Test
+    void removeInsideATransactionDropsTheEntry() {
+        cache.warm(message(KEY, "old"));
+        TransactionSynchronizationManager.initSynchronization();
+        cache.remove(KEY);
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(Optional.empty(), cache.get(KEY));
+    }
+
+    @Test
+    void notificationFromAnotherNodeInvalidatesOnlyThatKey() {
+        cache.warm(message(KEY, "old"));
+        cache.warm(message(OTHER_KEY, "other"));
+
+        ReflectionTestUtils.invokeMethod(listener, "deliver", RecentMessageCache.INVALIDATION_CHANNEL,
+                "other-node:" + OTHER_KEY.encode());
+
+        assertTrue(cache.get(KEY).isPresent());
+        assertEquals(Optional.empty(), cache.get(OTHER_KEY));
+    }
+
+    @Test
+    void listenerReconnectInvalidatesEverything() {
+        cache.warm(message(KEY, "old"));
+        cache.warm(message(OTHER_KEY, "other"));
+
+        ReflectionTestUtils.invokeMethod(listener, "resync");
+
+        assertEquals(Optional.empty(), cache.get(KEY));
+        assertEquals(Optional.empty(), cache.get(OTHER_KEY));
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        RecentMessageCache disabled = new RecentMessageCache(listener, new SimpleMeterRegistry(), false, 1_000_000, 30);
+        disabled.putStored(List.of(stored(KEY, 100L)));
+        disabled.warm(message(OTHER_KEY, "other"));
+
+        assertEquals(Optional.empty(), disabled.get(KEY));
+        assertEquals(Optional.empty(), disabled.get(OTHER_KEY));
+    }
+
+    private static void complete(int status) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private static RecentMessage message(MessageKey key, String text) {
+        return new RecentMessage(100L, key, Instant.now(), 7L, bytes(text), null, 0);
+    }
+
+    private static StoredMessage stored(MessageKey key, Long id) {
+        return StoredMessage.builder()
+                .id(id)
+                .businessConnectionId(key.connectionId())
+                .chatId(key.chatId())
+                .messageId(key.messageId())
+                .fromUserId(7L)
+                .messageDate(Instant.now())
+                .build();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes();
+    }
+}
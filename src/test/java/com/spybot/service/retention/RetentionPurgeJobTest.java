@@ -0,0 +1,129 @@
+package com.spybot.service.retention;
+
+import com.spybot.domain.entity.BotState;
+import com.spybot.repository.BotStateRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Runs the purge against the real partitioned schema; the cursor store is a mock so a saved cursor can be set up
+class RetentionPurgeJobTest {
+
+    private static final String TIME_KEY = "retention.stored_messages.cursor.time";
+    private static final String ID_KEY = "retention.stored_messages.cursor.id";
+    private static final Instant NOW = Instant.now().truncatedTo(ChronoUnit.MICROS);
+    private static final Instant EXPIRED = NOW.minus(Duration.ofDays(40));
+
+    private static EmbeddedPostgres postgres;
+    private static JdbcTemplate jdbcTemplate;
+
+    private final BotStateRepository stateRepository = mock(BotStateRepository.class);
+    private RetentionPurgeJob job;
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        postgres = EmbeddedPostgres.start();
+        DataSource dataSource = postgres.getPostgresDatabase();
+        Flyway.configure().dataSource(dataSource).mixed(true).load().migrate();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM stored_messages");
+        jdbcTemplate.update("DELETE FROM message_events");
+        // Four expired messages a minute apart and one inside the retention window
+        for (int messageId = 1; messageId <= 4; messageId++) {
+            insertMessage(messageId, EXPIRED.plus(Duration.ofMinutes(messageId)));
+        }
+        insertMessage(5, NOW.minus(Duration.ofDays(1)));
+        job = new RetentionPurgeJob(postgres.getPostgresDatabase(), jdbcTemplate, stateRepository,
+                new SimpleMeterRegistry(), 30, 2, 0);
+    }
+
+    @Test
+    void purgeWithoutCursorDeletesEveryExpiredRow() {
+        purge();
+        assertEquals(List.of(5), remainingMessageIds());
+        verify(stateRepository).upsert(ID_KEY, 0L);
+    }
+
+    @Test
+    void savedCursorResumesAfterTheRowsItAlreadyCovered() {
+        // A previous run stopped after message 2; what it did not reach is still deleted
+        Timestamp date = jdbcTemplate.queryForObject(
+                "SELECT message_date FROM stored_messages WHERE message_id = 2", Timestamp.class);
+        saveCursor(date.toInstant(), idOf(2));
+
+        purge();
+
+        assertEquals(List.of(1, 2, 5), remainingMessageIds());
+        // Pass finished, the next run starts from the beginning again
+        verify(stateRepository).upsert(ID_KEY, 0L);
+        verify(stateRepository).upsert(TIME_KEY, 0L);
+    }
+
+    @Test
+    void cursorNewerThanTheCutoffIsIgnored() {
+        // Left behind by a run with a longer retention; reusing it would skip every expired row
+        saveCursor(NOW.minus(Duration.ofDays(10)), idOf(5) + 1000);
+
+        purge();
+
+        assertEquals(List.of(5), remainingMessageIds());
+    }
+
+    private void purge() {
+        ReflectionTestUtils.invokeMethod(job, "purge");
+    }
+
+    private void saveCursor(Instant time, long id) {
+        when(stateRepository.findById(TIME_KEY)).thenReturn(Optional.of(state(TIME_KEY,
+                ChronoUnit.MICROS.between(Instant.EPOCH, time))));
+        when(stateRepository.findById(ID_KEY)).thenReturn(Optional.of(state(ID_KEY, id)));
+    }
+
+    private static BotState state(String key, long value) {
+        return BotState.builder().stateKey(key).stateValue(value).updatedAt(NOW).build();
+    }
+
+    private static void insertMessage(int messageId, Instant date) {
+        jdbcTemplate.update("INSERT INTO stored_messages (business_connection_id, chat_id, message_id, "
+                + "from_user_id, message_date) VALUES ('connection-1', 1, ?, 7, ?)", messageId, Timestamp.from(date));
+    }
+
+    private static long idOf(int messageId) {
+        return jdbcTemplate.queryForObject("SELECT id FROM stored_messages WHERE message_id = ?", Long.class, messageId);
+    }
+
+    private static List<Integer> remainingMessageIds() {
+        return jdbcTemplate.queryForList("SELECT message_id FROM stored_messages ORDER BY message_id", Integer.class);
+    }
+}
@@ -0,0 +1,119 @@
+package com.spybot.service.sender;
+
+import com.spybot.repository.SenderRepository;
+import com.spybot.service.cluster.PgNotificationListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// The repository never has a row, so a profile can only come from the cache
+class SenderProfileCacheTest {
+
+    private static final long USER_ID = 7L;
+    private static final SenderProfile PROFILE = new SenderProfile(USER_ID, "alice", "Alice", null);
+
+    private final SenderRepository repository = mock(SenderRepository.class);
+    private final PgNotificationListener listener = new PgNotificationListener(null, null, false);
+    private final SenderProfileCache cache = new SenderProfileCache(repository, listener,
+            new SimpleMeterRegistry(), 100, 60);
+
+    @BeforeEach
+    void setUp() {
+        when(repository.upsertIfChanged(USER_ID, "alice", "Alice", null)).thenReturn(1);
+        cache.init();
+    }
+
+    @AfterEach
+    void clearTransaction() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void observeOutsideATransactionIsCachedAtOnce() {
+        cache.observe(PROFILE);
+        assertEquals(Optional.of(PROFILE), cache.get(USER_ID));
+    }
+
+    @Test
+    void unchangedProfileIsNotWrittenAgain() {
+        cache.observe(PROFILE);
+        cache.observe(new SenderProfile(USER_ID, "alice", "Alice", null));
+        verify(repository, times(1)).upsertIfChanged(USER_ID, "alice", "Alice", null);
+    }
+
+    @Test
+    void observeInsideATransactionIsCachedOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.observe(PROFILE);
+        assertEquals(Optional.empty(), cache.get(USER_ID));
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(Optional.of(PROFILE), cache.get(USER_ID));
+    }
+
+    @Test
+    void rolledBackObserveIsNotCachedAndIsWrittenAgain() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.observe(PROFILE);
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(Optional.empty(), cache.get(USER_ID));
+
+        cache.observe(PROFILE);
+        verify(repository, times(2)).upsertIfChanged(USER_ID, "alice", "Alice", null);
+    }
+
+    @Test
+    void failedUpsertIsNotCached() {
+        when(repository.upsertIfChanged(USER_ID, "alice", "Alice", null))
+                .thenThrow(new IllegalStateException("database down"));
+
+        cache.observe(PROFILE);
+        assertEquals(Optional.empty(), cache.get(USER_ID));
+    }
+
+    @Test
+    void notificationFromAnotherNodeInvalidatesTheEntry() {
+        cache.observe(PROFILE);
+        ReflectionTestUtils.invokeMethod(listener, "deliver", SenderProfileCache.INVALIDATION_CHANNEL,
+                "other-node:" + USER_ID);
+        assertEquals(Optional.empty(), cache.get(USER_ID));
+    }
+
+    @Test
+    void listenerReconnectInvalidatesEverything() {
+        SenderProfile other = new SenderProfile(8L, "bob", "Bob", null);
+        when(repository.upsertIfChanged(8L, "bob", "Bob", null)).thenReturn(1);
+        cache.observe(PROFILE);
+        cache.observe(other);
+
+        ReflectionTestUtils.invokeMethod(listener, "resync");
+
+        assertEquals(Optional.empty(), cache.get(USER_ID));
+        assertEquals(Optional.empty(), cache.get(8L));
+    }
+
+    private static void complete(int status) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+}
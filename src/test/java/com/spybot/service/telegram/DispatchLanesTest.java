@@ -0,0 +1,142 @@
+package com.spybot.service.telegram;
+
+import com.spybot.config.ExecutionMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DispatchLanesTest {
+
+    private DispatchLanes lanes;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+    }
+
+    @Test
+    void tasksOfOneKeyRunInSubmissionOrder() throws Exception {
+        lanes = newLanes(4, 1000);
+        List<Integer> first = new CopyOnWriteArrayList<>();
+        List<Integer> second = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int n = i;
+            results.add(lanes.submit("chat-a", () -> record(first, n)));
+            results.add(lanes.submit("chat-b", () -> record(second, n)));
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+    }
+
+    @Test
+    void blockedLaneDoesNotHoldUpOtherLanes() throws Exception {
+        lanes = newLanes(2, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        // Integer keys hash to themselves, so 0 and 1 land on different lanes
+        CompletableFuture<Void> blocked = lanes.submit(0, () -> await(release));
+
+        lanes.submit(1, () -> CompletableFuture.completedFuture(null)).get(5, TimeUnit.SECONDS);
+        assertFalse(blocked.isDone());
+
+        release.countDown();
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void fullLaneBlocksTheSubmitterInsteadOfRunningOnIt() throws Exception {
+        lanes = newLanes(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        lanes.submit("chat", () -> {
+            order.add("running");
+            return await(release);
+        });
+        lanes.submit("chat", () -> record(order, "queued"));
+
+        Thread submitter = Thread.currentThread();
+        List<Thread> ranOn = new CopyOnWriteArrayList<>();
+        CompletableFuture<CompletableFuture<Void>> third = CompletableFuture.supplyAsync(
+                () -> lanes.submit("chat", () -> {
+                    ranOn.add(Thread.currentThread());
+                    return record(order, "third");
+                }));
+        Thread.sleep(200);
+        assertFalse(third.isDone(), "submit must wait for room in the lane");
+
+        release.countDown();
+        third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("running", "queued", "third"), order);
+        assertTrue(ranOn.get(0).getName().startsWith("dispatch-lane-0-"));
+        assertFalse(ranOn.contains(submitter));
+    }
+
+    @Test
+    void failedTaskFailsItsFutureOnly() throws Exception {
+        lanes = newLanes(1, 10);
+        CompletableFuture<Void> thrown = lanes.submit("chat", () -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<Void> failed = lanes.submit("chat",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("async boom")));
+        CompletableFuture<Void> next = lanes.submit("chat", () -> CompletableFuture.completedFuture(null));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> thrown.get(5, TimeUnit.SECONDS));
+        assertEquals("boom", error.getCause().getMessage());
+        error = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertEquals("async boom", error.getCause().getMessage());
+        next.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void submitAfterShutdownIsRejected() throws Exception {
+        lanes = newLanes(1, 10);
+        lanes.shutdown();
+        assertThrows(RejectedExecutionException.class,
+                () -> lanes.submit("chat", () -> CompletableFuture.completedFuture(null)));
+    }
+
+    private static DispatchLanes newLanes(int count, int queueCapacity) {
+        return new DispatchLanes(new SimpleMeterRegistry(), count, queueCapacity, ExecutionMode.PLATFORM, 10);
+    }
+
+    private static <T> CompletableFuture<Void> record(List<T> list, T value) {
+        if (ThreadLocalRandom.current().nextInt(50) == 0) {
+            Thread.yield();
+        }
+        list.add(value);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static CompletableFuture<Void> await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+}
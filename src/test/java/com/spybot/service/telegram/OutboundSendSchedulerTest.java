@@ -0,0 +1,220 @@
+package com.spybot.service.telegram;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.response.BaseResponse;
+import com.spybot.config.TelegramBotConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundSendSchedulerTest {
+
+    private static final BaseResponse OK = response("{\"ok\":true}");
+    private static final BaseResponse TOO_MANY_REQUESTS = response(
+            "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests\",\"parameters\":{\"retry_after\":1}}");
+    private static final BaseResponse BAD_GATEWAY = response("{\"ok\":false,\"error_code\":502,\"description\":\"Bad Gateway\"}");
+    private static final BaseResponse BAD_REQUEST = response("{\"ok\":false,\"error_code\":400,\"description\":\"Bad Request\"}");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TelegramBotConfig botConfig = new TelegramBotConfig();
+    // Every call made to the Bot API, as "<label>@<millis since start>"
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private OutboundSendScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        botConfig.setGlobalRatePerSecond(1000);
+        botConfig.setPerChatRatePerSecond(1000);
+        botConfig.setPerChatBurst(100);
+        botConfig.setSendWorkers(2);
+        botConfig.setMaxRetries(2);
+        botConfig.setRetryDelayMs(10);
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    void acceptedSendCompletesWithTrue() throws Exception {
+        start();
+        assertTrue(scheduler.submit(1L, "message", call("a", OK)).get(5, TimeUnit.SECONDS));
+        assertEquals(1.0, counter("spybot.telegram.send.sent"));
+    }
+
+    @Test
+    void tooManyRequestsWaitsRetryAfterAndHoldsLaterSendsOfTheChat() throws Exception {
+        start();
+        CompletableFuture<Boolean> first = scheduler.submit(1L, "message", call("a", TOO_MANY_REQUESTS, OK));
+        awaitCalls(1);
+
+        // Submitted while "a" waits for its retry: "b" must not overtake it, other chats only share the pause
+        CompletableFuture<Boolean> second = scheduler.submit(1L, "message", call("b", OK));
+        CompletableFuture<Boolean> otherChat = scheduler.submit(2L, "message", call("c", OK));
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertTrue(otherChat.get(5, TimeUnit.SECONDS));
+
+        List<String> labels = labels();
+        assertEquals("a", labels.get(0));
+        assertTrue(labels.indexOf("b") > labels.lastIndexOf("a"), "b overtook the retry of a: " + calls);
+        assertTrue(millis(lastCall("a")) - millis(calls.get(0)) >= 950, "retry_after was not honoured: " + calls);
+        assertTrue(counter("spybot.telegram.send.throttled") >= 1);
+    }
+
+    @Test
+    void serverErrorsAreRetriedUntilMaxRetries() throws Exception {
+        start();
+        assertTrue(scheduler.submit(1L, "message", call("a", BAD_GATEWAY, OK)).get(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.submit(2L, "message", call("b", BAD_GATEWAY)).get(5, TimeUnit.SECONDS));
+
+        assertEquals(2, labels().stream().filter("a"::equals).count());
+        assertEquals(3, labels().stream().filter("b"::equals).count());
+        assertEquals(1.0, counter("spybot.telegram.send.dropped"));
+    }
+
+    @Test
+    void clientErrorIsDroppedWithoutRetry() throws Exception {
+        start();
+        assertFalse(scheduler.submit(1L, "message", call("a", BAD_REQUEST, OK)).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a"), labels());
+        assertEquals(1.0, counter("spybot.telegram.send.dropped"));
+    }
+
+    @Test
+    void droppedRetryReleasesTheSendsHeldBehindIt() throws Exception {
+        botConfig.setMaxRetries(1);
+        botConfig.setRetryDelayMs(300);
+        start();
+        CompletableFuture<Boolean> first = scheduler.submit(1L, "message", call("a", BAD_GATEWAY));
+        awaitCalls(1);
+        CompletableFuture<Boolean> second = scheduler.submit(1L, "message", call("b", OK));
+
+        assertFalse(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "a", "b"), labels());
+    }
+
+    @Test
+    void callThatThrowsIsRetried() throws Exception {
+        start();
+        Queue<Boolean> throwFirst = new ConcurrentLinkedQueue<>(List.of(true));
+        Supplier<CompletableFuture<? extends BaseResponse>> call = () -> {
+            calls.add("a@" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            if (throwFirst.poll() != null) {
+                throw new IllegalStateException("connection reset");
+            }
+            return CompletableFuture.completedFuture(OK);
+        };
+        assertTrue(scheduler.submit(1L, "message", call).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "a"), labels());
+    }
+
+    @Test
+    void concurrentSubmitsNeverOvershootTheQueueCapacity() throws Exception {
+        // Workers are not started, so nothing leaves the queue
+        botConfig.setSendQueueCapacity(50);
+        scheduler = new OutboundSendScheduler(botConfig, meterRegistry);
+        int threads = 8;
+        List<CompletableFuture<Boolean>> results = new CopyOnWriteArrayList<>();
+        CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            long chatId = t;
+            pool.execute(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    results.add(scheduler.submit(chatId, "message", call("x", OK)));
+                }
+            });
+        }
+        ready.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        long dropped = results.stream().filter(result -> Boolean.FALSE.equals(result.getNow(null))).count();
+        assertEquals(threads * 100 - 50, dropped);
+        assertEquals(dropped, (long) counter("spybot.telegram.send.dropped"));
+    }
+
+    private void start() {
+        scheduler = new OutboundSendScheduler(botConfig, meterRegistry);
+        scheduler.start();
+    }
+
+    // Answers with the given responses in turn; the last one repeats
+    private Supplier<CompletableFuture<? extends BaseResponse>> call(String label, BaseResponse... responses) {
+        Queue<BaseResponse> remaining = new ConcurrentLinkedQueue<>(List.of(responses));
+        return () -> {
+            calls.add(label + "@" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            BaseResponse response = remaining.size() > 1 ? remaining.poll() : remaining.peek();
+            return CompletableFuture.completedFuture(response);
+        };
+    }
+
+    private void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Let the response be handled so the retry and its hold are registered
+        Thread.sleep(50);
+    }
+
+    private List<String> labels() {
+        List<String> labels = new ArrayList<>();
+        for (String call : calls) {
+            labels.add(call.substring(0, call.indexOf('@')));
+        }
+        return labels;
+    }
+
+    private String lastCall(String label) {
+        String last = null;
+        for (String call : calls) {
+            if (call.startsWith(label + "@")) {
+                last = call;
+            }
+        }
+        return last;
+    }
+
+    private static long millis(String call) {
+        return Long.parseLong(call.substring(call.indexOf('@') + 1));
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    private static BaseResponse response(String json) {
+        return BotUtils.fromJson(json, BaseResponse.class);
+    }
+}
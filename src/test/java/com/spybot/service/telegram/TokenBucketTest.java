@@ -0,0 +1,63 @@
+package com.spybot.service.telegram;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketTest {
+
+    private static final long T0 = 1_000_000_000L;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void startsFullAndThenReservesOnePeriodApart() {
+        TokenBucket bucket = new TokenBucket(1, 3, T0);
+
+        assertEquals(T0, bucket.reserve(T0));
+        assertEquals(T0, bucket.reserve(T0));
+        assertEquals(T0, bucket.reserve(T0));
+        assertEquals(T0 + SECOND, bucket.reserve(T0));
+        assertEquals(T0 + 2 * SECOND, bucket.reserve(T0));
+    }
+
+    @Test
+    void refillsWithElapsedTime() {
+        TokenBucket bucket = new TokenBucket(10, 1, T0);
+        assertEquals(T0, bucket.reserve(T0));
+
+        long later = T0 + SECOND / 10;
+        assertEquals(later, bucket.reserve(later));
+        assertEquals(later + SECOND / 10, bucket.reserve(later));
+    }
+
+    @Test
+    void idleTimeRefillsNoMoreThanCapacity() {
+        TokenBucket bucket = new TokenBucket(1, 2, T0);
+        long later = T0 + 60 * SECOND;
+
+        assertEquals(later, bucket.reserve(later));
+        assertEquals(later, bucket.reserve(later));
+        assertEquals(later + SECOND, bucket.reserve(later));
+    }
+
+    @Test
+    void pauseHoldsBackTheNextTokenUntilTheGivenTime() {
+        TokenBucket bucket = new TokenBucket(1, 3, T0);
+        bucket.pauseUntil(T0, T0 + 5 * SECOND);
+
+        // The pause itself is waited out, then the reservation takes its own period
+        assertEquals(T0 + 6 * SECOND, bucket.reserve(T0));
+        assertEquals(T0 + 7 * SECOND, bucket.reserve(T0 + SECOND));
+    }
+
+    @Test
+    void shorterPauseDoesNotShortenAnExistingWait() {
+        TokenBucket bucket = new TokenBucket(1, 1, T0);
+        bucket.pauseUntil(T0, T0 + 10 * SECOND);
+        bucket.pauseUntil(T0, T0 + SECOND);
+
+        assertEquals(T0 + 11 * SECOND, bucket.reserve(T0));
+    }
+}
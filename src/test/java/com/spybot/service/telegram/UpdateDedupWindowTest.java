@@ -0,0 +1,122 @@
+package com.spybot.service.telegram;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateDedupWindowTest {
+
+    private static final int WINDOW = 1024;
+
+    private final UpdateDedupWindow window = new UpdateDedupWindow(WINDOW);
+
+    @Test
+    void acceptsNewIdsAndRejectsRepeats() {
+        assertTrue(window.markIfNew(100));
+        assertTrue(window.markIfNew(101));
+        assertFalse(window.markIfNew(100));
+        assertFalse(window.markIfNew(101));
+    }
+
+    @Test
+    void everyIdInsideTheWindowIsTrackedSeparately() {
+        for (int id = 1; id <= WINDOW; id++) {
+            assertTrue(window.markIfNew(id), "first delivery of " + id);
+        }
+        for (int id = 1; id <= WINDOW; id++) {
+            assertFalse(window.markIfNew(id), "redelivery of " + id);
+        }
+    }
+
+    @Test
+    void idsThatFellOutOfTheWindowCountAsDuplicates() {
+        assertTrue(window.markIfNew(5));
+        // Same slot, one window later: the slot moves on and the old id is evicted
+        assertTrue(window.markIfNew(5 + WINDOW));
+        assertFalse(window.markIfNew(5));
+        assertFalse(window.markIfNew(5 + WINDOW));
+    }
+
+    @Test
+    void windowSizeIsRoundedUpToAPowerOfTwo() {
+        UpdateDedupWindow rounded = new UpdateDedupWindow(1000);
+        for (int id = 1; id <= 1024; id++) {
+            assertTrue(rounded.markIfNew(id));
+        }
+        assertTrue(rounded.markIfNew(1025));
+        assertFalse(rounded.markIfNew(1));
+    }
+
+    @Test
+    void sequenceRestartedFarBelowTheWindowIsAccepted() {
+        for (int id = 900_000_000; id < 900_000_000 + WINDOW; id++) {
+            assertTrue(window.markIfNew(id));
+        }
+        // Telegram started update_id over from a lower value
+        assertTrue(window.markIfNew(5_000));
+        assertTrue(window.markIfNew(5_001));
+        assertFalse(window.markIfNew(5_000));
+        assertFalse(window.markIfNew(5_001));
+        assertTrue(window.markIfNew(5_002));
+    }
+
+    @Test
+    void idsBehindByLessThanAWindowAreNotAReset() {
+        assertTrue(window.markIfNew(10_000));
+        assertFalse(window.markIfNew(10_000 - WINDOW));
+        assertFalse(window.markIfNew(10_000));
+    }
+
+    @Test
+    void releasedIdIsAcceptedAgain() {
+        assertTrue(window.markIfNew(42));
+        window.release(42);
+        assertTrue(window.markIfNew(42));
+        assertFalse(window.markIfNew(42));
+    }
+
+    @Test
+    void releaseDoesNotResetASlotTakenByANewerId() {
+        assertTrue(window.markIfNew(7));
+        assertTrue(window.markIfNew(7 + WINDOW));
+        window.release(7);
+        assertFalse(window.markIfNew(7 + WINDOW));
+    }
+
+    @Test
+    void concurrentDeliveriesOfTheSameIdAreAcceptedOnce() throws Exception {
+        int threads = 8;
+        int ids = 10_000;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        UpdateDedupWindow large = new UpdateDedupWindow(16384);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int id = 1; id <= ids; id++) {
+                    if (large.markIfNew(id)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(ids, accepted.get());
+    }
+}
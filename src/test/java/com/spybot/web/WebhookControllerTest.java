@@ -0,0 +1,128 @@
+package com.spybot.web;
+
+import com.spybot.config.TelegramBotConfig;
+import com.spybot.service.telegram.UpdateBackpressure;
+import com.spybot.service.telegram.UpdateConfirmMode;
+import com.spybot.service.telegram.UpdateDispatcherService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class WebhookControllerTest {
+
+    private static final String SECRET = "s3cr3t-token";
+    private static final int UPDATE_ID = 42;
+
+    private final TelegramBotConfig botConfig = new TelegramBotConfig();
+    private final UpdateDispatcherService updateDispatcher = mock(UpdateDispatcherService.class);
+    private final UpdateBackpressure backpressure = mock(UpdateBackpressure.class);
+    private final WebhookController controller = new WebhookController(botConfig, updateDispatcher, backpressure);
+
+    @BeforeEach
+    void setUp() {
+        botConfig.setWebhookSecret(SECRET);
+        botConfig.setConfirmMode(UpdateConfirmMode.AT_LEAST_ONCE);
+    }
+
+    @Test
+    void onlyTheExactSecretIsAccepted() throws Exception {
+        for (String wrong : new String[]{null, "", "s3cr3t", SECRET + "x", "S3CR3T-TOKEN", "s3cr3t-tokeN"}) {
+            assertEquals(HttpStatus.UNAUTHORIZED, receive(wrong).getStatusCode(), "secret " + wrong);
+        }
+        verifyNoInteractions(updateDispatcher);
+
+        when(updateDispatcher.dispatch(any())).thenReturn(CompletableFuture.completedFuture(null));
+        assertEquals(HttpStatus.OK, receive(SECRET).getStatusCode());
+    }
+
+    @Test
+    void missingConfiguredSecretRejectsEverything() throws Exception {
+        botConfig.setWebhookSecret(null);
+        assertEquals(HttpStatus.UNAUTHORIZED, receive(SECRET).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, receive(null).getStatusCode());
+        verifyNoInteractions(updateDispatcher);
+    }
+
+    @Test
+    void pausedIntakeAnswers503WithoutDispatching() throws Exception {
+        when(backpressure.isPaused()).thenReturn(true);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, receive(SECRET).getStatusCode());
+        verifyNoInteractions(updateDispatcher);
+    }
+
+    @Test
+    void atLeastOnceAnswersOnlyOnceTheUpdateIsDurable() throws Exception {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        when(updateDispatcher.dispatch(any())).thenReturn(durable);
+
+        CompletableFuture<ResponseEntity<Void>> response = controller.receiveUpdate(SECRET, request());
+        assertFalse(response.isDone());
+
+        durable.complete(null);
+        assertEquals(HttpStatus.OK, response.get(5, TimeUnit.SECONDS).getStatusCode());
+        verify(updateDispatcher, never()).release(UPDATE_ID);
+    }
+
+    @Test
+    void atLeastOnceFailureAnswers500AndReleasesTheUpdate() throws Exception {
+        when(updateDispatcher.dispatch(any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("database down")));
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, receive(SECRET).getStatusCode());
+        verify(updateDispatcher).release(UPDATE_ID);
+    }
+
+    @Test
+    void atLeastOnceTimeoutAnswers500AndReleasesTheUpdate() throws Exception {
+        assertEquals(30_000L, ReflectionTestUtils.getField(controller, "durableWaitMs"));
+        ReflectionTestUtils.setField(controller, "durableWaitMs", 100L);
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        when(updateDispatcher.dispatch(any())).thenReturn(durable);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, receive(SECRET).getStatusCode());
+        verify(updateDispatcher).release(UPDATE_ID);
+        // The write itself is left alone; only the response gave up on it
+        assertFalse(durable.isDone());
+    }
+
+    @Test
+    void atMostOnceAnswersAtOnceAndNeverReleases() throws Exception {
+        botConfig.setConfirmMode(UpdateConfirmMode.AT_MOST_ONCE);
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        when(updateDispatcher.dispatch(any())).thenReturn(durable);
+
+        CompletableFuture<ResponseEntity<Void>> response = controller.receiveUpdate(SECRET, request());
+        assertEquals(HttpStatus.OK, response.getNow(null).getStatusCode());
+
+        durable.completeExceptionally(new IllegalStateException("database down"));
+        verify(updateDispatcher, never()).release(UPDATE_ID);
+    }
+
+    private ResponseEntity<Void> receive(String secret) throws Exception {
+        return controller.receiveUpdate(secret, request()).get(5, TimeUnit.SECONDS);
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/webhook");
+        request.setContentType("application/json");
+        request.setContent(("{\"update_id\":" + UPDATE_ID + "}").getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+}